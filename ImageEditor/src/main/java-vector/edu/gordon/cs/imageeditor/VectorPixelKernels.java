@@ -0,0 +1,220 @@
+/*
+ * VectorPixelKernels.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The innermost loops of the image operations, done several values at a
+ * time with the incubating vector API, which the JIT compiler turns into
+ * the SIMD instructions of the machine.  Each method works on whole
+ * vectors for as long as it can, and leaves what is left over to the
+ * scalar method it replaces.  Only lane-wise operations that give exactly
+ * the results of the scalar code are used: a multiply followed by a
+ * separate add rather than a fused multiply-add, and rounding worked out
+ * from the whole and fractional parts rather than by adding a half.
+ *
+ * This class needs Java 17 or later, and is built only by the vector
+ * profile of the build.  PixelKernels loads it by name.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorPixelKernels extends PixelKernels
+{
+  // Vectors of doubles, and the vectors of ints with one int per double
+  private static final VectorSpecies<Double> DOUBLES =
+    DoubleVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Integer> INTS_PER_DOUBLE =
+    VectorSpecies.of(int.class,
+                     VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+  // Vectors of ints, and the positions of every other int in twice as many
+  private static final VectorSpecies<Integer> INTS =
+    IntVector.SPECIES_PREFERRED;
+  private static final int [] EVEN_POSITIONS = new int[INTS.length()];
+
+  // Vectors of bytes, and the vectors holding half as many
+  private static final VectorSpecies<Byte> BYTES =
+    ByteVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Byte> HALF_BYTES =
+    VectorSpecies.of(byte.class,
+                     VectorShape.forBitSize(BYTES.vectorBitSize() / 2));
+
+  // Lowest byte of a short
+  private static final short BYTE_MASK = 0xff;
+
+  static {
+    for (int i = 0; i < EVEN_POSITIONS.length; i ++) {
+      EVEN_POSITIONS[i] = 2 * i;
+    }
+  }
+
+  /** Constructor
+   *
+   *  @exception UnsupportedOperationException if the machine has no useful
+   *             vectors
+   */
+  VectorPixelKernels() {
+    if (DOUBLES.length() < 2) {
+      throw new UnsupportedOperationException("No SIMD vectors available");
+    }
+  }
+
+  @Override
+  boolean isVectorized() {
+    return true;
+  }
+
+  @Override
+  void multiplyAdd(double [] sums, int [] source, int sourceOffset,
+                   double weight, int length) {
+    int i = 0;
+    for (int bound = DOUBLES.loopBound(length); i < bound;
+         i += DOUBLES.length()) {
+      DoubleVector values = (DoubleVector)
+        IntVector.fromArray(INTS_PER_DOUBLE, source, sourceOffset + i)
+                 .convertShape(VectorOperators.I2D, DOUBLES, 0);
+      DoubleVector.fromArray(DOUBLES, sums, i).add(values.mul(weight))
+                  .intoArray(sums, i);
+    }
+    for (; i < length; i ++) {
+      sums[i] += weight * source[sourceOffset + i];
+    }
+  }
+
+  @Override
+  void multiplyAdd(double [] sums, double [] source, int sourceOffset,
+                   double weight, int length) {
+    int i = 0;
+    for (int bound = DOUBLES.loopBound(length); i < bound;
+         i += DOUBLES.length()) {
+      DoubleVector values =
+        DoubleVector.fromArray(DOUBLES, source, sourceOffset + i);
+      DoubleVector.fromArray(DOUBLES, sums, i).add(values.mul(weight))
+                  .intoArray(sums, i);
+    }
+    for (; i < length; i ++) {
+      sums[i] += weight * source[sourceOffset + i];
+    }
+  }
+
+  /** Round and clamp several sums at once.  Clamping to 0 .. MAX_VALUE + 1
+   *  first changes nothing once the rounded value is clamped, and leaves
+   *  a non-negative value (or NaN, which becomes 0 as Math.round() makes
+   *  it).  Such a value rounds to its whole part, plus one if its exactly
+   *  worked out fractional part is at least a half.
+   */
+  @Override
+  void roundAndClamp(double [] sums, int [] dest, int length) {
+    int i = 0;
+    for (int bound = DOUBLES.loopBound(length); i < bound;
+         i += DOUBLES.length()) {
+      DoubleVector values = DoubleVector.fromArray(DOUBLES, sums, i)
+                                        .max(MIN_VALUE)
+                                        .min(MAX_VALUE + 1);
+      IntVector whole = (IntVector)
+        values.convertShape(VectorOperators.D2I, INTS_PER_DOUBLE, 0);
+      DoubleVector fraction = values.sub((DoubleVector)
+        whole.convertShape(VectorOperators.I2D, DOUBLES, 0));
+      VectorMask<Integer> roundUp =
+        fraction.compare(VectorOperators.GE, 0.5).cast(INTS_PER_DOUBLE);
+      whole.add(1, roundUp).min(MAX_VALUE).intoArray(dest, i);
+    }
+    for (; i < length; i ++) {
+      dest[i] = (int) Math.max(MIN_VALUE,
+                               Math.min(MAX_VALUE, Math.round(sums[i])));
+    }
+  }
+
+  @Override
+  void multiplyAdd(int [] sums, int [] source, int sourceOffset, int weight,
+                   int length) {
+    int i = 0;
+    for (int bound = INTS.loopBound(length); i < bound; i += INTS.length()) {
+      IntVector values = IntVector.fromArray(INTS, source, sourceOffset + i);
+      IntVector.fromArray(INTS, sums, i).add(values.mul(weight))
+               .intoArray(sums, i);
+    }
+    for (; i < length; i ++) {
+      sums[i] += weight * source[sourceOffset + i];
+    }
+  }
+
+  @Override
+  void shiftAndClamp(int [] sums, int bits, int [] dest, int length) {
+    int half = 1 << (bits - 1);
+    int i = 0;
+    for (int bound = INTS.loopBound(length); i < bound; i += INTS.length()) {
+      IntVector.fromArray(INTS, sums, i)
+               .add(half)
+               .lanewise(VectorOperators.ASHR, bits)
+               .max(MIN_VALUE)
+               .min(MAX_VALUE)
+               .intoArray(dest, i);
+    }
+    for (; i < length; i ++) {
+      dest[i] = Math.max(MIN_VALUE,
+                         Math.min(MAX_VALUE, (sums[i] + half) >> bits));
+    }
+  }
+
+  @Override
+  void averageSquares(int [] upper, int upperOffset, int [] lower,
+                      int lowerOffset, int [] dest, int destOffset,
+                      int length) {
+    int i = 0;
+    for (int bound = INTS.loopBound(length); i < bound; i += INTS.length()) {
+      int u = upperOffset + 2 * i;
+      int l = lowerOffset + 2 * i;
+      IntVector.fromArray(INTS, upper, u, EVEN_POSITIONS, 0)
+               .add(IntVector.fromArray(INTS, lower, l, EVEN_POSITIONS, 0))
+               .add(IntVector.fromArray(INTS, upper, u + 1, EVEN_POSITIONS, 0))
+               .add(IntVector.fromArray(INTS, lower, l + 1, EVEN_POSITIONS, 0))
+               .lanewise(VectorOperators.DIV, 4)
+               .intoArray(dest, destOffset + i);
+    }
+    super.averageSquares(upper, upperOffset + 2 * i, lower,
+                         lowerOffset + 2 * i, dest, destOffset + i,
+                         length - i);
+  }
+
+  /** Average squares of byte pixels several at a time.  Each pair of
+   *  neighbouring bytes is loaded as one short, so the pair can be added up
+   *  within a lane.
+   */
+  @Override
+  void averageSquares(byte [] upper, int upperOffset, byte [] lower,
+                      int lowerOffset, byte [] dest, int destOffset,
+                      int length) {
+    int step = HALF_BYTES.length();
+    int i = 0;
+    for (; i + step <= length; i += step) {
+      ShortVector upperPairs =
+        ByteVector.fromArray(BYTES, upper, upperOffset + 2 * i)
+                  .reinterpretAsShorts();
+      ShortVector lowerPairs =
+        ByteVector.fromArray(BYTES, lower, lowerOffset + 2 * i)
+                  .reinterpretAsShorts();
+      ShortVector sums = upperPairs.and(BYTE_MASK)
+        .add(upperPairs.lanewise(VectorOperators.LSHR, 8).and(BYTE_MASK))
+        .add(lowerPairs.and(BYTE_MASK))
+        .add(lowerPairs.lanewise(VectorOperators.LSHR, 8).and(BYTE_MASK));
+      sums.lanewise(VectorOperators.LSHR, 2)
+          .convertShape(VectorOperators.S2B, HALF_BYTES, 0)
+          .reinterpretAsBytes()
+          .intoArray(dest, destOffset + i);
+    }
+    super.averageSquares(upper, upperOffset + 2 * i, lower,
+                         lowerOffset + 2 * i, dest, destOffset + i,
+                         length - i);
+  }
+}
@@ -31,10 +31,24 @@ public class Array2dImageProducer implements ImageProducer
      *         be converted to an image.
      */
     public Array2dImageProducer(ColorModel colorModel, int [] [] pixels)
+    {
+        this(colorModel, IntPixelStore.fromArray(pixels));
+    }
+
+    /** Constructor for an image whose pixels are held in a pixel store.
+     *  The pixels are sent straight from the store, without being copied
+     *  into an array first.
+     *
+     *  @param colorModel the color model to use for interpreting the
+     *         pixel values
+     *  @param pixels the store holding the pixel values to be converted
+     *         to an image.
+     */
+    Array2dImageProducer(ColorModel colorModel, PixelStore pixels)
     {
         this.colorModel = colorModel;
-        width = pixels[0].length;
-        height = pixels.length;
+        width = pixels.getWidth();
+        height = pixels.getHeight();
         this.pixels = pixels;
 
         // Set up to handle requirements of the ImageProducer interface
@@ -121,8 +135,32 @@ public class Array2dImageProducer implements ImageProducer
         consumer.setHints(ImageConsumer.SINGLEPASS |
                               ImageConsumer.SINGLEFRAME |
                               ImageConsumer.TOPDOWNLEFTRIGHT);
-        for (int row = 0; row < height; row ++)
-            consumer.setPixels(0, row, width, 1, colorModel, pixels[row], 0, width);
+        if (pixels instanceof IntPixelStore)
+        {
+            // The whole image is already laid out the way the consumer
+            // wants it, so it can be sent in one piece
+
+            IntPixelStore intPixels = (IntPixelStore) pixels;
+            consumer.setPixels(0, 0, width, height, colorModel,
+                               intPixels.getData(), intPixels.indexOf(0, 0),
+                               intPixels.getStride());
+        }
+        else if (pixels instanceof BytePixelStore)
+        {
+            // Gray scale pixels can be sent as bytes, again in one piece
+
+            consumer.setPixels(0, 0, width, height, colorModel,
+                               ((BytePixelStore) pixels).getData(), 0, width);
+        }
+        else
+        {
+            int [] row = new int[width];
+            for (int r = 0; r < height; r ++)
+            {
+                pixels.readRow(r, row, 0);
+                consumer.setPixels(0, r, width, 1, colorModel, row, 0, width);
+            }
+        }
         consumer.imageComplete(ImageConsumer.STATICIMAGEDONE);
     }
 
@@ -135,5 +173,5 @@ public class Array2dImageProducer implements ImageProducer
     private int width, height;      // The size of the image
     private ColorModel colorModel;  // Color model for interpreting the image's
                                     // pixels
-    private int [][] pixels;        // The pixel data in the image
+    private PixelStore pixels;      // The pixel data in the image
 }
@@ -143,7 +143,6 @@ public class ButtonPanel extends JPanel
     });
 
 
-/*
     JButton histogramButton = new JButton("Histogram");
     add(histogramButton);
     histogramButton.addActionListener(new ActionListener() {
@@ -154,7 +153,6 @@ public class ButtonPanel extends JPanel
         gui.showHistogram(gui.getImage().calculateHistogram());
       }
     });
-*/
 
     JButton halveButton = new JButton("Halve");
     add(halveButton);
@@ -168,7 +166,6 @@ public class ButtonPanel extends JPanel
       }
     });
 
-/*
     JButton shiftLeftButton = new HoldableButton("< Shift");
     add(shiftLeftButton);
     shiftLeftButton.addActionListener(new ActionListener() {
@@ -180,9 +177,7 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
 
-/*
     JButton shiftRightButton = new HoldableButton("Shift >");
     add(shiftRightButton);
     shiftRightButton.addActionListener(new ActionListener() {
@@ -194,9 +189,7 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
 
-/*
     JButton shiftUpButton = new HoldableButton("Shift ^");
     add(shiftUpButton);
     shiftUpButton.addActionListener(new ActionListener() {
@@ -208,9 +201,7 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
 
-/*
     JButton shiftDownButton = new HoldableButton("Shift v");
     add(shiftDownButton);
     shiftDownButton.addActionListener(new ActionListener() {
@@ -222,7 +213,6 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
 
 
     JButton rotateButton = new JButton("Rotate");
@@ -237,8 +227,30 @@ public class ButtonPanel extends JPanel
       }
     });
 
+    JButton rotateByButton = new JButton("Rotate by");
+    add(rotateByButton);
+    rotateByButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (gui.getImage() == null) {
+          return;
+        }
+        String degreesString = JOptionPane.showInputDialog(
+          gui.getFrame(), "Degrees clockwise?", "",
+          JOptionPane.QUESTION_MESSAGE);
+        if (degreesString != null) {
+          try {
+            gui.getImage().rotate(Double.parseDouble(degreesString));
+            gui.redisplayImage(true);
+          } catch(IllegalArgumentException exception) {
+            JOptionPane.showMessageDialog(gui.getFrame(),
+                                          "Angle must be a number",
+                                          "Error",
+                                          JOptionPane.ERROR_MESSAGE);
+          }
+        }
+      }
+    });
 
-/*
     JButton doubleButton = new JButton("Double");
     add(doubleButton);
     doubleButton.addActionListener(new ActionListener() {
@@ -246,14 +258,12 @@ public class ButtonPanel extends JPanel
         if (gui.getImage() == null) {
           return;
         }
-        ColorModel savedColorModel = gui.getImage().getColorModel();
-        int [] [] savedPixels = gui.getImage().getPixels();
+        // The image only takes the result once it has all been made, so it
+        // is left as it was if there is no room for the result
         try {
           gui.getImage().doubleSize();
           gui.redisplayImage(true);
         } catch(OutOfMemoryError exception) {
-          gui.setImage(new ProjectImage(savedColorModel,
-                                        savedPixels));
           gui.redisplayImage(false);
           JOptionPane.showMessageDialog(gui.getFrame(),
                                         "Resulting image would be too big",
@@ -262,9 +272,7 @@ public class ButtonPanel extends JPanel
         }
       }
     });
-*/
 
-/*
     JButton blurButton = new JButton("Blur");
     add(blurButton);
     blurButton.addActionListener(new ActionListener() {
@@ -280,9 +288,31 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
 
-/*
+    JButton gaussianButton = new JButton("Gaussian");
+    add(gaussianButton);
+    gaussianButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent E) {
+        if (gui.getImage() == null) {
+          return;
+        }
+        String sigmaString = JOptionPane.showInputDialog(
+          gui.getFrame(), "Sigma?", "", JOptionPane.QUESTION_MESSAGE);
+        if (sigmaString != null) {
+          try {
+            gui.getImage().gaussianBlur(Double.parseDouble(sigmaString));
+            gui.redisplayImage(false);
+          } catch(IllegalArgumentException exception) {
+            JOptionPane.showMessageDialog(gui.getFrame(),
+                                          "Sigma must be a number of at "
+                                          + "least " + GaussianBlur.MIN_SIGMA,
+                                          "Error",
+                                          JOptionPane.ERROR_MESSAGE);
+          }
+        }
+      }
+    });
+
     JButton sharpenButton = new JButton("Sharpen");
     add(sharpenButton);
     sharpenButton.addActionListener(new ActionListener() {
@@ -298,9 +328,7 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
 
-/*
     JButton edgeButton = new JButton("Edges");
     add(edgeButton);
     edgeButton.addActionListener(new ActionListener() {
@@ -318,6 +346,5 @@ public class ButtonPanel extends JPanel
         gui.redisplayImage(false);
       }
     });
-*/
   }
 }
@@ -0,0 +1,282 @@
+/*
+ * BytePixelStore.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * A pixel store for simple gray scale images, whose pixels all lie in the
+ * range 0 .. 255.  Each pixel takes one (unsigned) byte rather than an int,
+ * so the image needs a quarter of the memory an IntPixelStore would.  The
+ * pixels are kept in one byte array in row-major order.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class BytePixelStore extends PixelStore
+{
+  // Largest value a pixel can hold
+  private static final int MAX_VALUE = 0xff;
+
+  // The pixel data
+  private final byte [] data;
+
+  /** Constructor for a new, zero filled store
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   */
+  BytePixelStore(int width, int height) {
+    this(new byte[Math.multiplyExact(width, height)], width, height);
+  }
+
+  /** Constructor for a store that uses an existing array
+   *
+   *  @param data the array holding the pixels, width * height of them in
+   *         row-major order
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   */
+  BytePixelStore(byte [] data, int width, int height) {
+    super(width, height);
+    if ((long) width * height > data.length) {
+      throw new IllegalArgumentException("Image does not fit the array");
+    }
+    this.data = data;
+  }
+
+  /** Check whether every pixel of a store could be held in a byte store
+   *
+   *  @param store the store to check
+   *  @return true if all of its pixels lie in the range 0 .. 255
+   */
+  static boolean canHold(PixelStore store) {
+    if (store instanceof BytePixelStore) {
+      return true;
+    }
+    final int [] bits = new int[1];
+    store.scanRows(0, store.getHeight(), (row, col, data, offset, length) -> {
+      int rowBits = 0;
+      for (int i = offset; i < offset + length; i ++) {
+        rowBits |= data[i];
+      }
+      bits[0] |= rowBits;
+    });
+    return (bits[0] & ~MAX_VALUE) == 0;
+  }
+
+  /** Create a byte store holding a copy of another store
+   *
+   *  @param store the store to copy, all of whose pixels must lie in the
+   *         range 0 .. 255
+   *  @return the new store
+   */
+  static BytePixelStore copyOf(PixelStore store) {
+    BytePixelStore result =
+      new BytePixelStore(store.getWidth(), store.getHeight());
+    int [] buffer = new int[store.getWidth()];
+    for (int row = 0; row < store.getHeight(); row ++) {
+      store.readRow(row, buffer, 0);
+      result.writeRow(row, buffer, 0);
+    }
+    return result;
+  }
+
+  /** Get the array holding the pixels
+   *
+   *  @return the backing array - not a copy
+   */
+  byte [] getData() {
+    return data;
+  }
+
+  /** Replace every pixel value v in rows fromRow .. toRow - 1 by table[v]
+   *
+   *  @param table the new value for each of the 256 possible pixel values
+   *  @param fromRow the first row to change
+   *  @param toRow one past the last row to change
+   */
+  void applyTable(byte [] table, int fromRow, int toRow) {
+    for (int i = fromRow * width, end = toRow * width; i < end; i ++) {
+      data[i] = table[data[i] & MAX_VALUE];
+    }
+  }
+
+  /** Count how many pixels in rows fromRow .. toRow - 1 have each value
+   *
+   *  @param counts the array to add the counts to - counts[v] is increased
+   *         by the number of pixels whose value is v
+   *  @param fromRow the first row to count
+   *  @param toRow one past the last row to count
+   */
+  void countValues(int [] counts, int fromRow, int toRow) {
+    for (int i = fromRow * width, end = toRow * width; i < end; i ++) {
+      counts[data[i] & MAX_VALUE] ++;
+    }
+  }
+
+  /**************************************************************************
+   * Methods required by PixelStore
+   *************************************************************************/
+
+  @Override
+  int get(int row, int col) {
+    return data[row * width + col] & MAX_VALUE;
+  }
+
+  @Override
+  void set(int row, int col, int value) {
+    checkValue(value);
+    data[row * width + col] = (byte) value;
+  }
+
+  @Override
+  void readRow(int row, int [] dest, int destOffset) {
+    int start = row * width;
+    for (int col = 0; col < width; col ++) {
+      dest[destOffset + col] = data[start + col] & MAX_VALUE;
+    }
+  }
+
+  @Override
+  void writeRow(int row, int [] src, int srcOffset) {
+    int start = row * width;
+    int bits = 0;
+    for (int col = 0; col < width; col ++) {
+      int value = src[srcOffset + col];
+      bits |= value;
+      data[start + col] = (byte) value;
+    }
+    checkValue(bits);
+  }
+
+  @Override
+  BytePixelStore createCompatible(int width, int height) {
+    return new BytePixelStore(width, height);
+  }
+
+  @Override
+  int getBytesPerPixel() {
+    return 1;
+  }
+
+  /** Get a store that can hold any int pixel value
+   *
+   *  @return a copy of this store using an int per pixel - in a scratch
+   *          file, if it would take too much of the heap
+   */
+  @Override
+  PixelStore widen() {
+    if (belongsOffHeap((long) width * height, Integer.BYTES)) {
+      return MappedPixelStore.copyOf(this, Integer.BYTES);
+    }
+    return IntPixelStore.copyOf(this);
+  }
+
+  /**************************************************************************
+   * Faster versions of PixelStore operations, working on the bytes
+   *************************************************************************/
+
+  @Override
+  void readSpan(int row, int col, int length, int [] dest, int destOffset) {
+    int start = row * width + col;
+    for (int i = 0; i < length; i ++) {
+      dest[destOffset + i] = data[start + i] & MAX_VALUE;
+    }
+  }
+
+  @Override
+  void writeSpan(int row, int col, int length, int [] src, int srcOffset) {
+    int start = row * width + col;
+    int bits = 0;
+    for (int i = 0; i < length; i ++) {
+      int value = src[srcOffset + i];
+      bits |= value;
+      data[start + i] = (byte) value;
+    }
+    checkValue(bits);
+  }
+
+  @Override
+  PixelStore copy() {
+    return new BytePixelStore(data.clone(), width, height);
+  }
+
+  @Override
+  PixelStore flipHorizontally() {
+    Reorientation.flipHorizontally(data, width, height);
+    return this;
+  }
+
+  @Override
+  PixelStore flipVertically() {
+    Reorientation.flipVertically(data, width, height);
+    return this;
+  }
+
+  @Override
+  PixelStore rotateClockwise() {
+    return turn(true);
+  }
+
+  @Override
+  PixelStore rotateCounterclockwise() {
+    return turn(false);
+  }
+
+  @Override
+  PixelStore rotateHalfTurn() {
+    Reorientation.halfTurn(data, width, height);
+    return this;
+  }
+
+  @Override
+  PixelStore halve() {
+    PixelKernels kernels = PixelKernels.get();
+    int newWidth = width / 2;
+    int newHeight = height / 2;
+    if (belongsOffHeap((long) newWidth * newHeight, 1)) {
+      return super.halve();
+    }
+    BytePixelStore result = new BytePixelStore(newWidth, newHeight);
+    byte [] newData = result.data;
+    for (int row = 0; row < newHeight; row ++) {
+      int upper = 2 * row * width;
+      int lower = upper + width;
+      kernels.averageSquares(data, upper, data, lower, newData,
+                             row * newWidth, newWidth);
+    }
+    return result;
+  }
+
+  /** Make sure a value (or several values or-ed together) can be stored
+   *
+   *  @param value the value to check
+   *  @exception IllegalArgumentException if it is outside 0 .. 255
+   */
+  private static void checkValue(int value) {
+    if ((value & ~MAX_VALUE) != 0) {
+      throw new IllegalArgumentException(
+        "Gray scale pixel value out of range 0 .. 255");
+    }
+  }
+
+  /** Turn the image a quarter turn - in place if it is square, and into a
+   *  store made the general way if the result belongs off the heap
+   *
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   *  @return the store holding the turned image
+   */
+  private PixelStore turn(boolean clockwise) {
+    if (width == height) {
+      Reorientation.turnSquare(data, width, clockwise);
+      return this;
+    }
+    if (belongsOffHeap((long) width * height, 1)) {
+      return clockwise ? super.rotateClockwise()
+                       : super.rotateCounterclockwise();
+    }
+    BytePixelStore result = new BytePixelStore(height, width);
+    Reorientation.turn(data, width, height, clockwise, result.data);
+    return result;
+  }
+}
@@ -0,0 +1,740 @@
+/*
+ * Convolution.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Applies a filter to an image: each new pixel value is the sum of the
+ * pixels around it, weighted by the filter, rounded and kept in the range
+ * 0 .. 255.  The filter is centered on the pixel, and where it reaches past
+ * the edge of the image the nearest edge pixel is used instead.
+ *
+ * Working directly, a filter of kh x kw weights costs kh * kw multiplies
+ * per pixel.  Many filters - blurs especially - are the product of a
+ * column and a row of weights, and can be applied as a pass along each row
+ * followed by a pass down each column, costing kh + kw.  More generally,
+ * the singular value decomposition writes any filter as a sum of such
+ * products, one for each singular value; when only a few of the singular
+ * values are significant, applying each product separately and adding the
+ * results is cheaper than working directly.
+ *
+ * For large filters that do not decompose, the image is instead cut into
+ * tiles, and each tile is filtered by multiplying Fourier transforms.  A
+ * tile, together with the margin of pixels around it that the filter
+ * reaches, is transformed, multiplied by the transform of the filter and
+ * transformed back; the parts of the result that the margin corrupts by
+ * wrapping around are thrown away.  Two tiles go through each complex
+ * transform, one as its real part and one as its imaginary part, which
+ * the filter keeps apart because its weights are real.  The cost per pixel
+ * grows only with the logarithm of the tile size, and the memory needed
+ * is only that of one tile per thread.
+ *
+ * Working directly can also be done in integers.  The weights are scaled
+ * by a power of two and rounded, so that each weighted sum is an int with
+ * a fixed binary point, and the pixel value is found from it by a shift.
+ * This is used only when the rounding of the weights cannot change any
+ * sum by more than a small tolerance; filters such as the blur, whose
+ * weights are multiples of a power of two, give exactly the same results
+ * as in doubles.  The sums are only exact for pixels in the range 0 .. 255,
+ * so a band holding anything else is worked in doubles.
+ *
+ * Which method is used is decided by comparing estimates of the work each
+ * would do per pixel for the size of filter and image at hand.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.Arrays;
+
+final class Convolution
+{
+  /** The ways a filter can be applied
+   */
+  enum Method
+  {
+    DIRECT,       // Multiply every weight by its pixel
+    FIXED_POINT,  // The same, with the weights scaled to integers
+    SEPARABLE,    // Apply each term of the decomposed filter as two passes
+    FOURIER       // Multiply Fourier transforms of tiles of the image
+  }
+
+  // Singular values smaller than this fraction of the largest are taken to
+  // be zero
+  private static final double RANK_TOLERANCE = 1e-10;
+
+  // Limit on the Jacobi sweeps made when decomposing a filter
+  private static final int MAX_SWEEPS = 60;
+
+  // Estimated work per element per stage of a fast Fourier transform,
+  // relative to one multiply and add of a weight by a pixel
+  private static final double FOURIER_STAGE_COST = 5;
+
+  // Largest number of fractional bits given to fixed-point weights
+  private static final int MAX_FIXED_POINT_BITS = 24;
+
+  // Largest amount, in gray levels, by which rounding the weights to fixed
+  // point may change a weighted sum for them to be used
+  private static final double FIXED_POINT_TOLERANCE = 0.05;
+
+  // Estimated work of one multiply and add of a fixed-point weight by a
+  // pixel, relative to the same in doubles
+  private static final double FIXED_POINT_COST = 0.75;
+
+  // Largest tile side considered when filtering by Fourier transforms,
+  // unless the filter itself needs a bigger one
+  private static final int MAX_FOURIER_SIZE = 512;
+
+  // The inner loops
+  private final PixelKernels kernels = PixelKernels.get();
+
+  // The weights of the filter
+  private final double [] [] weights;
+  private final int kernelHeight;
+  private final int kernelWidth;
+
+  // Position of the weight applied to the pixel being filtered
+  private final int centerRow;
+  private final int centerCol;
+
+  // The filter as a sum of products of a column and a row: term t is
+  // columnWeights[t] down by rowWeights[t] across
+  private final double [] [] columnWeights;
+  private final double [] [] rowWeights;
+
+  // The weights in fixed point with fixedPointBits fractional bits, or null
+  // if they cannot be rounded closely enough
+  private final int [] [] fixedWeights;
+  private final int fixedPointBits;
+
+  /** Constructor
+   *
+   *  @param weights the filter - a rectangular array of weights, applied to
+   *         the pixel under weights[kh / 2][kw / 2] and its neighbours
+   *  @exception IllegalArgumentException if the filter is empty or not
+   *             rectangular
+   */
+  Convolution(double [] [] weights) {
+    if (weights.length == 0 || weights[0].length == 0) {
+      throw new IllegalArgumentException("Filter is empty");
+    }
+    kernelHeight = weights.length;
+    kernelWidth = weights[0].length;
+    this.weights = new double[kernelHeight][];
+    for (int i = 0; i < kernelHeight; i ++) {
+      if (weights[i].length != kernelWidth) {
+        throw new IllegalArgumentException("Filter is not rectangular");
+      }
+      this.weights[i] = weights[i].clone();
+    }
+    centerRow = kernelHeight / 2;
+    centerCol = kernelWidth / 2;
+
+    double [] [] [] terms = decompose(this.weights);
+    columnWeights = terms[0];
+    rowWeights = terms[1];
+
+    fixedPointBits = chooseFixedPointBits(this.weights);
+    fixedWeights = quantize(this.weights, fixedPointBits);
+  }
+
+  /** Get the number of separable terms the filter decomposes into
+   *
+   *  @return the rank of the filter
+   */
+  int getRank() {
+    return columnWeights.length;
+  }
+
+  /** Find out whether the filter can be applied in fixed point
+   *
+   *  @return true if the weights round to fixed point within the tolerance
+   */
+  boolean hasFixedPoint() {
+    return fixedWeights != null;
+  }
+
+  /** Choose the cheapest way to apply the filter to an image of a given
+   *  size
+   *
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @return the method to use
+   */
+  Method chooseMethod(int width, int height) {
+    double direct = 0;
+    for (double [] row: weights) {
+      for (double weight: row) {
+        if (weight != 0) {
+          direct ++;
+        }
+      }
+    }
+    double fixed = hasFixedPoint() ? FIXED_POINT_COST * direct
+                                   : Double.POSITIVE_INFINITY;
+    double separable = getRank() * (kernelWidth + kernelHeight);
+    double fourier = planFourier(width, height).cost;
+    if (fourier < direct && fourier < separable && fourier < fixed) {
+      return Method.FOURIER;
+    } else if (fixed < direct && fixed < separable) {
+      return Method.FIXED_POINT;
+    } else {
+      return separable < direct ? Method.SEPARABLE : Method.DIRECT;
+    }
+  }
+
+  /** Filter an image, choosing the cheapest method
+   *
+   *  @param source the image to filter, which is not changed
+   *  @return a new store of the same kind holding the filtered image
+   */
+  PixelStore apply(PixelStore source) {
+    return apply(source, chooseMethod(source.getWidth(), source.getHeight()));
+  }
+
+  /** Filter an image by a given method.  The image is worked on in bands
+   *  of rows, several at a time.  FIXED_POINT falls back to DIRECT when the
+   *  filter has no fixed-point form, and for bands holding pixels outside
+   *  the range 0 .. 255.
+   *
+   *  @param source the image to filter, which is not changed
+   *  @param method the method to use
+   *  @return a new store of the same kind holding the filtered image
+   */
+  PixelStore apply(final PixelStore source, final Method method) {
+    final PixelStore result =
+      source.createResult(source.getWidth(), source.getHeight());
+    if (source.getWidth() == 0 || source.getHeight() == 0) {
+      return result;
+    }
+    final FourierPlan plan = method == Method.FOURIER
+      ? planFourier(source.getWidth(), source.getHeight()) : null;
+    if (plan != null) {
+      prepareFourier(plan);
+    }
+    RowBands.run(source.getWidth(), source.getHeight(),
+                 plan == null ? 0 : plan.tileRows, (band, fromRow, toRow) -> {
+      int [] [] rows = readPadded(source, fromRow, toRow);
+      int [] values = new int[source.getWidth()];
+      if (method == Method.FIXED_POINT && hasFixedPoint()
+          && isInRange(rows)) {
+        int [] [] fixedSums =
+          fixedPoint(rows, toRow - fromRow, source.getWidth());
+        for (int row = fromRow; row < toRow; row ++) {
+          kernels.shiftAndClamp(fixedSums[row - fromRow], fixedPointBits,
+                                values, values.length);
+          result.writeRow(row, values, 0);
+        }
+        return;
+      }
+      double [] [] sums;
+      if (method == Method.FOURIER) {
+        sums = fourier(plan, rows, toRow - fromRow, source.getWidth());
+      } else if (method == Method.SEPARABLE) {
+        sums = separable(rows, toRow - fromRow, source.getWidth());
+      } else {
+        sums = direct(rows, toRow - fromRow, source.getWidth());
+      }
+      for (int row = fromRow; row < toRow; row ++) {
+        kernels.roundAndClamp(sums[row - fromRow], values, values.length);
+        result.writeRow(row, values, 0);
+      }
+    });
+    return result;
+  }
+
+  /**************************************************************************
+   * The methods of filtering.  Each works out the weighted sums for a band
+   * of rows from the padded source rows the band needs
+   *************************************************************************/
+
+  /** Work out the weighted sums directly
+   *
+   *  @param rows the padded source rows
+   *  @param bandHeight the number of rows in the band
+   *  @param width the number of pixels in each row
+   *  @return the sums, bandHeight rows of width each
+   */
+  private double [] [] direct(int [] [] rows, int bandHeight, int width) {
+    double [] [] sums = new double[bandHeight][width];
+    for (int row = 0; row < bandHeight; row ++) {
+      double [] rowSums = sums[row];
+      for (int i = 0; i < kernelHeight; i ++) {
+        int [] source = rows[row + i];
+        for (int j = 0; j < kernelWidth; j ++) {
+          double weight = weights[i][j];
+          if (weight == 0) {
+            continue;
+          }
+          kernels.multiplyAdd(rowSums, source, j, weight, width);
+        }
+      }
+    }
+    return sums;
+  }
+
+  /** Work out the weighted sums directly in fixed point.  The weights were
+   *  chosen so that no sum of pixels in the range 0 .. 255 overflows.
+   *
+   *  @param rows the padded source rows
+   *  @param bandHeight the number of rows in the band
+   *  @param width the number of pixels in each row
+   *  @return the sums, bandHeight rows of width each, with fixedPointBits
+   *          fractional bits
+   */
+  private int [] [] fixedPoint(int [] [] rows, int bandHeight, int width) {
+    int [] [] sums = new int[bandHeight][width];
+    for (int row = 0; row < bandHeight; row ++) {
+      int [] rowSums = sums[row];
+      for (int i = 0; i < kernelHeight; i ++) {
+        int [] source = rows[row + i];
+        for (int j = 0; j < kernelWidth; j ++) {
+          int weight = fixedWeights[i][j];
+          if (weight == 0) {
+            continue;
+          }
+          kernels.multiplyAdd(rowSums, source, j, weight, width);
+        }
+      }
+    }
+    return sums;
+  }
+
+  /** Work out the weighted sums one separable term at a time, each as a
+   *  pass along the rows followed by a pass down the columns
+   *
+   *  @param rows the padded source rows
+   *  @param bandHeight the number of rows in the band
+   *  @param width the number of pixels in each row
+   *  @return the sums, bandHeight rows of width each
+   */
+  private double [] [] separable(int [] [] rows, int bandHeight, int width) {
+    double [] [] sums = new double[bandHeight][width];
+    double [] [] across = new double[rows.length][width];
+    for (int term = 0; term < getRank(); term ++) {
+      double [] horizontal = rowWeights[term];
+      double [] vertical = columnWeights[term];
+      for (int row = 0; row < rows.length; row ++) {
+        double [] rowSums = across[row];
+        Arrays.fill(rowSums, 0);
+        int [] source = rows[row];
+        for (int j = 0; j < kernelWidth; j ++) {
+          double weight = horizontal[j];
+          kernels.multiplyAdd(rowSums, source, j, weight, width);
+        }
+      }
+      for (int row = 0; row < bandHeight; row ++) {
+        double [] rowSums = sums[row];
+        for (int i = 0; i < kernelHeight; i ++) {
+          double weight = vertical[i];
+          double [] source = across[row + i];
+          kernels.multiplyAdd(rowSums, source, 0, weight, width);
+        }
+      }
+    }
+    return sums;
+  }
+
+  /** Work out the weighted sums by Fourier transforms, two tiles of the
+   *  band at a time
+   *
+   *  @param plan the sizes of the tiles and the transform of the filter
+   *  @param rows the padded source rows
+   *  @param bandHeight the number of rows in the band, which must be no
+   *         more than plan.tileRows
+   *  @param width the number of pixels in each row
+   *  @return the sums, bandHeight rows of width each
+   */
+  private double [] [] fourier(FourierPlan plan, int [] [] rows,
+                               int bandHeight, int width) {
+    double [] [] sums = new double[bandHeight][width];
+    double [] re = new double[plan.rows * plan.cols];
+    double [] im = new double[plan.rows * plan.cols];
+    double [] columnRe = new double[plan.rows];
+    double [] columnIm = new double[plan.rows];
+    for (int first = 0; first < width; first += 2 * plan.tileCols) {
+      int second = first + plan.tileCols;
+      loadTile(plan, rows, first, re);
+      loadTile(plan, rows, second, im);
+
+      // Transform, multiply by the transform of the filter, and transform
+      // back.  Only the first rows.length rows of the tiles hold anything
+      // to begin with, and only bandHeight rows of the result are kept
+      for (int row = 0; row < rows.length; row ++) {
+        plan.across.transform(re, im, row * plan.cols, false);
+      }
+      plan.transformColumns(re, im, columnRe, columnIm, false);
+      for (int i = 0; i < re.length; i ++) {
+        double r = re[i] * plan.filterRe[i] - im[i] * plan.filterIm[i];
+        im[i] = re[i] * plan.filterIm[i] + im[i] * plan.filterRe[i];
+        re[i] = r;
+      }
+      plan.transformColumns(re, im, columnRe, columnIm, true);
+      for (int row = 0; row < bandHeight; row ++) {
+        plan.across.transform(re, im, (row + kernelHeight - 1) * plan.cols,
+                              true);
+      }
+
+      storeTile(plan, re, first, sums);
+      storeTile(plan, im, second, sums);
+    }
+    return sums;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** The layout of the tiles used when filtering by Fourier transforms,
+   *  and the transform of the filter at that size
+   */
+  private static final class FourierPlan
+  {
+    final int rows;
+    final int cols;
+    final int tileRows;
+    final int tileCols;
+    final double cost;
+    FourierTransform across;
+    FourierTransform down;
+    double [] filterRe;
+    double [] filterIm;
+
+    FourierPlan(int rows, int cols, int tileRows, int tileCols,
+                double cost) {
+      this.rows = rows;
+      this.cols = cols;
+      this.tileRows = tileRows;
+      this.tileCols = tileCols;
+      this.cost = cost;
+    }
+
+    /** Transform every column of a tile
+     *
+     *  @param re the real parts of the tile, row by row
+     *  @param im the imaginary parts of the tile
+     *  @param columnRe space for the real parts of one column
+     *  @param columnIm space for the imaginary parts of one column
+     *  @param inverse true for the inverse transform
+     */
+    void transformColumns(double [] re, double [] im, double [] columnRe,
+                          double [] columnIm, boolean inverse) {
+      for (int col = 0; col < cols; col ++) {
+        for (int row = 0, i = col; row < rows; row ++, i += cols) {
+          columnRe[row] = re[i];
+          columnIm[row] = im[i];
+        }
+        down.transform(columnRe, columnIm, 0, inverse);
+        for (int row = 0, i = col; row < rows; row ++, i += cols) {
+          re[i] = columnRe[row];
+          im[i] = columnIm[row];
+        }
+      }
+    }
+  }
+
+  /** Choose the tile size that makes filtering by Fourier transforms
+   *  cheapest for an image of a given size.  Each side of a tile is a power
+   *  of two that holds the filter and at least one pixel; less of a bigger
+   *  tile is lost to the margin, but each element costs more to transform,
+   *  and a tile bigger than the image is wasted.
+   *
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @return the plan - without the transforms, which prepareFourier()
+   *          fills in
+   */
+  private FourierPlan planFourier(int width, int height) {
+    FourierPlan best = null;
+    int maxRows = Math.max(MAX_FOURIER_SIZE,
+                           FourierTransform.powerOfTwoAtLeast(kernelHeight));
+    int maxCols = Math.max(MAX_FOURIER_SIZE,
+                           FourierTransform.powerOfTwoAtLeast(kernelWidth));
+    for (int rows = FourierTransform.powerOfTwoAtLeast(kernelHeight);
+         rows <= maxRows; rows *= 2) {
+      for (int cols = FourierTransform.powerOfTwoAtLeast(kernelWidth);
+           cols <= maxCols; cols *= 2) {
+        int tileRows = rows - kernelHeight + 1;
+        int tileCols = cols - kernelWidth + 1;
+        long usedPixels = (long) Math.min(tileRows, Math.max(1, height))
+                          * Math.min(tileCols, Math.max(1, width));
+
+        // Each tile goes through half of a forward and half of an inverse
+        // transform, with log2(rows * cols) stages each
+        double cost = FOURIER_STAGE_COST * rows * cols
+                      * Integer.numberOfTrailingZeros(rows * cols)
+                      / usedPixels;
+        if (best == null || cost < best.cost) {
+          best = new FourierPlan(rows, cols, tileRows, tileCols, cost);
+        }
+      }
+    }
+    return best;
+  }
+
+  /** Fill in the transforms of a plan, ready for use
+   *
+   *  @param plan the plan
+   */
+  private void prepareFourier(FourierPlan plan) {
+    plan.across = new FourierTransform(plan.cols);
+    plan.down = new FourierTransform(plan.rows);
+
+    // The filter turned through a half turn, so that multiplying transforms
+    // gives the weighted sums, and scaled to undo the scaling of the
+    // inverse transform
+    double scale = 1.0 / (plan.rows * plan.cols);
+    plan.filterRe = new double[plan.rows * plan.cols];
+    plan.filterIm = new double[plan.rows * plan.cols];
+    for (int i = 0; i < kernelHeight; i ++) {
+      for (int j = 0; j < kernelWidth; j ++) {
+        plan.filterRe[i * plan.cols + j] =
+          scale * weights[kernelHeight - 1 - i][kernelWidth - 1 - j];
+      }
+    }
+    for (int row = 0; row < kernelHeight; row ++) {
+      plan.across.transform(plan.filterRe, plan.filterIm, row * plan.cols,
+                            false);
+    }
+    plan.transformColumns(plan.filterRe, plan.filterIm,
+                          new double[plan.rows], new double[plan.rows],
+                          false);
+  }
+
+  /** Copy the part of the padded rows one tile needs into an array laid
+   *  out as the plan requires, with zeros everywhere else
+   *
+   *  @param plan the layout of the tiles
+   *  @param rows the padded source rows
+   *  @param firstCol the first column of the tile in the image
+   *  @param tile the array to fill
+   */
+  private void loadTile(FourierPlan plan, int [] [] rows, int firstCol,
+                        double [] tile) {
+    Arrays.fill(tile, 0);
+    int length = Math.min(plan.tileCols + kernelWidth - 1,
+                          rows[0].length - firstCol);
+    for (int row = 0; row < rows.length; row ++) {
+      int [] source = rows[row];
+      int dest = row * plan.cols;
+      for (int col = 0; col < length; col ++) {
+        tile[dest + col] = source[firstCol + col];
+      }
+    }
+  }
+
+  /** Copy the weighted sums for one tile out of its transformed array
+   *
+   *  @param plan the layout of the tiles
+   *  @param tile the result of filtering the tile
+   *  @param firstCol the first column of the tile in the image
+   *  @param sums the sums for the band, to copy into
+   */
+  private void storeTile(FourierPlan plan, double [] tile, int firstCol,
+                         double [] [] sums) {
+    int length = Math.min(plan.tileCols, sums[0].length - firstCol);
+    for (int row = 0; row < sums.length; row ++) {
+      int source = (row + kernelHeight - 1) * plan.cols + kernelWidth - 1;
+      System.arraycopy(tile, source, sums[row], firstCol, Math.max(0, length));
+    }
+  }
+
+  /** Read the source rows a band of rows needs, padded on either side by
+   *  copies of the edge pixels.  Rows above or below the image are copies
+   *  of the top or bottom row.
+   *
+   *  @param source the image being filtered
+   *  @param fromRow the first row of the band
+   *  @param toRow one past the last row of the band
+   *  @return the padded rows: element i is source row
+   *          fromRow - centerRow + i, with its column 0 at centerCol
+   */
+  private int [] [] readPadded(PixelStore source, int fromRow, int toRow) {
+    int width = source.getWidth();
+    int [] [] rows = new int[toRow - fromRow + kernelHeight - 1][];
+    for (int i = 0; i < rows.length; i ++) {
+      int row = Math.max(0, Math.min(source.getHeight() - 1,
+                                     fromRow - centerRow + i));
+      int [] padded = new int[width + kernelWidth - 1];
+      source.readRow(row, padded, centerCol);
+      Arrays.fill(padded, 0, centerCol, padded[centerCol]);
+      Arrays.fill(padded, centerCol + width, padded.length,
+                  padded[centerCol + width - 1]);
+      rows[i] = padded;
+    }
+    return rows;
+  }
+
+  /** Check that padded source rows hold only pixel values in the range
+   *  0 .. 255, for which fixed-point sums cannot overflow
+   *
+   *  @param rows the padded source rows
+   *  @return true if every value is in range
+   */
+  private static boolean isInRange(int [] [] rows) {
+    for (int [] row: rows) {
+      for (int value: row) {
+        if (value < PixelKernels.MIN_VALUE || value > PixelKernels.MAX_VALUE) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Choose how many fractional bits to give the weights of a filter in
+   *  fixed point: as many as possible while a weighted sum of pixels in the
+   *  range 0 .. 255, with the half added to round it, still fits in an int
+   *
+   *  @param weights the filter
+   *  @return the number of bits, or 0 if the weights are too big for any
+   */
+  private static int chooseFixedPointBits(double [] [] weights) {
+    double total = 0;
+    for (double [] row: weights) {
+      for (double weight: row) {
+        total += Math.abs(weight);
+      }
+    }
+    for (int bits = MAX_FIXED_POINT_BITS; bits > 0; bits --) {
+      // Rounding may make each weight up to a half bigger
+      double largest = PixelKernels.MAX_VALUE
+        * (total * (1 << bits) + 0.5 * weights.length * weights[0].length)
+        + (1 << (bits - 1));
+      if (largest <= Integer.MAX_VALUE) {
+        return bits;
+      }
+    }
+    return 0;
+  }
+
+  /** Round the weights of a filter to fixed point, if that changes no
+   *  weighted sum of pixels in the range 0 .. 255 by more than
+   *  FIXED_POINT_TOLERANCE
+   *
+   *  @param weights the filter
+   *  @param bits the number of fractional bits
+   *  @return the weights scaled by 2 to the power bits and rounded, or null
+   *          if they are not close enough
+   */
+  private static int [] [] quantize(double [] [] weights, int bits) {
+    if (bits == 0) {
+      return null;
+    }
+    double scale = 1 << bits;
+    int [] [] result = new int[weights.length][weights[0].length];
+    double error = 0;
+    for (int i = 0; i < weights.length; i ++) {
+      for (int j = 0; j < weights[i].length; j ++) {
+        result[i][j] = (int) Math.round(weights[i][j] * scale);
+        error += Math.abs(result[i][j] / scale - weights[i][j]);
+      }
+    }
+    // Written so that NaN weights fail the test
+    if (! (error * PixelKernels.MAX_VALUE <= FIXED_POINT_TOLERANCE)) {
+      return null;
+    }
+    return result;
+  }
+
+  /** Write a filter as a sum of products of a column and a row, using a
+   *  one-sided Jacobi singular value decomposition.  The columns of the
+   *  filter are rotated in pairs until they are all orthogonal; the
+   *  rotations, collected in v, then satisfy weights = u * transpose(v),
+   *  so each column of u times the matching column of v is one term.
+   *  Terms whose column of u is negligible are dropped.
+   *
+   *  @param weights the filter
+   *  @return { columns, rows } where columns[t] and rows[t] are the column
+   *          and row of term t, largest term first
+   */
+  private static double [] [] [] decompose(double [] [] weights) {
+    int m = weights.length;
+    int n = weights[0].length;
+    double [] [] u = new double[m][];
+    for (int i = 0; i < m; i ++) {
+      u[i] = weights[i].clone();
+    }
+    double [] [] v = new double[n][n];
+    for (int j = 0; j < n; j ++) {
+      v[j][j] = 1;
+    }
+
+    for (int sweep = 0; sweep < MAX_SWEEPS; sweep ++) {
+      boolean rotated = false;
+      for (int p = 0; p < n - 1; p ++) {
+        for (int q = p + 1; q < n; q ++) {
+          double alpha = 0;
+          double beta = 0;
+          double gamma = 0;
+          for (int i = 0; i < m; i ++) {
+            alpha += u[i][p] * u[i][p];
+            beta += u[i][q] * u[i][q];
+            gamma += u[i][p] * u[i][q];
+          }
+          if (Math.abs(gamma) <= 1e-15 * Math.sqrt(alpha * beta)) {
+            continue;
+          }
+          rotated = true;
+          double zeta = (beta - alpha) / (2 * gamma);
+          double t = (zeta >= 0 ? 1 : -1)
+                     / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+          double c = 1 / Math.sqrt(1 + t * t);
+          double s = c * t;
+          rotate(u, p, q, c, s);
+          rotate(v, p, q, c, s);
+        }
+      }
+      if (! rotated) {
+        break;
+      }
+    }
+
+    // The length of each column of u is a singular value
+    Integer [] order = new Integer[n];
+    final double [] norms = new double[n];
+    double largest = 0;
+    for (int j = 0; j < n; j ++) {
+      order[j] = j;
+      for (int i = 0; i < m; i ++) {
+        norms[j] += u[i][j] * u[i][j];
+      }
+      norms[j] = Math.sqrt(norms[j]);
+      largest = Math.max(largest, norms[j]);
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(norms[b], norms[a]));
+    int rank = 0;
+    while (rank < n && norms[order[rank]] > RANK_TOLERANCE * largest) {
+      rank ++;
+    }
+
+    double [] [] columns = new double[rank][m];
+    double [] [] rows = new double[rank][n];
+    for (int t = 0; t < rank; t ++) {
+      for (int i = 0; i < m; i ++) {
+        columns[t][i] = u[i][order[t]];
+      }
+      for (int j = 0; j < n; j ++) {
+        rows[t][j] = v[j][order[t]];
+      }
+    }
+    return new double [] [] [] { columns, rows };
+  }
+
+  /** Rotate two columns of a matrix
+   *
+   *  @param matrix the matrix
+   *  @param p the first column
+   *  @param q the second column
+   *  @param c the cosine of the angle of rotation
+   *  @param s the sine of the angle of rotation
+   */
+  private static void rotate(double [] [] matrix, int p, int q, double c,
+                             double s) {
+    for (double [] row: matrix) {
+      double first = row[p];
+      double second = row[q];
+      row[p] = c * first - s * second;
+      row[q] = s * first + c * second;
+    }
+  }
+}
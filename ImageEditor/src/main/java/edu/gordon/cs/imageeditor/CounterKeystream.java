@@ -0,0 +1,109 @@
+/*
+ * CounterKeystream.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * A stream of key bytes for encrypting an image in counter mode.  The
+ * bytes come in blocks of 16, block n being the Philox 4x32-10 generator
+ * of Salmon et al. applied to the counter n under the key: ten rounds of
+ * multiplying and mixing, with nothing carried over from one block to the
+ * next.  So the key byte for any pixel can be worked out straight from its
+ * position in the image, and any band, tile or region of the image can be
+ * encrypted or decrypted on its own, in any order.
+ *
+ * Each pixel has its byte of the stream XORed into it.  Doing it again
+ * with the same key gives back the original image, and gray values stay
+ * in the range 0 .. 255.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class CounterKeystream
+{
+  // The multipliers of the two halves of each round, and the amounts the
+  // two words of the key go up by from one round to the next
+  private static final long MULTIPLIER0 = 0xD2511F53L;
+  private static final long MULTIPLIER1 = 0xCD9E8D57L;
+  private static final int KEY_STEP0 = 0x9E3779B9;
+  private static final int KEY_STEP1 = 0xBB67AE85;
+  private static final int ROUNDS = 10;
+
+  // The number of key bytes in each block
+  private static final int BLOCK_BYTES = 16;
+
+  // The two words of the key
+  private final int key0;
+  private final int key1;
+
+  /** Constructor
+   *
+   *  @param key the key
+   */
+  CounterKeystream(int key) {
+    this(key, 0);
+  }
+
+  /** Constructor for a key of two words
+   *
+   *  @param key0 the first word of the key
+   *  @param key1 the second word of the key
+   */
+  CounterKeystream(int key0, int key1) {
+    this.key0 = key0;
+    this.key1 = key1;
+  }
+
+  /** Encrypt or decrypt a run of pixels
+   *
+   *  @param index the position of the first pixel of the run in the whole
+   *         image, counting along the rows
+   *  @param data the array holding the run
+   *  @param offset the position in data of the first pixel
+   *  @param length the number of pixels in the run
+   */
+  void apply(long index, int [] data, int offset, int length) {
+    int [] block = new int[4];
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      block(index >>> 4, block);
+
+      // The run may start and end part way through a block
+      int first = (int) (index & (BLOCK_BYTES - 1));
+      int count = Math.min(BLOCK_BYTES - first, end - i);
+      for (int j = first; j < first + count; j ++) {
+        data[i ++] ^= (block[j >> 2] >>> (8 * (j & 3))) & 0xFF;
+      }
+      index += count;
+    }
+  }
+
+  /** Work out one block of the stream
+   *
+   *  @param counter the number of the block
+   *  @param result the array to put the four words of the block in
+   */
+  void block(long counter, int [] result) {
+    int c0 = (int) counter;
+    int c1 = (int) (counter >>> 32);
+    int c2 = 0;
+    int c3 = 0;
+    int k0 = key0;
+    int k1 = key1;
+    for (int round = 0; round < ROUNDS; round ++) {
+      long product0 = MULTIPLIER0 * (c0 & 0xFFFFFFFFL);
+      long product1 = MULTIPLIER1 * (c2 & 0xFFFFFFFFL);
+      c0 = (int) (product1 >>> 32) ^ c1 ^ k0;
+      c1 = (int) product1;
+      c2 = (int) (product0 >>> 32) ^ c3 ^ k1;
+      c3 = (int) product0;
+      k0 += KEY_STEP0;
+      k1 += KEY_STEP1;
+    }
+    result[0] = c0;
+    result[1] = c1;
+    result[2] = c2;
+    result[3] = c3;
+  }
+}
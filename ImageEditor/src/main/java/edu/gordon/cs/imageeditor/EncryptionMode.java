@@ -0,0 +1,26 @@
+/*
+ * EncryptionMode.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The ways an image can be encrypted.  Both are their own inverse:
+ * encrypting an encrypted image again with the same key decrypts it.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+public enum EncryptionMode
+{
+  // Each pixel is XORed with the key plus a number drawn from a
+  // java.util.Random seeded with the key.  The numbers have to be drawn in
+  // order, so the whole image is worked on one pixel after another.  Gray
+  // values can end up above 255.  Kept so that images encrypted this way
+  // can still be decrypted
+  LEGACY,
+
+  // Each pixel is XORed with the byte of a counter-mode keystream for its
+  // position, which can be worked out for any pixel on its own.  The image
+  // is worked on in bands at once, and a region can be decrypted by itself
+  COUNTER
+}
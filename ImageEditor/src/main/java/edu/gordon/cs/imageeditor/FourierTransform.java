@@ -0,0 +1,110 @@
+/*
+ * FourierTransform.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The discrete Fourier transform of a sequence whose length is a power of
+ * two, worked out in place by the iterative radix-2 fast Fourier transform.
+ * The tables of bit-reversed positions and of sines and cosines are made
+ * once, when the transform is created, and shared by every use of it, so
+ * one transform can be used from several threads at once.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class FourierTransform
+{
+  // Length of the sequences transformed
+  private final int size;
+
+  // Where each element goes when the sequence is put in bit-reversed order
+  private final int [] reversed;
+
+  // cos and sin of 2 pi k / size, for k = 0 .. size / 2 - 1
+  private final double [] cosines;
+  private final double [] sines;
+
+  /** Constructor
+   *
+   *  @param size the length of the sequences to transform - a power of two
+   */
+  FourierTransform(int size) {
+    if (size < 1 || (size & (size - 1)) != 0) {
+      throw new IllegalArgumentException("Transform size " + size
+                                         + " is not a power of two");
+    }
+    this.size = size;
+    reversed = new int[size];
+    int bits = Integer.numberOfTrailingZeros(size);
+    for (int i = 0; i < size; i ++) {
+      reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+    }
+    cosines = new double[size / 2];
+    sines = new double[size / 2];
+    for (int k = 0; k < size / 2; k ++) {
+      double angle = 2 * Math.PI * k / size;
+      cosines[k] = Math.cos(angle);
+      sines[k] = Math.sin(angle);
+    }
+  }
+
+  /** Find the smallest power of two that is at least a given number
+   *
+   *  @param n the number, which must be positive
+   *  @return the power of two
+   */
+  static int powerOfTwoAtLeast(int n) {
+    return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+  }
+
+  /** Get the length of the sequences this transforms
+   *
+   *  @return the length
+   */
+  int getSize() {
+    return size;
+  }
+
+  /** Transform a complex sequence in place.  The inverse transform is not
+   *  scaled, so transforming and then inverse transforming multiplies the
+   *  sequence by its length.
+   *
+   *  @param re the real parts, in re[offset] .. re[offset + size - 1]
+   *  @param im the imaginary parts, at the same positions in im
+   *  @param offset the position of the first element
+   *  @param inverse true for the inverse transform
+   */
+  void transform(double [] re, double [] im, int offset, boolean inverse) {
+    for (int i = 0; i < size; i ++) {
+      int j = reversed[i];
+      if (i < j) {
+        double temp = re[offset + i];
+        re[offset + i] = re[offset + j];
+        re[offset + j] = temp;
+        temp = im[offset + i];
+        im[offset + i] = im[offset + j];
+        im[offset + j] = temp;
+      }
+    }
+    double sign = inverse ? 1 : -1;
+    for (int length = 2; length <= size; length <<= 1) {
+      int half = length / 2;
+      int step = size / length;
+      for (int start = offset; start < offset + size; start += length) {
+        for (int k = 0; k < half; k ++) {
+          double wr = cosines[k * step];
+          double wi = sign * sines[k * step];
+          int a = start + k;
+          int b = a + half;
+          double tr = wr * re[b] - wi * im[b];
+          double ti = wr * im[b] + wi * re[b];
+          re[b] = re[a] - tr;
+          im[b] = im[a] - ti;
+          re[a] += tr;
+          im[a] += ti;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * GaussianBlur.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Blurs an image by a Gaussian of any width, at a cost per pixel that does
+ * not depend on the width.  Rather than applying the Gaussian as a filter,
+ * the recursive approximation of Young and van Vliet is run along each row
+ * and then down each column: a pass from one end to the other in which
+ * each new value is a fixed mix of the old value and the three new values
+ * before it, then a pass back the other way doing the same.  The two
+ * passes together weight the line by very nearly a Gaussian.
+ *
+ * Past the ends of a line, the value at the end is taken to go on for
+ * ever, in the same way as filters replicate the edge pixels.  The pass
+ * forward starts as if it had already run through those values; the pass
+ * back starts from what the pass forward would have gone on to give past
+ * the end, worked out as Triggs and Sdika describe.  Rows are
+ * worked on in bands and columns in strips, several at a time; the values
+ * between the passes are kept as the bits of floats, in a store that goes
+ * off the heap when the image is large.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class GaussianBlur
+{
+  // Smallest standard deviation the approximation holds for
+  static final double MIN_SIGMA = 0.5;
+
+  // The weight of the old value, and of each of the three new values
+  // before it
+  private final double gain;
+  private final double weight1;
+  private final double weight2;
+  private final double weight3;
+
+  // How far the first three values of the pass back, just past the end of
+  // a line, lie from the last value of the line: element [j][k] is their
+  // change for each unit that the kth from last value of the pass forward
+  // lies from it
+  private final double [] [] endWeights = new double[3][3];
+
+  /** Constructor
+   *
+   *  @param sigma the standard deviation of the Gaussian, in pixels
+   *  @exception IllegalArgumentException if sigma is less than MIN_SIGMA or
+   *             not finite
+   */
+  GaussianBlur(double sigma) {
+    if (! (sigma >= MIN_SIGMA) || Double.isInfinite(sigma)) {
+      throw new IllegalArgumentException("Sigma out of range: " + sigma);
+    }
+    double q = sigma >= 2.5
+      ? 0.98711 * sigma - 0.96330
+      : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+    double q2 = q * q;
+    double q3 = q2 * q;
+    double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+    weight1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+    weight2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+    weight3 = 0.422205 * q3 / b0;
+    gain = 1 - (weight1 + weight2 + weight3);
+
+    // Past the end, the difference from the last value dies away in both
+    // passes; running them on each difference in turn until it has gone
+    // gives the end weights.  The passes die away over about q values
+    int length = (int) Math.ceil(30 * q) + 30;
+    for (int k = 0; k < 3; k ++) {
+      double [] forward = new double[length + 3];
+      forward[2 - k] = 1;
+      for (int i = 3; i < forward.length; i ++) {
+        forward[i] = weight1 * forward[i - 1] + weight2 * forward[i - 2]
+                     + weight3 * forward[i - 3];
+      }
+      double [] back = new double[length + 6];
+      for (int i = length + 2; i >= 3; i --) {
+        back[i] = gain * forward[i] + weight1 * back[i + 1]
+                  + weight2 * back[i + 2] + weight3 * back[i + 3];
+      }
+      for (int j = 0; j < 3; j ++) {
+        endWeights[j][k] = back[3 + j];
+      }
+    }
+  }
+
+  /** Blur an image
+   *
+   *  @param source the image to blur, which is not changed
+   *  @return a new store of the same kind holding the blurred image
+   */
+  PixelStore apply(final PixelStore source) {
+    final int width = source.getWidth();
+    final int height = source.getHeight();
+    final PixelStore result = source.createResult(width, height);
+    if (width == 0 || height == 0) {
+      return result;
+    }
+    final PixelStore rows = PixelStore.createIntermediate(width, height);
+
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      int [] values = new int[width];
+      double [] line = new double[width];
+      for (int row = fromRow; row < toRow; row ++) {
+        source.readRow(row, values, 0);
+        for (int col = 0; col < width; col ++) {
+          line[col] = values[col];
+        }
+        alongRow(line);
+        for (int col = 0; col < width; col ++) {
+          values[col] = Float.floatToRawIntBits((float) line[col]);
+        }
+        rows.writeRow(row, values, 0);
+      }
+    });
+
+    // The columns are split into strips as if they were rows; only one
+    // strip at a time is read back as floats
+    RowBands.run(height, width, RowBands.STRIP_COLUMNS,
+                 (band, fromCol, toCol) -> {
+      int stripWidth = toCol - fromCol;
+      int [] values = new int[stripWidth];
+      float [] [] strip = new float[height][stripWidth];
+      for (int row = 0; row < height; row ++) {
+        rows.readSpan(row, fromCol, stripWidth, values, 0);
+        for (int col = 0; col < stripWidth; col ++) {
+          strip[row][col] = Float.intBitsToFloat(values[col]);
+        }
+      }
+      downColumns(strip, 0, stripWidth);
+      for (int row = 0; row < height; row ++) {
+        for (int col = 0; col < stripWidth; col ++) {
+          values[col] = Math.max(PixelKernels.MIN_VALUE,
+            Math.min(PixelKernels.MAX_VALUE, Math.round(strip[row][col])));
+        }
+        result.writeSpan(row, fromCol, stripWidth, values, 0);
+      }
+    });
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Run both passes along one line of values
+   *
+   *  @param line the values, which are replaced by the blurred ones
+   */
+  private void alongRow(double [] line) {
+    int last = line.length - 1;
+    double end = line[last];
+    double previous1 = line[0];
+    double previous2 = previous1;
+    double previous3 = previous1;
+    for (int i = 0; i <= last; i ++) {
+      double value = gain * line[i] + weight1 * previous1
+                     + weight2 * previous2 + weight3 * previous3;
+      line[i] = value;
+      previous3 = previous2;
+      previous2 = previous1;
+      previous1 = value;
+    }
+
+    double fromEnd1 = line[last] - end;
+    double fromEnd2 = line[Math.max(0, last - 1)] - end;
+    double fromEnd3 = line[Math.max(0, last - 2)] - end;
+    previous1 = end + endWeights[0][0] * fromEnd1
+                + endWeights[0][1] * fromEnd2 + endWeights[0][2] * fromEnd3;
+    previous2 = end + endWeights[1][0] * fromEnd1
+                + endWeights[1][1] * fromEnd2 + endWeights[1][2] * fromEnd3;
+    previous3 = end + endWeights[2][0] * fromEnd1
+                + endWeights[2][1] * fromEnd2 + endWeights[2][2] * fromEnd3;
+    for (int i = last; i >= 0; i --) {
+      double value = gain * line[i] + weight1 * previous1
+                     + weight2 * previous2 + weight3 * previous3;
+      line[i] = value;
+      previous3 = previous2;
+      previous2 = previous1;
+      previous1 = value;
+    }
+  }
+
+  /** Run both passes down a strip of columns.  The strip is worked on a
+   *  row at a time, so the values are read in the order they lie in memory.
+   *
+   *  @param rows the rows of values, which are replaced by the blurred ones
+   *  @param fromCol the first column of the strip
+   *  @param toCol one past the last column of the strip
+   */
+  private void downColumns(float [] [] rows, int fromCol, int toCol) {
+    int width = toCol - fromCol;
+    int last = rows.length - 1;
+    double [] previous1 = new double[width];
+    double [] previous2 = new double[width];
+    double [] previous3 = new double[width];
+    double [] end = new double[width];
+
+    for (int col = 0; col < width; col ++) {
+      previous1[col] = rows[0][fromCol + col];
+      end[col] = rows[last][fromCol + col];
+    }
+    System.arraycopy(previous1, 0, previous2, 0, width);
+    System.arraycopy(previous1, 0, previous3, 0, width);
+    for (int row = 0; row < rows.length; row ++) {
+      step(rows[row], fromCol, previous1, previous2, previous3);
+      double [] oldest = previous3;
+      previous3 = previous2;
+      previous2 = previous1;
+      previous1 = oldest;
+    }
+
+    float [] row1 = rows[last];
+    float [] row2 = rows[Math.max(0, last - 1)];
+    float [] row3 = rows[Math.max(0, last - 2)];
+    for (int col = 0; col < width; col ++) {
+      double fromEnd1 = row1[fromCol + col] - end[col];
+      double fromEnd2 = row2[fromCol + col] - end[col];
+      double fromEnd3 = row3[fromCol + col] - end[col];
+      previous1[col] = end[col] + endWeights[0][0] * fromEnd1
+        + endWeights[0][1] * fromEnd2 + endWeights[0][2] * fromEnd3;
+      previous2[col] = end[col] + endWeights[1][0] * fromEnd1
+        + endWeights[1][1] * fromEnd2 + endWeights[1][2] * fromEnd3;
+      previous3[col] = end[col] + endWeights[2][0] * fromEnd1
+        + endWeights[2][1] * fromEnd2 + endWeights[2][2] * fromEnd3;
+    }
+    for (int row = last; row >= 0; row --) {
+      step(rows[row], fromCol, previous1, previous2, previous3);
+      double [] oldest = previous3;
+      previous3 = previous2;
+      previous2 = previous1;
+      previous1 = oldest;
+    }
+  }
+
+  /** Work out the new values of one row of a strip of columns.  The new
+   *  values are also left in previous3, ready for it to become the most
+   *  recent row.
+   *
+   *  @param row the row, whose values are replaced
+   *  @param fromCol the first column of the strip
+   *  @param previous1 the new values of the row before
+   *  @param previous2 the new values two rows before
+   *  @param previous3 the new values three rows before
+   */
+  private void step(float [] row, int fromCol, double [] previous1,
+                    double [] previous2, double [] previous3) {
+    for (int col = 0; col < previous1.length; col ++) {
+      double value = gain * row[fromCol + col] + weight1 * previous1[col]
+                     + weight2 * previous2[col] + weight3 * previous3[col];
+      row[fromCol + col] = (float) value;
+      previous3[col] = value;
+    }
+  }
+}
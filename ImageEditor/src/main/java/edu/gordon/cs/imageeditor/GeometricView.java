@@ -0,0 +1,203 @@
+/*
+ * GeometricView.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * A store that looks at another one flipped, rotated and shifted, without
+ * moving any of its pixels.  The image seen is the other store put into an
+ * orientation, then shifted cyclically down and to the right, so that
+ * pixels pushed off one edge come back in at the opposite one.  Each pixel
+ * is found in the other store as it is asked for.
+ *
+ * A view cannot be changed; anything that needs to change the pixels must
+ * copy them first.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class GeometricView extends PixelStore
+{
+  // The store looked at, and how it is turned and shifted
+  private final PixelStore source;
+  private final Orientation orientation;
+  private final int shiftRows;
+  private final int shiftCols;
+
+  /** Constructor
+   *
+   *  @param source the store to look at
+   *  @param orientation the orientation to put it in
+   *  @param shiftRows the number of rows to shift it down by once it is in
+   *         that orientation, 0 .. height - 1
+   *  @param shiftCols the number of columns to shift it right by, 0 ..
+   *         width - 1
+   */
+  GeometricView(PixelStore source, Orientation orientation, int shiftRows,
+                int shiftCols) {
+    super(orientation.swapsDimensions() ? source.getHeight()
+                                        : source.getWidth(),
+          orientation.swapsDimensions() ? source.getWidth()
+                                        : source.getHeight());
+    this.source = source;
+    this.orientation = orientation;
+    this.shiftRows = shiftRows;
+    this.shiftCols = shiftCols;
+  }
+
+  /**************************************************************************
+   * Methods required by PixelStore
+   *************************************************************************/
+
+  @Override
+  int get(int row, int col) {
+    int [] position = orientation.sourceOf(
+      Math.floorMod(row - shiftRows, height),
+      Math.floorMod(col - shiftCols, width),
+      source.getWidth(), source.getHeight());
+    return source.get(position[0], position[1]);
+  }
+
+  @Override
+  void set(int row, int col, int value) {
+    throw new UnsupportedOperationException("A view cannot be changed");
+  }
+
+  /** Copy one complete row of pixels into an array.  A row of the
+   *  re-oriented image is a row of the source read one way or the other,
+   *  or a column of it; either way it is then turned round by the shift.
+   *
+   *  @param row the row to copy
+   *  @param dest the array to copy into
+   *  @param destOffset the position in dest that receives column 0
+   */
+  @Override
+  void readRow(int row, int [] dest, int destOffset) {
+    int orientedRow = Math.floorMod(row - shiftRows, height);
+    int [] first = orientation.sourceOf(orientedRow, 0, source.getWidth(),
+                                        source.getHeight());
+    int [] second = orientation.sourceOf(orientedRow, 1, source.getWidth(),
+                                         source.getHeight());
+    int rowStep = second[0] - first[0];
+    int colStep = second[1] - first[1];
+    if (rowStep == 0) {
+      source.readRow(first[0], dest, destOffset);
+      if (colStep < 0) {
+        reverse(dest, destOffset, destOffset + width);
+      }
+    } else {
+      for (int col = 0; col < width; col ++) {
+        dest[destOffset + col] = source.get(first[0] + col * rowStep,
+                                            first[1] + col * colStep);
+      }
+    }
+
+    // Turning the row right by the shift is reversing all of it, then each
+    // of the two parts
+    if (shiftCols != 0) {
+      int end = destOffset + width;
+      reverse(dest, destOffset, end);
+      reverse(dest, destOffset, destOffset + shiftCols);
+      reverse(dest, destOffset + shiftCols, end);
+    }
+  }
+
+  /** Copy a rectangle of the image into a new array backed store.  Before
+   *  the shift, the rectangle may wrap round the edges of the re-oriented
+   *  image, so it is split into at most four that do not.  Each of those
+   *  comes from a rectangle of the source, which is copied and then put
+   *  into the orientation, so only the columns wanted are read.
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return the new store
+   */
+  @Override
+  IntPixelStore copyRegion(int row, int col, int width, int height) {
+    int top = Math.floorMod(row - shiftRows, this.height);
+    int left = Math.floorMod(col - shiftCols, this.width);
+    if (height > 0 && width > 0 && top + height <= this.height
+        && left + width <= this.width) {
+      PixelStore part = copyOriented(top, left, width, height);
+      if (part instanceof IntPixelStore) {
+        return (IntPixelStore) part;
+      }
+    }
+
+    IntPixelStore result = new IntPixelStore(width, height);
+    for (int r = 0; r < height; ) {
+      int partRow = (top + r) % this.height;
+      int partHeight = Math.min(height - r, this.height - partRow);
+      for (int c = 0; c < width; ) {
+        int partCol = (left + c) % this.width;
+        int partWidth = Math.min(width - c, this.width - partCol);
+        PixelStore part = copyOriented(partRow, partCol, partWidth,
+                                       partHeight);
+        for (int i = 0; i < partHeight; i ++) {
+          part.readSpan(i, 0, partWidth, result.getData(),
+                        result.indexOf(r + i, c));
+        }
+        c += partWidth;
+      }
+      r += partHeight;
+    }
+    return result;
+  }
+
+  @Override
+  void writeRow(int row, int [] src, int srcOffset) {
+    throw new UnsupportedOperationException("A view cannot be changed");
+  }
+
+  @Override
+  PixelStore createCompatible(int width, int height) {
+    return source.createCompatible(width, height);
+  }
+
+  @Override
+  int getBytesPerPixel() {
+    return source.getBytesPerPixel();
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Copy a rectangle of the re-oriented image, before the shift.  The
+   *  corners of the rectangle tell us which part of the source ends up in
+   *  it; every pixel in that part does.
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return a new store holding the rectangle
+   */
+  private PixelStore copyOriented(int row, int col, int width, int height) {
+    int [] first = orientation.sourceOf(row, col, source.getWidth(),
+                                        source.getHeight());
+    int [] last = orientation.sourceOf(row + height - 1, col + width - 1,
+                                       source.getWidth(), source.getHeight());
+    PixelStore part = source.copyRegion(Math.min(first[0], last[0]),
+                                        Math.min(first[1], last[1]),
+                                        Math.abs(last[1] - first[1]) + 1,
+                                        Math.abs(last[0] - first[0]) + 1);
+    return orientation.apply(part);
+  }
+
+  /** Reverse the order of part of an array
+   *
+   *  @param values the array
+   *  @param from the first position to reverse
+   *  @param to one past the last position to reverse
+   */
+  private static void reverse(int [] values, int from, int to) {
+    for (int left = from, right = to - 1; left < right; left ++, right --) {
+      int temp = values[left];
+      values[left] = values[right];
+      values[right] = temp;
+    }
+  }
+}
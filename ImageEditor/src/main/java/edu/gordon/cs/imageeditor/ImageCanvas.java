@@ -13,7 +13,6 @@ package edu.gordon.cs.imageeditor;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.image.ColorModel;
 
 /** Canvas that displays the image */
 
@@ -26,18 +25,18 @@ class ImageCanvas extends JComponent
         image = null;
     }
 
-    /** Set the data for the image to be displayed by this canvas
+    /** Set the image to be displayed by this canvas.  Only the part of the
+     *  image that is being painted is converted for display, so flips,
+     *  rotations and point operations still pending are carried out for
+     *  that part alone, and the rest of the pixels are not read.
      *
-     *  @param colorModel the color model to use for interpreting the
-     *         pixel values
-     *  @param pixels the 2 dimensional array of pixel values to
-     *         be converted to an image.
+     *  @param image the image to display
      */
-    public void setData(ColorModel colorModel, int [] [] pixels)
+    public void setImage(ProjectImage image)
     {
-        Array2dImageProducer producer =
-            new Array2dImageProducer(colorModel, pixels);
-        image = getToolkit().createImage(producer);
+        this.image = image;
+        shown = null;
+        shownBounds = null;
     }
 
     /** Record that the size of this image has changed.  The next time the
@@ -55,8 +54,7 @@ class ImageCanvas extends JComponent
         if (image == null)
             return new Dimension(1, 1);
         else
-            return new Dimension(image.getWidth(null),
-                                 image.getHeight(null));
+            return new Dimension(image.getWidth(), image.getHeight());
     }
 
 
@@ -68,15 +66,34 @@ class ImageCanvas extends JComponent
     {
         if (image != null)
         {
-            int iWidth = image.getWidth(null);
-            int iHeight = image.getHeight(null);
+            int iWidth = image.getWidth();
+            int iHeight = image.getHeight();
+            int x = iWidth >= getSize().width ? 0
+                          : (getSize().width - iWidth) / 2;
+            int y = iHeight >= getSize().height ? 0
+                          : (getSize().height - iHeight) / 2;
 
-            graphics.drawImage(image,
-                iWidth >= getSize().width ? 0
-                          : (getSize().width - iWidth) / 2,
-                iHeight >= getSize().height ? 0
-                          : (getSize().height - iHeight) / 2,
-                null);
+            // Only the part of the image inside the area being painted is
+            // fetched from the image; it is kept in case the same area is
+            // painted again
+
+            Rectangle bounds = new Rectangle(x, y, iWidth, iHeight);
+            Rectangle clip = graphics.getClipBounds();
+            if (clip != null)
+                bounds = bounds.intersection(clip);
+            if (bounds.isEmpty())
+                return;
+            if (! bounds.equals(shownBounds))
+            {
+                PixelStore region = image.getRegion(bounds.y - y,
+                                                    bounds.x - x,
+                                                    bounds.width,
+                                                    bounds.height);
+                shown = getToolkit().createImage(
+                    new Array2dImageProducer(image.getColorModel(), region));
+                shownBounds = bounds;
+            }
+            graphics.drawImage(shown, bounds.x, bounds.y, this);
         }
     }
 
@@ -99,7 +116,9 @@ class ImageCanvas extends JComponent
         }
     }
 
-    private Image image;            // The image we are showing
+    private ProjectImage image;     // The image we are showing
+    private Image shown;            // The part of it last painted, and
+    private Rectangle shownBounds;  // where that part lies on the canvas
     private boolean sizeHasChanged; // True if the size of this canvas has
                                     // been changed due to image size change
                                     // since the last time it was painted
@@ -30,7 +30,6 @@ public class ImageEditorGUI extends JPanel
     {
         this.frame = frame;
 
-        grayScaleColorModel = new GrayScaleColorModel();
         useColor = ProjectImage.isColorCapable();
 
         setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
@@ -91,11 +90,11 @@ public class ImageEditorGUI extends JPanel
                 else
                     return;
 
-                int [] [] newData;
+                ProjectImage newImage;
 
                 try
                 {
-                    newData = ImageInput.readFile(filename, ! useColor);
+                    newImage = ImageInput.readImage(filename, useColor, null, 1);
                 }
                 catch(IOException exception)
                 {
@@ -116,15 +115,7 @@ public class ImageEditorGUI extends JPanel
                     return;
                 }
 
-                if (useColor && ! ImageInput.isSimpleGrayScale(newData))
-                {
-                    image = new ProjectImage(ColorModel.getRGBdefault(), newData);
-                }
-                else
-                {
-                    image = new ProjectImage(grayScaleColorModel, newData);
-                }
-
+                image = newImage;
                 setImagePaneSize();
                 redisplayImage(true);
             }
@@ -156,10 +147,13 @@ public class ImageEditorGUI extends JPanel
                         extension = filenameString.substring(dotPosition + 1).toLowerCase();
                     else
                         extension = "";
-                    if (! extension.equals("png"))
+                    if (! extension.equals("png") &&
+                        ! extension.equals(RawImageFile.EXTENSION))
                     {
                         JOptionPane.showMessageDialog(frame,
-                                                      "Can only write png files",
+                                                      "Can only write png or " +
+                                                      RawImageFile.EXTENSION +
+                                                      " files",
                                                       "Inappropriate file type",
                                                       JOptionPane.ERROR_MESSAGE);
                         filename = null;
@@ -168,6 +162,24 @@ public class ImageEditorGUI extends JPanel
                 }
                 while (filename == null);
 
+                // The program's own format is written as the pixels are
+
+                if (extension.equals(RawImageFile.EXTENSION))
+                {
+                    try
+                    {
+                        image.saveRaw(filename, true);
+                    }
+                    catch(IOException exception)
+                    {
+                        JOptionPane.showMessageDialog(frame,
+                                                      exception,
+                                                      "Error writing file",
+                                                      JOptionPane.ERROR_MESSAGE);
+                    }
+                    return;
+                }
+
                 // Turn image into a standard Java 2D BufferedImage
 
                 BufferedImage bufferedImage = new BufferedImage(
@@ -260,7 +272,7 @@ public class ImageEditorGUI extends JPanel
     void redisplayImage(boolean sizeMayHaveChanged)
     {
         if (image == null) return;
-        imageCanvas.setData(image.getColorModel(), image.getPixels());
+        imageCanvas.setImage(image);
         if (sizeMayHaveChanged)
         {
             imageCanvas.setSizeChanged();
@@ -281,7 +293,7 @@ public class ImageEditorGUI extends JPanel
     {
         // Set the size of the viewport
 
-        imageCanvas.setData(image.getColorModel(), image.getPixels());
+        imageCanvas.setImage(image);
         imageScrollPane.getViewport().setViewSize(
             new Dimension(image.getWidth(), image.getHeight()));
 
@@ -376,10 +388,6 @@ public class ImageEditorGUI extends JPanel
 
     private boolean useColor;
 
-    // Allow the same GUI code to work with both color and grayscale images
-
-    private ColorModel grayScaleColorModel;
-
     // The card used to display the image's histogram
 
     private HistogramCard histogramCard;
@@ -6,7 +6,9 @@
  *
  *  This class provides static methods for reading image files.  It is capable
  *  of reading an image in a "standard" format (.jpg, .gif, .png), and of reading
- *  images in the program's own format
+ *  images in the program's own format (see RawImageFile).  Other files are
+ *  read with ImageIO; images already loaded by the AWT toolkit can be
+ *  converted with loadImage()
  *
  *  Copyright (c) 2003, 2004, 2005, 2009 - Russell C. Bjork
  */
@@ -14,8 +16,16 @@
 package edu.gordon.cs.imageeditor;
 
 import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.*;
 import java.io.*;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
 
 public class ImageInput
 {
@@ -28,27 +38,184 @@ public class ImageInput
      *         image was stored as gray scale, or forceGray is true.  Otherwise,
      *         it will be in the default 24 bit RGB format
      *
-     *  @exception IOException if the file cannot be found or read
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     *  @exception AWTException never thrown now that files are read with
+     *         ImageIO; still declared so that callers which catch it are
+     *         not broken
      */
     public static int [] [] readFile(File filename, boolean forceGray)
                                             throws IOException, AWTException
     {
-        int [] [] pixels;
+        return readPixelStore(filename, forceGray).toArray();
+    }
+
+    /** Read an image from a file into a pixel store.  This does the work of
+     *  readFile(), without copying the pixels into a 2-dimensional array.
+     *
+     *  The file is decoded by an ImageIO reader, straight into the array of
+     *  the store where the reader can do so: 8 bit gray scale images into a
+     *  byte store, and color images into an int store, as default RGB.
+     *  Other images are copied into the store a row at a time.  No window
+     *  system is needed, and a damaged file is reported at once.  A file in
+     *  the program's own format is not read at all: its pixels are mapped
+     *  from the file, unless they have to be converted to gray scale.
+     *
+     *  @param filename the name of the file to read
+     *  @param forceGray true if the image must be forced to gray scale
+     *  @return a store holding the pixels read from the file, with the same
+     *         values as readFile() would return.  A gray scale image is
+     *         stored one byte per pixel
+     *
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     */
+    static PixelStore readPixelStore(File filename, boolean forceGray)
+                                            throws IOException
+    {
+        return readPixelStore(filename, forceGray, null, 1);
+    }
+
+    /** Read part of an image from a file, or a reduced copy of it.  Only
+     *  the pixels asked for are kept as the file is decoded, so previewing
+     *  a small part of a huge file, or the whole of it at a fraction of its
+     *  size, takes memory only for the result.  How much decoding is saved
+     *  depends on the format: a tiled file need only have the tiles that
+     *  meet the region decoded.
+     *
+     *  @param filename the name of the file to read
+     *  @param forceGray true if the image must be forced to gray scale
+     *  @param region the rectangle of the image to read, or null for all of
+     *         it
+     *  @param subsampling 1 to read every pixel of the region; n to read
+     *         every nth pixel of every nth row, starting from its top left
+     *  @return a 2-dimensional array of the pixels read, as for
+     *         readFile(filename, forceGray).  It has region.height /
+     *         subsampling rows, rounded up, of region.width / subsampling
+     *         pixels, rounded up
+     *
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     *  @exception IllegalArgumentException if subsampling is less than 1, or
+     *         region does not lie wholly within the image
+     */
+    public static int [] [] readFile(File filename, boolean forceGray,
+                                     Rectangle region, int subsampling)
+                                            throws IOException
+    {
+        return readPixelStore(filename, forceGray, region, subsampling)
+            .toArray();
+    }
+
+    /** Read part of an image from a file, or a reduced copy of it, as a
+     *  ProjectImage.  A gray scale result is shown with a gray scale color
+     *  model, as the editor does when it opens a file.
+     *
+     *  @param filename the name of the file to read
+     *  @param useColor false if the image must be forced to gray scale
+     *  @param region the rectangle of the image to read, or null for all of
+     *         it
+     *  @param subsampling 1 to read every pixel of the region; n to read
+     *         every nth pixel of every nth row
+     *  @return the image read
+     *
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     *  @exception IllegalArgumentException as for readFile()
+     */
+    public static ProjectImage readImage(File filename, boolean useColor,
+                                         Rectangle region, int subsampling)
+                                            throws IOException
+    {
+        // An image in the program's own format keeps its own color model,
+        // and is mapped rather than read when all of it is wanted
 
-        // First see if we can load the image as a standard image file
+        if (RawImageFile.isRawFile(filename))
+        {
+            RawImageFile raw = RawImageFile.open(filename, false);
+            ColorModel model = raw.getColorModel();
+            if (useColor || model instanceof GrayScaleColorModel)
+                return new ProjectImage(model,
+                    region == null && subsampling == 1 ? raw.getStore()
+                    : readPixelStore(filename, false, region, subsampling));
+        }
 
-        Toolkit toolkit = Toolkit.getDefaultToolkit();
-        Image image = toolkit.getImage(filename.toString());
-        pixels = loadImage(image);
+        PixelStore pixels =
+            readPixelStore(filename, ! useColor, region, subsampling);
+        if (useColor && ! isSimpleGrayScale(pixels))
+            return new ProjectImage(ColorModel.getRGBdefault(), pixels);
+        else
+            return new ProjectImage(new GrayScaleColorModel(), pixels);
+    }
 
-        // Handle conversion to gray scale if required
+    /** Find the size of the image in a file, without decoding its pixels,
+     *  so that a region or subsampling can be chosen for reading it
+     *
+     *  @param filename the name of the file to read
+     *  @return the width and height of the image
+     *
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     */
+    public static Dimension readSize(File filename) throws IOException
+    {
+        if (RawImageFile.isRawFile(filename))
+        {
+            PixelStore pixels = RawImageFile.open(filename, false).getStore();
+            return new Dimension(pixels.getWidth(), pixels.getHeight());
+        }
+        return withReader(filename,
+            reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+    }
 
-        if (forceGray)
+    /** Read part of an image from a file, or a reduced copy of it, into a
+     *  pixel store.  This does the work of the readFile() that takes a
+     *  region, without copying the pixels into a 2-dimensional array.
+     *
+     *  @param filename the name of the file to read
+     *  @param forceGray true if the image must be forced to gray scale
+     *  @param region the rectangle of the image to read, or null for all of
+     *         it
+     *  @param subsampling 1 to read every pixel of the region; n to read
+     *         every nth pixel of every nth row
+     *  @return a store holding the pixels read, as for readPixelStore()
+     *
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     *  @exception IllegalArgumentException as for readFile()
+     */
+    static PixelStore readPixelStore(File filename, boolean forceGray,
+                                     Rectangle region, int subsampling)
+                                            throws IOException
+    {
+        if (subsampling < 1)
+            throw new IllegalArgumentException("Subsampling out of range: " +
+                                               subsampling);
+        if (RawImageFile.isRawFile(filename))
         {
-            convertToSimpleGrayScale(pixels);
+            // A gray scale image is already gray, even when its values
+            // do not fit in a byte, as after encrypting
+            RawImageFile raw = RawImageFile.open(filename, false);
+            MappedPixelStore pixels = raw.getStore();
+            boolean toGray = forceGray &&
+                ! (raw.getColorModel() instanceof GrayScaleColorModel);
+            if (region == null && subsampling == 1 && ! toGray)
+                return pixels;
+            if (region != null)
+                checkRegion(region, pixels.getWidth(), pixels.getHeight());
+            return copyPart(pixels, region, subsampling, toGray);
         }
 
-        return pixels;
+        return withReader(filename, reader -> {
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (region != null)
+            {
+                checkRegion(region, reader.getWidth(0), reader.getHeight(0));
+                param.setSourceRegion(region);
+            }
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return decode(reader, param, forceGray);
+        });
     }
 
     /** Convert a "standard format" image (read from a file or URL) into a
@@ -64,6 +231,22 @@ public class ImageInput
      *          toolkit can't handle the image.
      */
     public static int [] [] loadImage(final Image image) throws AWTException
+    {
+        return loadPixelStore(image).toArray();
+    }
+
+    /** Convert a "standard format" image (read from a file or URL) into a
+     *  pixel store.  The store uses the buffer the pixels are grabbed into
+     *  as its own, so no further copy is made.
+     *
+     *  @param image the image to convert
+     *
+     *  @return pixel store holding the image
+     *
+     *  @exception AWTException if there is a problem reading the image, as
+     *          for loadImage()
+     */
+    static PixelStore loadPixelStore(final Image image) throws AWTException
     {
         ImageObserver observer = new ImageObserver() {
             public boolean imageUpdate(Image image, int infoflags,
@@ -121,15 +304,7 @@ public class ImageInput
                                     grabber.status());
         }
 
-        // Convert the data from the image into a 2d array
-
-        int [] [] pixels = new int [height] [width];
-
-        for (int i = 0; i < height; i ++)
-            for (int j = 0; j < width; j ++)
-                pixels[i][j] = pixels1d[i * width + j];
-
-        return pixels;
+        return new IntPixelStore(pixels1d, 0, width, width, height);
     }
 
     /** Test to see whether image data represents a simple gray scale image.
@@ -149,6 +324,24 @@ public class ImageInput
         return true;
     }
 
+    /** Test to see whether the pixels in a store represent a simple gray
+     *  scale image, in the same way as the version for an array.
+     *
+     *  @param pixels the pixels to check
+     *  @return true if these pixels represent a simple gray scale image
+     */
+    static boolean isSimpleGrayScale(PixelStore pixels)
+    {
+        final boolean [] gray = { true };
+        pixels.scanRows(0, pixels.getHeight(),
+            (row, col, data, offset, length) -> {
+                for (int i = offset; i < offset + length; i ++)
+                    if ((data[i] & 0xffffff00) != 0)
+                        gray[0] = false;
+            });
+        return gray[0];
+    }
+
     /** Convert a color image to simple gray scale.  The array of pixels
      *  is changed in place.
      *
@@ -167,4 +360,285 @@ public class ImageInput
                      colorModel.getBlue(pixel)) / 3;
             }
     }
+
+    /** Convert a color image held in a pixel store to simple gray scale.
+     *  The store is changed in place.
+     *
+     *  @param pixels the store to be converted from color to gray scale
+     */
+    static void convertToSimpleGrayScale(PixelStore pixels)
+    {
+        pixels.updateRows(0, pixels.getHeight(),
+            (row, col, data, offset, length) -> {
+                for (int i = offset; i < offset + length; i ++)
+                    data[i] = grayValue(data[i]);
+            });
+    }
+
+    /** Find the gray scale equivalent of a default RGB color, as the average
+     *  of its three color components.
+     *
+     *  @param rgb the packed color
+     *  @return the gray value in the range 0 .. 255
+     */
+    static int grayValue(int rgb)
+    {
+        return (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3;
+    }
+
+    /** Make sure a region lies within an image, and is not empty
+     *
+     *  @param region the region
+     *  @param width the width of the image
+     *  @param height the height of the image
+     *
+     *  @exception IllegalArgumentException if it does not
+     */
+    private static void checkRegion(Rectangle region, int width, int height)
+    {
+        if (region.isEmpty() || ! new Rectangle(width, height).contains(region))
+            throw new IllegalArgumentException("Region out of range: " +
+                                               region);
+    }
+
+    /** Copy part of the pixels of a store, or a reduced copy of them, into
+     *  a new store
+     *
+     *  @param pixels the store to copy from
+     *  @param region the rectangle to copy, or null for all of the store
+     *  @param subsampling 1 to copy every pixel of the region; n to copy
+     *         every nth pixel of every nth row
+     *  @param toGray true to convert the pixels to gray scale
+     *  @return the new store, on the heap
+     */
+    private static PixelStore copyPart(MappedPixelStore pixels,
+                                       Rectangle region, int subsampling,
+                                       boolean toGray)
+    {
+        if (region == null)
+            region = new Rectangle(pixels.getWidth(), pixels.getHeight());
+        int width = (region.width + subsampling - 1) / subsampling;
+        int height = (region.height + subsampling - 1) / subsampling;
+        // Gray values only fit in a byte if they were made here, or the
+        // file kept them that way
+        PixelStore result =
+            toGray || pixels.getBytesPerPixel() == 1
+            ? new BytePixelStore(width, height)
+            : new IntPixelStore(width, height);
+        int [] source = new int[pixels.getWidth()];
+        int [] buffer = new int[width];
+        for (int row = 0; row < height; row ++)
+        {
+            pixels.readRow(region.y + row * subsampling, source, 0);
+            for (int col = 0; col < width; col ++)
+            {
+                int pixel = source[region.x + col * subsampling];
+                buffer[col] = toGray ? grayValue(pixel) : pixel;
+            }
+            result.writeRow(row, buffer, 0);
+        }
+        return result;
+    }
+
+    /** Open a file with the ImageIO reader for its format, and do some work
+     *  with the reader
+     *
+     *  @param filename the name of the file to read
+     *  @param task the work to do, given the reader once its input is set
+     *  @return the result of the work
+     *
+     *  @exception IOException if the file cannot be found or read, or is not
+     *         an image
+     */
+    private static <T> T withReader(File filename, ReaderTask<T> task)
+                                            throws IOException
+    {
+        try (ImageInputStream stream = new FileImageInputStream(filename))
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (! readers.hasNext())
+                throw new IOException(filename +
+                                      ": file type not recognized as an image");
+
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(stream, true, true);
+                return task.run(reader);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Work done with an ImageIO reader by withReader()
+     */
+    private interface ReaderTask<T>
+    {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    /** Decode the first image a reader has into a new pixel store
+     *
+     *  @param reader the reader, whose input has been set
+     *  @param param how to read the image, which may give a source region
+     *         and subsampling
+     *  @param forceGray true if the image must be forced to gray scale
+     *  @return the store holding the image, as for readPixelStore()
+     *
+     *  @exception IOException if the image cannot be read
+     */
+    private static PixelStore decode(ImageReader reader, ImageReadParam param,
+                                     boolean forceGray) throws IOException
+    {
+        Rectangle region = param.getSourceRegion();
+        if (region == null)
+            region = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+        int width = (region.width + param.getSourceXSubsampling() - 1) /
+                    param.getSourceXSubsampling();
+        int height = (region.height + param.getSourceYSubsampling() - 1) /
+                     param.getSourceYSubsampling();
+        if ((long) width * height > Integer.MAX_VALUE)
+            throw new IOException("Image is too large: " + width + " x " +
+                                  height);
+
+        // Gray scale images are decoded into a byte store as they are,
+        // without going through RGB
+
+        ImageTypeSpecifier rawType = reader.getRawImageType(0);
+        if (rawType != null &&
+            rawType.getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY)
+        {
+            BytePixelStore store = new BytePixelStore(width, height);
+            DataBuffer buffer =
+                new DataBufferByte(store.getData(), store.getData().length);
+            readInto(reader, param, rawType, buffer, width, height);
+            return store;
+        }
+
+        // Color images are decoded into an int store, if the reader can
+        // give them as packed RGB
+
+        ImageTypeSpecifier intType = null;
+        for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+             intType == null && types.hasNext(); )
+        {
+            ImageTypeSpecifier type = types.next();
+            if (type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB ||
+                type.getBufferedImageType() == BufferedImage.TYPE_INT_ARGB)
+                intType = type;
+        }
+        if (intType == null)
+            return copyImage(reader.read(0, param), forceGray);
+
+        IntPixelStore store = new IntPixelStore(width, height);
+        int [] data = store.getData();
+        readInto(reader, param, intType, new DataBufferInt(data, data.length),
+                 width, height);
+
+        // With no alpha in the file, the pixels are made opaque, as they
+        // are in the default RGB color model
+        if (intType.getBufferedImageType() == BufferedImage.TYPE_INT_RGB)
+            for (int i = 0; i < data.length; i ++)
+                data[i] |= 0xff000000;
+
+        if (forceGray)
+        {
+            convertToSimpleGrayScale(store);
+            return BytePixelStore.copyOf(store);
+        }
+        return store;
+    }
+
+    /** Have a reader decode an image straight into a data buffer
+     *
+     *  @param reader the reader, whose input has been set
+     *  @param param how to read the image, whose destination is set here
+     *  @param type the type of image to decode into, one of the reader's
+     *         image types
+     *  @param buffer the buffer to decode into, laid out as type lays out an
+     *         image of the given size
+     *  @param width the width of the image decoded
+     *  @param height the height of the image decoded
+     *
+     *  @exception IOException if the image cannot be read
+     */
+    private static void readInto(ImageReader reader, ImageReadParam param,
+                                 ImageTypeSpecifier type, DataBuffer buffer,
+                                 int width, int height) throws IOException
+    {
+        ColorModel colorModel = type.getColorModel();
+        WritableRaster raster = Raster.createWritableRaster(
+            type.getSampleModel(width, height), buffer, null);
+        param.setDestination(new BufferedImage(colorModel, raster,
+            colorModel.isAlphaPremultiplied(), null));
+        try
+        {
+            reader.read(0, param);
+        }
+        finally
+        {
+            param.setDestination(null);
+        }
+    }
+
+    /** Copy an image decoded some other way into a new pixel store, a row
+     *  at a time.  Gray scale samples are kept as they are, scaled to the
+     *  range 0 .. 255, rather than being converted to RGB and back.
+     *
+     *  @param image the decoded image
+     *  @param forceGray true if the image must be forced to gray scale
+     *  @return the store holding the image, as for readPixelStore()
+     */
+    private static PixelStore copyImage(BufferedImage image, boolean forceGray)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int [] buffer = new int[width];
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY &&
+            ! (colorModel instanceof IndexColorModel))
+        {
+            Raster raster = image.getRaster();
+            int bits = colorModel.getComponentSize(0);
+            int maxSample = (1 << bits) - 1;
+            BytePixelStore store = new BytePixelStore(width, height);
+            for (int row = 0; row < height; row ++)
+            {
+                raster.getSamples(0, row, width, 1, 0, buffer);
+                for (int col = 0; col < width; col ++)
+                    buffer[col] = bits > 8 ? buffer[col] >> (bits - 8)
+                                           : buffer[col] * 0xff / maxSample;
+                store.writeRow(row, buffer, 0);
+            }
+            return store;
+        }
+
+        // JPEG readers give color images as BGR bytes, which are packed
+        // here directly rather than through the color model
+        byte [] bgr = null;
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR)
+            bgr = ((DataBufferByte) image.getRaster().getDataBuffer())
+                .getData();
+
+        PixelStore store = forceGray ? new BytePixelStore(width, height)
+                                     : new IntPixelStore(width, height);
+        for (int row = 0; row < height; row ++)
+        {
+            if (bgr != null)
+                for (int col = 0, i = row * width * 3; col < width;
+                     col ++, i += 3)
+                    buffer[col] = 0xff000000 | (bgr[i + 2] & 0xff) << 16 |
+                                  (bgr[i + 1] & 0xff) << 8 | (bgr[i] & 0xff);
+            else
+                image.getRGB(0, row, width, 1, buffer, 0, width);
+            if (forceGray)
+                for (int col = 0; col < width; col ++)
+                    buffer[col] = grayValue(buffer[col]);
+            store.writeRow(row, buffer, 0);
+        }
+        return store;
+    }
 }
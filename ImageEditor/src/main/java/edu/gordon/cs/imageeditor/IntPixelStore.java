@@ -0,0 +1,248 @@
+/*
+ * IntPixelStore.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * A pixel store that keeps all of its pixels in one contiguous int array,
+ * in row-major order.  Pixel (row, col) is found at
+ * data[offset + row * stride + col], so a store can also describe a
+ * rectangle within a larger array - such as the buffer filled in by a
+ * PixelGrabber - without copying it.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class IntPixelStore extends PixelStore
+{
+  // The pixel data and its layout
+  private final int [] data;
+  private final int offset;
+  private final int stride;
+
+  /** Constructor for a new, zero filled store
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   */
+  IntPixelStore(int width, int height) {
+    this(new int[Math.multiplyExact(width, height)], 0, width, width, height);
+  }
+
+  /** Constructor for a store that uses an existing array
+   *
+   *  @param data the array holding the pixels
+   *  @param offset the position in data of pixel (0, 0)
+   *  @param stride the distance in data from one row to the next
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   */
+  IntPixelStore(int [] data, int offset, int stride, int width, int height) {
+    super(width, height);
+    if (stride < width || offset < 0 || (height > 0 &&
+        offset + (long) (height - 1) * stride + width > data.length)) {
+      throw new IllegalArgumentException("Layout does not fit the array");
+    }
+    this.data = data;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  /** Create a store holding a copy of a two-dimensional array of pixels
+   *
+   *  @param pixels an array of rows, all of the same length
+   *  @return the new store
+   */
+  static IntPixelStore fromArray(int [] [] pixels) {
+    int height = pixels.length;
+    int width = height == 0 ? 0 : pixels[0].length;
+    IntPixelStore result = new IntPixelStore(width, height);
+    for (int row = 0; row < height; row ++) {
+      result.writeRow(row, pixels[row], 0);
+    }
+    return result;
+  }
+
+  /** Create an int store holding a copy of another store
+   *
+   *  @param store the store to copy
+   *  @return the new store
+   */
+  static IntPixelStore copyOf(PixelStore store) {
+    IntPixelStore result =
+      new IntPixelStore(store.getWidth(), store.getHeight());
+    for (int row = 0; row < store.getHeight(); row ++) {
+      store.readRow(row, result.data, row * result.stride);
+    }
+    return result;
+  }
+
+  /**************************************************************************
+   * Direct access to the layout, for code that handles this kind of store
+   * specially
+   *************************************************************************/
+
+  /** Get the array holding the pixels
+   *
+   *  @return the backing array - not a copy
+   */
+  int [] getData() {
+    return data;
+  }
+
+  /** Get the position of a pixel in the backing array
+   *
+   *  @param row the row of the pixel
+   *  @param col the column of the pixel
+   *  @return the index in getData() of pixel (row, col)
+   */
+  int indexOf(int row, int col) {
+    return offset + row * stride + col;
+  }
+
+  /** Get the distance between rows in the backing array
+   *
+   *  @return the stride
+   */
+  int getStride() {
+    return stride;
+  }
+
+  /**************************************************************************
+   * Methods required by PixelStore
+   *************************************************************************/
+
+  @Override
+  int get(int row, int col) {
+    return data[offset + row * stride + col];
+  }
+
+  @Override
+  void set(int row, int col, int value) {
+    data[offset + row * stride + col] = value;
+  }
+
+  @Override
+  void readRow(int row, int [] dest, int destOffset) {
+    System.arraycopy(data, offset + row * stride, dest, destOffset, width);
+  }
+
+  @Override
+  void writeRow(int row, int [] src, int srcOffset) {
+    System.arraycopy(src, srcOffset, data, offset + row * stride, width);
+  }
+
+  @Override
+  IntPixelStore createCompatible(int width, int height) {
+    return new IntPixelStore(width, height);
+  }
+
+  /**************************************************************************
+   * Faster versions of PixelStore operations.  The visitors work directly
+   * on the backing array, so nothing is copied.
+   *************************************************************************/
+
+  @Override
+  void updateRows(int fromRow, int toRow, RowVisitor visitor) {
+    for (int row = fromRow; row < toRow; row ++) {
+      visitor.visitRow(row, 0, data, offset + row * stride, width);
+    }
+  }
+
+  @Override
+  void scanRows(int fromRow, int toRow, RowVisitor visitor) {
+    updateRows(fromRow, toRow, visitor);
+  }
+
+  @Override
+  void readSpan(int row, int col, int length, int [] dest, int destOffset) {
+    System.arraycopy(data, indexOf(row, col), dest, destOffset, length);
+  }
+
+  @Override
+  void writeSpan(int row, int col, int length, int [] src, int srcOffset) {
+    System.arraycopy(src, srcOffset, data, indexOf(row, col), length);
+  }
+
+  @Override
+  IntPixelStore copyRegion(int row, int col, int width, int height) {
+    IntPixelStore result = new IntPixelStore(width, height);
+    for (int r = 0; r < height; r ++) {
+      System.arraycopy(data, indexOf(row + r, col), result.data, r * width,
+                       width);
+    }
+    return result;
+  }
+
+  @Override
+  PixelStore flipHorizontally() {
+    Reorientation.flipHorizontally(data, offset, stride, width, height);
+    return this;
+  }
+
+  @Override
+  PixelStore flipVertically() {
+    Reorientation.flipVertically(data, offset, stride, width, height);
+    return this;
+  }
+
+  @Override
+  PixelStore rotateClockwise() {
+    return turn(true);
+  }
+
+  @Override
+  PixelStore rotateCounterclockwise() {
+    return turn(false);
+  }
+
+  @Override
+  PixelStore rotateHalfTurn() {
+    Reorientation.halfTurn(data, offset, stride, width, height);
+    return this;
+  }
+
+  @Override
+  PixelStore halve() {
+    PixelKernels kernels = PixelKernels.get();
+    int newWidth = width / 2;
+    int newHeight = height / 2;
+    if (belongsOffHeap((long) newWidth * newHeight, Integer.BYTES)) {
+      return super.halve();
+    }
+    IntPixelStore result = new IntPixelStore(newWidth, newHeight);
+    int [] newData = result.data;
+    for (int row = 0; row < newHeight; row ++) {
+      int upper = offset + 2 * row * stride;
+      int lower = upper + stride;
+      kernels.averageSquares(data, upper, data, lower, newData,
+                             row * newWidth, newWidth);
+    }
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Turn the image a quarter turn - in place if it is square, and into a
+   *  store made the general way if the result belongs off the heap
+   *
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   *  @return the store holding the turned image
+   */
+  private PixelStore turn(boolean clockwise) {
+    if (width == height) {
+      Reorientation.turnSquare(data, offset, stride, width, clockwise);
+      return this;
+    }
+    if (belongsOffHeap((long) width * height, Integer.BYTES)) {
+      return clockwise ? super.rotateClockwise()
+                       : super.rotateCounterclockwise();
+    }
+    IntPixelStore result = new IntPixelStore(height, width);
+    Reorientation.turn(data, offset, stride, width, height, clockwise,
+                       result.data, 0, height);
+    return result;
+  }
+}
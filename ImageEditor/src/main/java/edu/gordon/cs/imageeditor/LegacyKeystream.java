@@ -0,0 +1,43 @@
+/*
+ * LegacyKeystream.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The original way of encrypting an image: each pixel is XORed with the key
+ * plus a number 0 .. 255 drawn from a java.util.Random seeded with the key.
+ * The numbers can only be drawn in order, so the pixels must be worked on
+ * one after another along the rows, starting from the top left.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+
+final class LegacyKeystream
+{
+  private final int seed;
+  private final Random random;
+
+  /** Constructor
+   *
+   *  @param seed the key
+   */
+  LegacyKeystream(int seed) {
+    this.seed = seed;
+    this.random = new Random(seed);
+  }
+
+  /** Encrypt or decrypt the next run of pixels
+   *
+   *  @param data the array holding the run
+   *  @param offset the position in data of the first pixel
+   *  @param length the number of pixels in the run
+   */
+  void apply(int [] data, int offset, int length) {
+    for (int i = offset; i < offset + length; i ++) {
+      int randomInt = random.nextInt(PixelKernels.MAX_VALUE + 1);
+      data[i] = data[i]^seed + randomInt;
+    }
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * MappedPixelStore.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * A pixel store whose pixels live outside the Java heap, in a memory-mapped
+ * file.  The operating system decides which parts of the image are in
+ * memory at any time, so an image can be much bigger than the heap, and its
+ * size does not affect garbage collection.
+ *
+ * Pixels are stored in row-major order, either four bytes (an int, little
+ * endian) or one unsigned byte (a gray scale value) each.  A single mapping
+ * cannot exceed 2 GB, so the rows are split into chunks of at most
+ * MAX_CHUNK_BYTES, each mapped separately.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+final class MappedPixelStore extends PixelStore
+{
+  // Largest number of bytes mapped at once
+  private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+  // Largest value a pixel can hold when stored in a single byte
+  private static final int MAX_BYTE_VALUE = 0xff;
+
+  // Layout of the pixels
+  private final int bytesPerPixel;
+  private final int rowsPerChunk;
+
+  // The mapped chunks, and int views of them when pixels are ints
+  private final MappedByteBuffer [] chunks;
+  private final IntBuffer [] intChunks;
+
+  /** Constructor for a store kept in part of a file
+   *
+   *  @param channel the file holding the pixels.  It need not stay open
+   *         once the store has been created
+   *  @param position the position in the file of pixel (0, 0)
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   *  @param bytesPerPixel 4 for int pixels, 1 for gray scale pixels
+   *  @param mode READ_WRITE to allow the store to be changed, or
+   *         PRIVATE to keep changes out of the file
+   *  @exception IOException if the file cannot be mapped
+   */
+  MappedPixelStore(FileChannel channel, long position, int width, int height,
+                   int bytesPerPixel, FileChannel.MapMode mode)
+                                                          throws IOException {
+    super(width, height);
+    if (bytesPerPixel != 1 && bytesPerPixel != Integer.BYTES) {
+      throw new IllegalArgumentException("Unsupported pixel size "
+                                         + bytesPerPixel);
+    }
+    this.bytesPerPixel = bytesPerPixel;
+    long rowBytes = Math.max(1L, (long) width * bytesPerPixel);
+    rowsPerChunk = (int) Math.max(1, Math.min(height,
+                                              MAX_CHUNK_BYTES / rowBytes));
+    int chunkCount = height == 0 ? 0
+                                 : (height + rowsPerChunk - 1) / rowsPerChunk;
+    chunks = new MappedByteBuffer[chunkCount];
+    intChunks = new IntBuffer[chunkCount];
+    for (int chunk = 0; chunk < chunkCount; chunk ++) {
+      int rows = Math.min(rowsPerChunk, height - chunk * rowsPerChunk);
+      chunks[chunk] = channel.map(mode,
+                                  position + chunk * rowsPerChunk * rowBytes,
+                                  rows * rowBytes);
+      chunks[chunk].order(ByteOrder.LITTLE_ENDIAN);
+      if (bytesPerPixel == Integer.BYTES) {
+        intChunks[chunk] = chunks[chunk].asIntBuffer();
+      }
+    }
+  }
+
+  /** Create a new, zero filled store in a scratch file.  The file is
+   *  deleted as soon as it has been mapped where the system allows that,
+   *  and otherwise when the program exits.
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   *  @param bytesPerPixel 4 for int pixels, 1 for gray scale pixels
+   *  @return the new store
+   *  @exception UncheckedIOException if the scratch file cannot be made
+   */
+  static MappedPixelStore createScratch(int width, int height,
+                                        int bytesPerPixel) {
+    try {
+      File file = File.createTempFile("imageeditor", ".pixels");
+      file.deleteOnExit();
+      MappedPixelStore result;
+      try (RandomAccessFile scratch = new RandomAccessFile(file, "rw")) {
+        scratch.setLength((long) width * height * bytesPerPixel);
+        result = new MappedPixelStore(scratch.getChannel(), 0, width, height,
+                                      bytesPerPixel,
+                                      FileChannel.MapMode.READ_WRITE);
+      }
+      file.delete();
+      return result;
+    } catch (IOException exception) {
+      throw new UncheckedIOException(exception);
+    }
+  }
+
+  /** Create a store in a scratch file holding a copy of another store
+   *
+   *  @param store the store to copy
+   *  @param bytesPerPixel 4 for int pixels, 1 for gray scale pixels - which
+   *         store must then all lie in the range 0 .. 255
+   *  @return the new store
+   */
+  static MappedPixelStore copyOf(PixelStore store, int bytesPerPixel) {
+    MappedPixelStore result = createScratch(store.getWidth(),
+                                            store.getHeight(), bytesPerPixel);
+    int [] buffer = new int[store.getWidth()];
+    for (int row = 0; row < store.getHeight(); row ++) {
+      store.readRow(row, buffer, 0);
+      result.writeRow(row, buffer, 0);
+    }
+    return result;
+  }
+
+  /** Get the number of bytes each pixel takes
+   *
+   *  @return 4 for int pixels, 1 for gray scale pixels
+   */
+  @Override
+  int getBytesPerPixel() {
+    return bytesPerPixel;
+  }
+
+  /** Write any changes through to the file, for a store that was created
+   *  READ_WRITE over a file that is to be kept
+   */
+  void force() {
+    for (MappedByteBuffer chunk: chunks) {
+      chunk.force();
+    }
+  }
+
+  /** Add the bytes of some rows, as they lie in the file, to a checksum.
+   *  The mapped bytes are read where they are, without being copied.
+   *
+   *  @param checksum the checksum to update
+   *  @param fromRow the first row to add
+   *  @param toRow one past the last row to add
+   */
+  void updateChecksum(Checksum checksum, int fromRow, int toRow) {
+    int rowBytes = width * bytesPerPixel;
+    int row = fromRow;
+    while (row < toRow) {
+      int chunk = row / rowsPerChunk;
+      int chunkRow = row - chunk * rowsPerChunk;
+      int rows = Math.min(toRow - row, rowsPerChunk - chunkRow);
+      ByteBuffer view = chunks[chunk].duplicate();
+      view.position(chunkRow * rowBytes);
+      view.limit((chunkRow + rows) * rowBytes);
+      checksum.update(view);
+      row += rows;
+    }
+  }
+
+  /**************************************************************************
+   * Methods required by PixelStore
+   *************************************************************************/
+
+  @Override
+  int get(int row, int col) {
+    int chunk = row / rowsPerChunk;
+    int index = (row - chunk * rowsPerChunk) * width + col;
+    if (bytesPerPixel == 1) {
+      return chunks[chunk].get(index) & MAX_BYTE_VALUE;
+    } else {
+      return intChunks[chunk].get(index);
+    }
+  }
+
+  @Override
+  void set(int row, int col, int value) {
+    int chunk = row / rowsPerChunk;
+    int index = (row - chunk * rowsPerChunk) * width + col;
+    if (bytesPerPixel == 1) {
+      checkByteValue(value);
+      chunks[chunk].put(index, (byte) value);
+    } else {
+      intChunks[chunk].put(index, value);
+    }
+  }
+
+  @Override
+  void readRow(int row, int [] dest, int destOffset) {
+    readRow(row, dest, destOffset,
+            bytesPerPixel == 1 ? new byte[width] : null);
+  }
+
+  @Override
+  void writeRow(int row, int [] src, int srcOffset) {
+    writeRow(row, src, srcOffset,
+             bytesPerPixel == 1 ? new byte[width] : null);
+  }
+
+  @Override
+  PixelStore createCompatible(int width, int height) {
+    return createScratch(width, height, bytesPerPixel);
+  }
+
+  /** Get a store that can hold any int pixel value.  A gray scale store is
+   *  copied into a new scratch file with int pixels.
+   *
+   *  @return this store, or a copy that can hold any value
+   */
+  @Override
+  PixelStore widen() {
+    return bytesPerPixel == 1 ? copyOf(this, Integer.BYTES) : this;
+  }
+
+  /**************************************************************************
+   * Faster versions of PixelStore operations, sharing one row buffer
+   *************************************************************************/
+
+  @Override
+  void updateRows(int fromRow, int toRow, RowVisitor visitor) {
+    int [] buffer = new int[width];
+    byte [] bytes = bytesPerPixel == 1 ? new byte[width] : null;
+    for (int row = fromRow; row < toRow; row ++) {
+      readRow(row, buffer, 0, bytes);
+      visitor.visitRow(row, 0, buffer, 0, width);
+      writeRow(row, buffer, 0, bytes);
+    }
+  }
+
+  @Override
+  void readSpan(int row, int col, int length, int [] dest, int destOffset) {
+    int chunk = row / rowsPerChunk;
+    int start = (row - chunk * rowsPerChunk) * width + col;
+    if (bytesPerPixel == 1) {
+      for (int i = 0; i < length; i ++) {
+        dest[destOffset + i] = chunks[chunk].get(start + i) & MAX_BYTE_VALUE;
+      }
+    } else {
+      IntBuffer view = intChunks[chunk].duplicate();
+      view.position(start);
+      view.get(dest, destOffset, length);
+    }
+  }
+
+  @Override
+  void writeSpan(int row, int col, int length, int [] src, int srcOffset) {
+    int chunk = row / rowsPerChunk;
+    int start = (row - chunk * rowsPerChunk) * width + col;
+    if (bytesPerPixel == 1) {
+      int bits = 0;
+      for (int i = 0; i < length; i ++) {
+        int value = src[srcOffset + i];
+        bits |= value;
+        chunks[chunk].put(start + i, (byte) value);
+      }
+      checkByteValue(bits);
+    } else {
+      IntBuffer view = intChunks[chunk].duplicate();
+      view.position(start);
+      view.put(src, srcOffset, length);
+    }
+  }
+
+  @Override
+  void scanRows(int fromRow, int toRow, RowVisitor visitor) {
+    int [] buffer = new int[width];
+    byte [] bytes = bytesPerPixel == 1 ? new byte[width] : null;
+    for (int row = fromRow; row < toRow; row ++) {
+      readRow(row, buffer, 0, bytes);
+      visitor.visitRow(row, 0, buffer, 0, width);
+    }
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Copy one row into an int array
+   *
+   *  @param row the row to copy
+   *  @param dest the array to copy into
+   *  @param destOffset the position in dest that receives column 0
+   *  @param bytes a buffer of width bytes for gray scale pixels, or null
+   */
+  private void readRow(int row, int [] dest, int destOffset, byte [] bytes) {
+    int chunk = row / rowsPerChunk;
+    int start = (row - chunk * rowsPerChunk) * width;
+    if (bytesPerPixel == 1) {
+      ByteBuffer view = chunks[chunk].duplicate();
+      view.position(start);
+      view.get(bytes, 0, width);
+      for (int col = 0; col < width; col ++) {
+        dest[destOffset + col] = bytes[col] & MAX_BYTE_VALUE;
+      }
+    } else {
+      IntBuffer view = intChunks[chunk].duplicate();
+      view.position(start);
+      view.get(dest, destOffset, width);
+    }
+  }
+
+  /** Replace one row from an int array
+   *
+   *  @param row the row to replace
+   *  @param src the array holding the new values
+   *  @param srcOffset the position in src that holds column 0
+   *  @param bytes a buffer of width bytes for gray scale pixels, or null
+   */
+  private void writeRow(int row, int [] src, int srcOffset, byte [] bytes) {
+    int chunk = row / rowsPerChunk;
+    int start = (row - chunk * rowsPerChunk) * width;
+    if (bytesPerPixel == 1) {
+      int bits = 0;
+      for (int col = 0; col < width; col ++) {
+        int value = src[srcOffset + col];
+        bits |= value;
+        bytes[col] = (byte) value;
+      }
+      checkByteValue(bits);
+      ByteBuffer view = chunks[chunk].duplicate();
+      view.position(start);
+      view.put(bytes, 0, width);
+    } else {
+      IntBuffer view = intChunks[chunk].duplicate();
+      view.position(start);
+      view.put(src, srcOffset, width);
+    }
+  }
+
+  /** Make sure a value (or several values or-ed together) can be stored
+   *  in a single byte
+   *
+   *  @param value the value to check
+   *  @exception IllegalArgumentException if it is outside 0 .. 255
+   */
+  private static void checkByteValue(int value) {
+    if ((value & ~MAX_BYTE_VALUE) != 0) {
+      throw new IllegalArgumentException(
+        "Gray scale pixel value out of range 0 .. 255");
+    }
+  }
+}
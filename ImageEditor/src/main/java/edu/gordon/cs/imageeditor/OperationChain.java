@@ -0,0 +1,139 @@
+/*
+ * OperationChain.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The operations a ProjectImage in deferred mode has been asked to carry
+ * out, but has not yet.  Each operation works on the result of the one
+ * before, so the graph of operations is a simple chain.  The chain records
+ * the size the image will have after each operation, so the image can
+ * report its size without doing any work.
+ *
+ * When the image is finally needed, the chain is planned and then replayed
+ * against the image.  Planning removes work whose effect cancels out; the
+ * replay itself lets the image fuse what is left, since a run of point
+ * operations, flips, rotations and shifts between two operations of other
+ * kinds is collected into a single table, orientation and shift.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+final class OperationChain
+{
+  /** The kinds of operation, as far as planning is concerned
+   */
+  enum Kind
+  {
+    POINT,      // Changes each pixel according to its value
+    GEOMETRIC,  // Flips, rotates or shifts the image
+    HALVE,      // Changes the size of the image, by halving or otherwise
+    FILTER,     // Combines each pixel with its neighbours
+    ENCRYPT,    // Encrypts or decrypts with the key recorded in the node
+    COUNTER_ENCRYPT  // The same, in counter mode
+  }
+
+  /** One operation in the chain
+   */
+  private static final class Node
+  {
+    final Kind kind;
+    final Consumer<ProjectImage> operation;
+    final int key;
+    final int width;
+    final int height;
+
+    Node(Kind kind, Consumer<ProjectImage> operation, int key, int width,
+         int height) {
+      this.kind = kind;
+      this.operation = operation;
+      this.key = key;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  // The operations, first to last
+  private final List<Node> nodes = new ArrayList<Node>();
+
+  /** Find out whether there are operations waiting to be carried out
+   *
+   *  @return true if there are none
+   */
+  boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  /** Add an operation to the end of the chain
+   *
+   *  @param kind the kind of operation
+   *  @param operation the operation itself, to be carried out on the image
+   *  @param key the key used by an ENCRYPT or COUNTER_ENCRYPT operation -
+   *         ignored otherwise
+   *  @param width the width of the image after the operation
+   *  @param height the height of the image after the operation
+   */
+  void add(Kind kind, Consumer<ProjectImage> operation, int key, int width,
+           int height) {
+    nodes.add(new Node(kind, operation, key, width, height));
+  }
+
+  /** Get the width the image will have once every operation is done.  The
+   *  chain must not be empty.
+   *
+   *  @return the width
+   */
+  int getWidth() {
+    return nodes.get(nodes.size() - 1).width;
+  }
+
+  /** Get the height the image will have once every operation is done.  The
+   *  chain must not be empty.
+   *
+   *  @return the height
+   */
+  int getHeight() {
+    return nodes.get(nodes.size() - 1).height;
+  }
+
+  /** Carry out the operations on an image, leaving the chain empty.  The
+   *  image must not be in deferred mode while this happens, except that
+   *  it may still collect point operations, flips, rotations and shifts.
+   *
+   *  @param image the image to carry the operations out on
+   */
+  void replay(ProjectImage image) {
+    List<Node> plan = plan(nodes);
+    nodes.clear();
+    for (Node node: plan) {
+      node.operation.accept(image);
+    }
+  }
+
+  /** Remove work whose effect cancels out.  Encrypting twice in a row with
+   *  the same key in the same mode restores the original image, so both
+   *  are dropped; this is repeated until no such pair is left.  (Flips and
+   *  rotations that cancel out are removed as the chain is replayed.)
+   *
+   *  @param nodes the chain as recorded
+   *  @return the operations that must actually be carried out
+   */
+  private static List<Node> plan(List<Node> nodes) {
+    List<Node> plan = new ArrayList<Node>(nodes.size());
+    for (Node node: nodes) {
+      int last = plan.size() - 1;
+      if ((node.kind == Kind.ENCRYPT || node.kind == Kind.COUNTER_ENCRYPT)
+          && last >= 0 && plan.get(last).kind == node.kind
+          && plan.get(last).key == node.key) {
+        plan.remove(last);
+      } else {
+        plan.add(node);
+      }
+    }
+    return plan;
+  }
+}
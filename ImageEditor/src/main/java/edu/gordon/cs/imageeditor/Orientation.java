@@ -0,0 +1,140 @@
+/*
+ * Orientation.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The eight ways the flips and 90 degree rotations of an image can combine.
+ * Each orientation means: flip the image left to right (if flipped), then
+ * rotate it clockwise a quarter turn rotations times.  Any sequence of
+ * flips and rotations, however long, comes down to one of these, so a
+ * sequence can be recorded as it is built and then carried out with at
+ * most three passes over the pixels - and none at all if the flips and
+ * rotations cancel out.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+enum Orientation
+{
+  IDENTITY(0, false),
+  ROTATED_90(1, false),
+  ROTATED_180(2, false),
+  ROTATED_270(3, false),
+  FLIPPED(0, true),
+  FLIPPED_ROTATED_90(1, true),
+  FLIPPED_ROTATED_180(2, true),
+  FLIPPED_ROTATED_270(3, true);
+
+  // Number of clockwise quarter turns, made after any flip
+  private final int rotations;
+
+  // True if the image is flipped left to right first
+  private final boolean flipped;
+
+  /** Constructor
+   *
+   *  @param rotations the number of clockwise quarter turns
+   *  @param flipped true if the image is flipped left to right first
+   */
+  Orientation(int rotations, boolean flipped) {
+    this.rotations = rotations;
+    this.flipped = flipped;
+  }
+
+  /** Find the orientation with a given number of turns and flip
+   *
+   *  @param rotations the number of clockwise quarter turns, which may be
+   *         any int
+   *  @param flipped true if the image is flipped left to right first
+   *  @return the orientation
+   */
+  static Orientation of(int rotations, boolean flipped) {
+    return values()[(flipped ? 4 : 0) + (rotations & 3)];
+  }
+
+  /** Find the orientation reached by rotating this one a quarter turn
+   *  clockwise
+   *
+   *  @return the new orientation
+   */
+  Orientation thenRotate() {
+    return of(rotations + 1, flipped);
+  }
+
+  /** Find the orientation reached by flipping this one left to right.  A
+   *  flip after a rotation is the same as the opposite rotation after a
+   *  flip.
+   *
+   *  @return the new orientation
+   */
+  Orientation thenFlipHorizontally() {
+    return of(- rotations, ! flipped);
+  }
+
+  /** Find the orientation reached by flipping this one top to bottom.  A
+   *  flip top to bottom is a flip left to right followed by a half turn.
+   *
+   *  @return the new orientation
+   */
+  Orientation thenFlipVertically() {
+    return of(2 - rotations, ! flipped);
+  }
+
+  /** Find out whether this orientation swaps width and height
+   *
+   *  @return true if an image in this orientation is turned on its side
+   */
+  boolean swapsDimensions() {
+    return (rotations & 1) != 0;
+  }
+
+  /** Put the pixels of a store into this orientation
+   *
+   *  @param store the store in its original orientation
+   *  @return the store holding the re-oriented image
+   */
+  PixelStore apply(PixelStore store) {
+    if (flipped && rotations == 2) {
+      return store.flipVertically();
+    }
+    if (flipped) {
+      store = store.flipHorizontally();
+    }
+    switch (rotations) {
+      case 1:
+        return store.rotateClockwise();
+      case 2:
+        return store.rotateHalfTurn();
+      case 3:
+        return store.rotateCounterclockwise();
+      default:
+        return store;
+    }
+  }
+
+  /** Find which pixel of the original image ends up at a position once the
+   *  image is in this orientation
+   *
+   *  @param row the row in the re-oriented image
+   *  @param col the column in the re-oriented image
+   *  @param width the width of the original image
+   *  @param height the height of the original image
+   *  @return { row, column } of the pixel in the original image
+   */
+  int [] sourceOf(int row, int col, int width, int height) {
+    // Undo each clockwise quarter turn, last one first.  Turn i takes an
+    // image of the original size when i is odd, or turned on its side when
+    // i is even
+    for (int turn = rotations; turn >= 1; turn --) {
+      int heightBefore = turn % 2 == 1 ? height : width;
+      int oldRow = heightBefore - 1 - col;
+      col = row;
+      row = oldRow;
+    }
+    if (flipped) {
+      col = width - 1 - col;
+    }
+    return new int [] { row, col };
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * PixelKernels.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The innermost loops of the image operations, each working along a run
+ * of values.  The methods here do the work one value at a time.  When the
+ * program runs on a Java that provides the incubating vector API (module
+ * jdk.incubator.vector, added to the run with --add-modules), a subclass
+ * built from src/main/java-vector does the same work several values at a
+ * time; get() returns it when it can be loaded, and this class otherwise.
+ * Both always give exactly the same results.  Setting the system property
+ * imageeditor.vector to false forces the use of this class.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+class PixelKernels
+{
+  // Largest and smallest value a pixel of a gray scale image can have
+  static final int MAX_VALUE = 255;
+  static final int MIN_VALUE = 0;
+
+  // Name of the subclass that uses the vector API
+  private static final String VECTOR_CLASS =
+    "edu.gordon.cs.imageeditor.VectorPixelKernels";
+
+  // The kernels in use
+  private static final PixelKernels INSTANCE = load();
+
+  /** Constructor - for this class and its subclass only; use get()
+   */
+  PixelKernels() {
+  }
+
+  /** Get the kernels to use
+   *
+   *  @return the vector kernels if they can be used, or else the scalar ones
+   */
+  static PixelKernels get() {
+    return INSTANCE;
+  }
+
+  /** Find out whether the kernels in use work on several values at a time
+   *
+   *  @return true if they do
+   */
+  boolean isVectorized() {
+    return false;
+  }
+
+  /** Add a multiple of a run of values to a run of sums:
+   *  sums[i] += weight * source[sourceOffset + i] for i = 0 .. length - 1
+   *
+   *  @param sums the sums
+   *  @param source the values
+   *  @param sourceOffset the position of the first value
+   *  @param weight the multiple
+   *  @param length the number of sums
+   */
+  void multiplyAdd(double [] sums, int [] source, int sourceOffset,
+                   double weight, int length) {
+    for (int i = 0; i < length; i ++) {
+      sums[i] += weight * source[sourceOffset + i];
+    }
+  }
+
+  /** Add a multiple of a run of values to a run of sums:
+   *  sums[i] += weight * source[sourceOffset + i] for i = 0 .. length - 1
+   *
+   *  @param sums the sums
+   *  @param source the values
+   *  @param sourceOffset the position of the first value
+   *  @param weight the multiple
+   *  @param length the number of sums
+   */
+  void multiplyAdd(double [] sums, double [] source, int sourceOffset,
+                   double weight, int length) {
+    for (int i = 0; i < length; i ++) {
+      sums[i] += weight * source[sourceOffset + i];
+    }
+  }
+
+  /** Round a run of sums to the nearest integer, halves rounding up, and
+   *  keep the results in the range MIN_VALUE .. MAX_VALUE
+   *
+   *  @param sums the sums
+   *  @param dest the array to put the pixel values in, starting at 0
+   *  @param length the number of sums
+   */
+  void roundAndClamp(double [] sums, int [] dest, int length) {
+    for (int i = 0; i < length; i ++) {
+      dest[i] = (int) Math.max(MIN_VALUE,
+                               Math.min(MAX_VALUE, Math.round(sums[i])));
+    }
+  }
+
+  /** Add a multiple of a run of values to a run of fixed-point sums:
+   *  sums[i] += weight * source[sourceOffset + i] for i = 0 .. length - 1
+   *
+   *  @param sums the sums
+   *  @param source the values
+   *  @param sourceOffset the position of the first value
+   *  @param weight the multiple, in fixed point
+   *  @param length the number of sums
+   */
+  void multiplyAdd(int [] sums, int [] source, int sourceOffset, int weight,
+                   int length) {
+    for (int i = 0; i < length; i ++) {
+      sums[i] += weight * source[sourceOffset + i];
+    }
+  }
+
+  /** Round a run of fixed-point sums to the nearest integer, halves
+   *  rounding up, and keep the results in the range MIN_VALUE .. MAX_VALUE
+   *
+   *  @param sums the sums
+   *  @param bits the number of fractional bits in the sums - at least 1
+   *  @param dest the array to put the pixel values in, starting at 0
+   *  @param length the number of sums
+   */
+  void shiftAndClamp(int [] sums, int bits, int [] dest, int length) {
+    int half = 1 << (bits - 1);
+    for (int i = 0; i < length; i ++) {
+      dest[i] = Math.max(MIN_VALUE,
+                         Math.min(MAX_VALUE, (sums[i] + half) >> bits));
+    }
+  }
+
+  /** Average 2 x 2 squares of pixels across a pair of rows.  Each new value
+   *  is the sum of two neighbouring values in each row, divided by four.
+   *
+   *  @param upper the upper row
+   *  @param upperOffset the position of the first value in the upper row
+   *  @param lower the lower row
+   *  @param lowerOffset the position of the first value in the lower row
+   *  @param dest the array to put the averages in
+   *  @param destOffset the position for the first average
+   *  @param length the number of averages - half the values used from each
+   *         row
+   */
+  void averageSquares(int [] upper, int upperOffset, int [] lower,
+                      int lowerOffset, int [] dest, int destOffset,
+                      int length) {
+    for (int i = 0; i < length; i ++) {
+      dest[destOffset + i] = (upper[upperOffset + 2 * i]
+                              + lower[lowerOffset + 2 * i]
+                              + upper[upperOffset + 2 * i + 1]
+                              + lower[lowerOffset + 2 * i + 1]) / 4;
+    }
+  }
+
+  /** Average 2 x 2 squares of unsigned byte pixels across a pair of rows
+   *
+   *  @param upper the upper row
+   *  @param upperOffset the position of the first value in the upper row
+   *  @param lower the lower row
+   *  @param lowerOffset the position of the first value in the lower row
+   *  @param dest the array to put the averages in
+   *  @param destOffset the position for the first average
+   *  @param length the number of averages - half the values used from each
+   *         row
+   */
+  void averageSquares(byte [] upper, int upperOffset, byte [] lower,
+                      int lowerOffset, byte [] dest, int destOffset,
+                      int length) {
+    for (int i = 0; i < length; i ++) {
+      int sum = (upper[upperOffset + 2 * i] & MAX_VALUE)
+                + (lower[lowerOffset + 2 * i] & MAX_VALUE)
+                + (upper[upperOffset + 2 * i + 1] & MAX_VALUE)
+                + (lower[lowerOffset + 2 * i + 1] & MAX_VALUE);
+      dest[destOffset + i] = (byte) (sum / 4);
+    }
+  }
+
+  /** Load the vector kernels if they are present and can be used
+   *
+   *  @return the kernels to use
+   */
+  private static PixelKernels load() {
+    if (! Boolean.parseBoolean(System.getProperty("imageeditor.vector",
+                                                  "true"))) {
+      return new PixelKernels();
+    }
+    try {
+      return (PixelKernels) Class.forName(VECTOR_CLASS)
+                                 .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError exception) {
+      // Not built, or the vector API is not available in this run
+      return new PixelKernels();
+    }
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * PixelStore.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The storage behind a ProjectImage.  A pixel store holds width x height
+ * pixel values, to be interpreted according to the image's color model, and
+ * hides how they are laid out in memory.  Subclasses supply element access
+ * and whole-row copies; the row visitor methods and the geometric operations
+ * have generic implementations here that a subclass can replace with one
+ * suited to its own layout.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+abstract class PixelStore
+{
+  /** Receives a horizontal run of pixels while a store is being scanned or
+   *  updated.  The run holds pixels (row, col) .. (row, col + length - 1),
+   *  found in data[offset] .. data[offset + length - 1].  When updating,
+   *  values written back into data become the new pixel values.
+   */
+  interface RowVisitor
+  {
+    void visitRow(int row, int col, int [] data, int offset, int length);
+  }
+
+  // Stores that would take more than this fraction of the largest possible
+  // heap are kept off the heap, in a memory-mapped scratch file
+  static final int OFF_HEAP_FRACTION = 4;
+
+  // Size of the image
+  protected final int width;
+  protected final int height;
+
+  /** Constructor
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   */
+  protected PixelStore(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image size cannot be negative: "
+                                         + width + " x " + height);
+    }
+    this.width = width;
+    this.height = height;
+  }
+
+  /**************************************************************************
+   * Element access - supplied by each kind of store
+   *************************************************************************/
+
+  /** Get the width of the stored image
+   *
+   *  @return the number of pixels in each row
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /** Get the height of the stored image
+   *
+   *  @return the number of rows
+   */
+  int getHeight() {
+    return height;
+  }
+
+  /** Get a single pixel
+   *
+   *  @param row the row of the pixel
+   *  @param col the column of the pixel
+   *  @return the pixel value
+   */
+  abstract int get(int row, int col);
+
+  /** Set a single pixel
+   *
+   *  @param row the row of the pixel
+   *  @param col the column of the pixel
+   *  @param value the new pixel value
+   */
+  abstract void set(int row, int col, int value);
+
+  /** Copy one complete row of pixels into an array
+   *
+   *  @param row the row to copy
+   *  @param dest the array to copy into
+   *  @param destOffset the position in dest that receives column 0
+   */
+  abstract void readRow(int row, int [] dest, int destOffset);
+
+  /** Replace one complete row of pixels from an array
+   *
+   *  @param row the row to replace
+   *  @param src the array holding the new values
+   *  @param srcOffset the position in src that holds column 0
+   */
+  abstract void writeRow(int row, int [] src, int srcOffset);
+
+  /** Create a new, zero filled store of the same kind as this one
+   *
+   *  @param width the width of the new store
+   *  @param height the height of the new store
+   *  @return the new store
+   */
+  abstract PixelStore createCompatible(int width, int height);
+
+  /** Get the number of bytes each pixel takes
+   *
+   *  @return 1 for a store of gray scale bytes, otherwise 4
+   */
+  int getBytesPerPixel() {
+    return Integer.BYTES;
+  }
+
+  /** Create a new, zero filled store to hold the result of an operation on
+   *  this one.  It is of the same kind as this one, unless it would take
+   *  too much of the heap, when it is made in a scratch file instead.
+   *
+   *  @param width the width of the new store
+   *  @param height the height of the new store
+   *  @return the new store
+   */
+  PixelStore createResult(int width, int height) {
+    int bytesPerPixel = getBytesPerPixel();
+    if (belongsOffHeap((long) width * height, bytesPerPixel)) {
+      return MappedPixelStore.createScratch(width, height, bytesPerPixel);
+    }
+    return createCompatible(width, height);
+  }
+
+  /** Create a new, zero filled store for values kept between the passes of
+   *  an operation, which may need all 32 bits of each pixel.  It is kept on
+   *  the heap, unless it would take too much of it, when it is made in a
+   *  scratch file instead.
+   *
+   *  @param width the width of the new store
+   *  @param height the height of the new store
+   *  @return the new store
+   */
+  static PixelStore createIntermediate(int width, int height) {
+    if (belongsOffHeap((long) width * height, Integer.BYTES)) {
+      return MappedPixelStore.createScratch(width, height, Integer.BYTES);
+    }
+    return new IntPixelStore(width, height);
+  }
+
+  /** Check whether a store is too big to be kept on the heap
+   *
+   *  @param pixelCount the number of pixels in the store
+   *  @param bytesPerPixel the number of bytes each pixel takes
+   *  @return true if it would take more than 1 / OFF_HEAP_FRACTION of the
+   *          largest possible heap
+   */
+  static boolean belongsOffHeap(long pixelCount, int bytesPerPixel) {
+    return pixelCount * bytesPerPixel
+           > Runtime.getRuntime().maxMemory() / OFF_HEAP_FRACTION;
+  }
+
+  /** Get a store that can hold any int pixel value, for operations whose
+   *  results may not fit in this one
+   *
+   *  @return this store, or a copy of it that can hold any value
+   */
+  PixelStore widen() {
+    return this;
+  }
+
+  /**************************************************************************
+   * Bulk access
+   *************************************************************************/
+
+  /** Visit rows fromRow .. toRow - 1 in top-down order, allowing the visitor
+   *  to change the pixels.  Every pixel of these rows is passed to the
+   *  visitor exactly once, and the runs of one row are passed left to right.
+   *
+   *  @param fromRow the first row to visit
+   *  @param toRow one past the last row to visit
+   *  @param visitor the visitor to pass the rows to
+   */
+  void updateRows(int fromRow, int toRow, RowVisitor visitor) {
+    int [] buffer = new int[width];
+    for (int row = fromRow; row < toRow; row ++) {
+      readRow(row, buffer, 0);
+      visitor.visitRow(row, 0, buffer, 0, width);
+      writeRow(row, buffer, 0);
+    }
+  }
+
+  /** Visit rows fromRow .. toRow - 1 in the same order as updateRows(),
+   *  without changing them.  The visitor must not modify the data it is
+   *  given.
+   *
+   *  @param fromRow the first row to visit
+   *  @param toRow one past the last row to visit
+   *  @param visitor the visitor to pass the rows to
+   */
+  void scanRows(int fromRow, int toRow, RowVisitor visitor) {
+    int [] buffer = new int[width];
+    for (int row = fromRow; row < toRow; row ++) {
+      readRow(row, buffer, 0);
+      visitor.visitRow(row, 0, buffer, 0, width);
+    }
+  }
+
+  /** Copy part of one row into an array.  Only the pixels asked for are
+   *  read; stores that can do better than one get() per pixel override
+   *  this.
+   *
+   *  @param row the row to copy from
+   *  @param col the first column to copy
+   *  @param length the number of pixels to copy
+   *  @param dest the array to copy into
+   *  @param destOffset the position in dest that receives column col
+   */
+  void readSpan(int row, int col, int length, int [] dest, int destOffset) {
+    for (int i = 0; i < length; i ++) {
+      dest[destOffset + i] = get(row, col + i);
+    }
+  }
+
+  /** Replace part of one row from an array.  Only the pixels given are
+   *  written, so different threads may write different parts of the same
+   *  row at once; stores that can do better than one set() per pixel
+   *  override this.
+   *
+   *  @param row the row to write to
+   *  @param col the first column to write
+   *  @param length the number of pixels to write
+   *  @param src the array holding the new values
+   *  @param srcOffset the position in src that holds column col
+   */
+  void writeSpan(int row, int col, int length, int [] src, int srcOffset) {
+    for (int i = 0; i < length; i ++) {
+      set(row, col + i, src[srcOffset + i]);
+    }
+  }
+
+  /** Make an independent copy of this store
+   *
+   *  @return a store of the same kind holding the same pixels
+   */
+  PixelStore copy() {
+    PixelStore result = createResult(width, height);
+    int [] buffer = new int[width];
+    for (int row = 0; row < height; row ++) {
+      readRow(row, buffer, 0);
+      result.writeRow(row, buffer, 0);
+    }
+    return result;
+  }
+
+  /** Copy the pixels into a newly allocated two-dimensional array
+   *
+   *  @return an array having height rows, each containing width values
+   */
+  int [] [] toArray() {
+    int [] [] result = new int[height][width];
+    for (int row = 0; row < height; row ++) {
+      readRow(row, result[row], 0);
+    }
+    return result;
+  }
+
+  /** Copy a rectangle of the image into a new int store, reading only the
+   *  pixels inside it
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return a store holding just the pixels of the rectangle
+   */
+  IntPixelStore copyRegion(int row, int col, int width, int height) {
+    IntPixelStore result = new IntPixelStore(width, height);
+    for (int r = 0; r < height; r ++) {
+      readSpan(row + r, col, width, result.getData(), result.indexOf(r, 0));
+    }
+    return result;
+  }
+
+  /**************************************************************************
+   * Geometric operations.  Each returns the store holding the result, which
+   * may be this store changed in place or a newly created one.
+   *************************************************************************/
+
+  /** Mirror the image left to right
+   *
+   *  @return the store holding the flipped image
+   */
+  PixelStore flipHorizontally() {
+    updateRows(0, height, (row, col, data, offset, length) -> {
+      for (int left = offset, right = offset + length - 1; left < right;
+           left ++, right --) {
+        int temp = data[left];
+        data[left] = data[right];
+        data[right] = temp;
+      }
+    });
+    return this;
+  }
+
+  /** Mirror the image top to bottom
+   *
+   *  @return the store holding the flipped image
+   */
+  PixelStore flipVertically() {
+    int [] topRow = new int[width];
+    int [] bottomRow = new int[width];
+    for (int top = 0, bottom = height - 1; top < bottom; top ++, bottom --) {
+      readRow(top, topRow, 0);
+      readRow(bottom, bottomRow, 0);
+      writeRow(top, bottomRow, 0);
+      writeRow(bottom, topRow, 0);
+    }
+    return this;
+  }
+
+  /** Rotate the image 90 degrees clockwise
+   *
+   *  @return the store holding the rotated image, which is height pixels
+   *          wide and width pixels high
+   */
+  PixelStore rotateClockwise() {
+    return turn(true);
+  }
+
+  /** Rotate the image 90 degrees counterclockwise
+   *
+   *  @return the store holding the rotated image, which is height pixels
+   *          wide and width pixels high
+   */
+  PixelStore rotateCounterclockwise() {
+    return turn(false);
+  }
+
+  /** Rotate the image 180 degrees
+   *
+   *  @return the store holding the rotated image
+   */
+  PixelStore rotateHalfTurn() {
+    return flipHorizontally().flipVertically();
+  }
+
+  /** Scale the image by a factor of 0.5 in each dimension, making each new
+   *  pixel the average of a 2 x 2 square of old ones.  An odd last row or
+   *  column is dropped.
+   *
+   *  @return the store holding the reduced image
+   */
+  PixelStore halve() {
+    PixelKernels kernels = PixelKernels.get();
+    int newWidth = width / 2;
+    int newHeight = height / 2;
+    PixelStore result = createResult(newWidth, newHeight);
+    int [] upper = new int[width];
+    int [] lower = new int[width];
+    int [] newRow = new int[newWidth];
+    for (int row = 0; row < newHeight; row ++) {
+      readRow(2 * row, upper, 0);
+      readRow(2 * row + 1, lower, 0);
+      kernels.averageSquares(upper, 0, lower, 0, newRow, 0, newWidth);
+      result.writeRow(row, newRow, 0);
+    }
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Rotate the image 90 degrees either way.  The rows are read a block at
+   *  a time, so that each row of the result is written a block's worth of
+   *  pixels at a time rather than one pixel at a time.
+   *
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   *  @return the store holding the rotated image
+   */
+  private PixelStore turn(boolean clockwise) {
+    PixelStore result = createResult(height, width);
+    int blockRows = Math.min(height, Reorientation.BLOCK_SIZE);
+    int [] [] block = new int[blockRows][width];
+    for (int fromRow = 0; fromRow < height; fromRow += blockRows) {
+      int rows = Math.min(blockRows, height - fromRow);
+      for (int i = 0; i < rows; i ++) {
+        readRow(fromRow + i, block[i], 0);
+      }
+      for (int col = 0; col < width; col ++) {
+        int newRow = clockwise ? col : width - 1 - col;
+        for (int i = 0; i < rows; i ++) {
+          int newCol = clockwise ? height - 1 - fromRow - i : fromRow + i;
+          result.set(newRow, newCol, block[i][col]);
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,497 @@
+/*
+ * PngRowReader.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Reads a PNG file one row at a time, from top to bottom, so that an image
+ * of any size can be worked through while holding only two rows of it:
+ * the row being read, and the one before it, which the PNG filters refer
+ * back to.  The compressed data is inflated as the rows are asked for.
+ *
+ * Every kind of PNG image is read apart from interlaced ones, whose rows
+ * are spread through the file.  Each row is given as packed RGB values in
+ * the default color model, the same as the toolkit gives when loading the
+ * file, with the alpha taken to be opaque.  Samples of 16 bits are cut to
+ * their top 8, and samples of fewer than 8 bits are scaled up to 0 .. 255.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+final class PngRowReader implements Closeable
+{
+  // The bytes every PNG file starts with
+  static final byte [] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n',
+                                     0x1A, '\n' };
+
+  // The types of the chunks that matter here
+  static final int IHDR = 0x49484452;
+  static final int PLTE = 0x504C5445;
+  static final int IDAT = 0x49444154;
+  static final int IEND = 0x49454E44;
+
+  // The color types
+  static final int GRAY = 0;
+  static final int RGB = 2;
+  static final int PALETTE = 3;
+  static final int GRAY_ALPHA = 4;
+  static final int RGB_ALPHA = 6;
+
+  // The filter types each row can be stored with
+  static final int FILTER_NONE = 0;
+  static final int FILTER_SUB = 1;
+  static final int FILTER_UP = 2;
+  static final int FILTER_AVERAGE = 3;
+  static final int FILTER_PAETH = 4;
+
+  private static final int OPAQUE = 0xFF000000;
+
+  private final DataInputStream in;
+  private final CRC32 crc = new CRC32();
+
+  // From the header
+  private int width;
+  private int height;
+  private int bitDepth;
+  private int colorType;
+
+  // The palette as packed RGB values, for a palette image
+  private int [] palette;
+
+  // The image data, the rows inflated from it, and the two row buffers:
+  // each row is a filter type followed by the filtered bytes
+  private ImageData imageData;
+  private InputStream rows;
+  private Inflater inflater;
+  private byte [] previous;
+  private byte [] current;
+  private int bytesPerPixel;
+  private int rowsRead;
+
+  // What is left of the chunk being read
+  private int chunkRemaining;
+
+  /** Constructor - read the header of a PNG file, ready to read its rows
+   *
+   *  @param input the stream to read the file from, which is closed by
+   *         close()
+   *  @exception IOException if the stream cannot be read, or does not hold
+   *             a PNG image that can be read a row at a time
+   */
+  PngRowReader(InputStream input) throws IOException {
+    in = new DataInputStream(new BufferedInputStream(input));
+    try {
+      readHeader();
+    } catch (IOException | RuntimeException exception) {
+      in.close();
+      throw exception;
+    }
+  }
+
+  /** Get the width of the image
+   *
+   *  @return the width
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /** Get the height of the image
+   *
+   *  @return the height
+   */
+  int getHeight() {
+    return height;
+  }
+
+  /** Find out whether the image holds only gray values
+   *
+   *  @return true for a gray scale image, with or without alpha
+   */
+  boolean isGray() {
+    return colorType == GRAY || colorType == GRAY_ALPHA;
+  }
+
+  /** Read the next row of the image
+   *
+   *  @param dest the array to put the row in, as packed RGB values
+   *  @param destOffset the position in dest that receives column 0
+   *  @exception IOException if the row cannot be read, or all the rows
+   *             have been read already
+   */
+  void readRow(int [] dest, int destOffset) throws IOException {
+    if (rowsRead == height) {
+      throw new IOException("No more rows in the PNG file");
+    }
+    byte [] swap = previous;
+    previous = current;
+    current = swap;
+    int filter = rows.read();
+    if (filter < 0) {
+      throw new EOFException("PNG file ends part way through the image");
+    }
+    readFully(rows, current);
+    unfilter(filter, current, previous, bytesPerPixel);
+    unpack(current, dest, destOffset);
+    rowsRead ++;
+
+    // Read on to the end of the image data after the last row, so that
+    // damage anywhere in it is found
+    if (rowsRead == height) {
+      byte [] rest = new byte[512];
+      while (rows.read(rest) >= 0) {
+      }
+      while (imageData.read(rest, 0, rest.length) >= 0) {
+      }
+    }
+  }
+
+  /** Close the file
+   *
+   *  @exception IOException if the file cannot be closed
+   */
+  public void close() throws IOException {
+    if (inflater != null) {
+      inflater.end();
+    }
+    in.close();
+  }
+
+  /** Undo the filter a row was stored with, in place
+   *
+   *  @param filter the filter type
+   *  @param row the filtered bytes of the row
+   *  @param above the bytes of the row before, already unfiltered - all
+   *         zeros for the first row
+   *  @param bytesPerPixel the distance back to the byte of the pixel to the
+   *         left - 1 for images with less than a byte per pixel
+   *  @exception IOException if the filter type is not known
+   */
+  static void unfilter(int filter, byte [] row, byte [] above,
+                       int bytesPerPixel) throws IOException {
+    switch (filter) {
+    case FILTER_NONE:
+      break;
+    case FILTER_SUB:
+      for (int i = bytesPerPixel; i < row.length; i ++) {
+        row[i] += row[i - bytesPerPixel];
+      }
+      break;
+    case FILTER_UP:
+      for (int i = 0; i < row.length; i ++) {
+        row[i] += above[i];
+      }
+      break;
+    case FILTER_AVERAGE:
+      for (int i = 0; i < row.length; i ++) {
+        int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+        row[i] += (left + (above[i] & 0xFF)) >> 1;
+      }
+      break;
+    case FILTER_PAETH:
+      for (int i = 0; i < row.length; i ++) {
+        int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+        int upLeft = i >= bytesPerPixel ? above[i - bytesPerPixel] & 0xFF
+                                        : 0;
+        row[i] += paeth(left, above[i] & 0xFF, upLeft);
+      }
+      break;
+    default:
+      throw new IOException("Unknown PNG filter type " + filter);
+    }
+  }
+
+  /** Predict a byte from the bytes to its left, above it and above left,
+   *  as the Paeth filter does
+   *
+   *  @param left the byte to the left
+   *  @param up the byte above
+   *  @param upLeft the byte above left
+   *  @return whichever of the three is closest to left + up - upLeft
+   */
+  static int paeth(int left, int up, int upLeft) {
+    int estimate = left + up - upLeft;
+    int toLeft = Math.abs(estimate - left);
+    int toUp = Math.abs(estimate - up);
+    int toUpLeft = Math.abs(estimate - upLeft);
+    if (toLeft <= toUp && toLeft <= toUpLeft) {
+      return left;
+    } else if (toUp <= toUpLeft) {
+      return up;
+    } else {
+      return upLeft;
+    }
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Read the chunks before the image data, and set up to inflate it
+   *
+   *  @exception IOException if the file cannot be read or is not suitable
+   */
+  private void readHeader() throws IOException {
+    byte [] signature = new byte[SIGNATURE.length];
+    readFully(in, signature);
+    if (! Arrays.equals(signature, SIGNATURE)) {
+      throw new IOException("Not a PNG file");
+    }
+    int type = startChunk();
+    if (type != IHDR || chunkRemaining != 13) {
+      throw new IOException("PNG file does not start with a header");
+    }
+    width = readChunkInt();
+    height = readChunkInt();
+    bitDepth = readChunkByte();
+    colorType = readChunkByte();
+    int compression = readChunkByte();
+    int filterMethod = readChunkByte();
+    int interlace = readChunkByte();
+    endChunk();
+    if (width <= 0 || height <= 0 || compression != 0 || filterMethod != 0) {
+      throw new IOException("Bad PNG header");
+    }
+    if (interlace != 0) {
+      throw new IOException("Interlaced PNG files cannot be read a row at "
+                            + "a time");
+    }
+    int samples;
+    switch (colorType) {
+    case GRAY: samples = 1; break;
+    case RGB: samples = 3; break;
+    case PALETTE: samples = 1; break;
+    case GRAY_ALPHA: samples = 2; break;
+    case RGB_ALPHA: samples = 4; break;
+    default: throw new IOException("Unknown PNG color type " + colorType);
+    }
+    boolean depthAllowed = bitDepth == 8
+      || (bitDepth == 16 && colorType != PALETTE)
+      || ((bitDepth == 1 || bitDepth == 2 || bitDepth == 4)
+          && (colorType == GRAY || colorType == PALETTE));
+    if (! depthAllowed) {
+      throw new IOException("Bad PNG bit depth " + bitDepth);
+    }
+    long rowBits = (long) width * samples * bitDepth;
+    if ((rowBits + 7) / 8 > Integer.MAX_VALUE - 1) {
+      throw new IOException("PNG image too wide");
+    }
+    bytesPerPixel = Math.max(1, samples * bitDepth / 8);
+    previous = new byte[(int) ((rowBits + 7) / 8)];
+    current = new byte[previous.length];
+
+    // Skip to the image data, keeping the palette on the way
+    while ((type = startChunk()) != IDAT) {
+      if (type == IEND) {
+        throw new IOException("PNG file has no image data");
+      } else if (type == PLTE && colorType == PALETTE) {
+        palette = new int[chunkRemaining / 3];
+        for (int i = 0; i < palette.length; i ++) {
+          palette[i] = (readChunkByte() << 16) | (readChunkByte() << 8)
+                       | readChunkByte();
+        }
+      }
+      skipChunk();
+      endChunk();
+    }
+    if (colorType == PALETTE && palette == null) {
+      throw new IOException("PNG palette image has no palette");
+    }
+    inflater = new Inflater();
+    imageData = new ImageData();
+    rows = new InflaterInputStream(imageData, inflater);
+  }
+
+  /** Turn the bytes of a row into packed RGB values
+   *
+   *  @param row the unfiltered bytes of the row
+   *  @param dest the array to put the values in
+   *  @param destOffset the position in dest that receives column 0
+   *  @exception IOException if a palette index is out of range
+   */
+  private void unpack(byte [] row, int [] dest, int destOffset)
+                                                    throws IOException {
+    // The distance from one sample to the next, in bytes, for 8 and 16 bit
+    // samples; only the first byte of a 16 bit sample is used
+    int step = bitDepth / 8;
+    switch (colorType) {
+    case GRAY:
+    case GRAY_ALPHA:
+      if (bitDepth < 8) {
+        int max = (1 << bitDepth) - 1;
+        for (int col = 0; col < width; col ++) {
+          int gray = sampleAt(row, col) * 255 / max;
+          dest[destOffset + col] = OPAQUE | gray * 0x10101;
+        }
+      } else {
+        int stride = colorType == GRAY ? step : 2 * step;
+        for (int col = 0, i = 0; col < width; col ++, i += stride) {
+          dest[destOffset + col] = OPAQUE | (row[i] & 0xFF) * 0x10101;
+        }
+      }
+      break;
+    case RGB:
+    case RGB_ALPHA:
+      int stride = (colorType == RGB ? 3 : 4) * step;
+      for (int col = 0, i = 0; col < width; col ++, i += stride) {
+        dest[destOffset + col] = OPAQUE | (row[i] & 0xFF) << 16
+                                 | (row[i + step] & 0xFF) << 8
+                                 | (row[i + 2 * step] & 0xFF);
+      }
+      break;
+    default:
+      for (int col = 0; col < width; col ++) {
+        int index = bitDepth < 8 ? sampleAt(row, col) : row[col] & 0xFF;
+        if (index >= palette.length) {
+          throw new IOException("PNG palette index out of range");
+        }
+        dest[destOffset + col] = OPAQUE | palette[index];
+      }
+    }
+  }
+
+  /** Get a sample of fewer than 8 bits from a row.  Samples are packed
+   *  from the top bit of each byte down.
+   *
+   *  @param row the bytes of the row
+   *  @param col the column of the sample
+   *  @return the sample
+   */
+  private int sampleAt(byte [] row, int col) {
+    int bit = col * bitDepth;
+    int shift = 8 - bitDepth - (bit & 7);
+    return ((row[bit >> 3] & 0xFF) >> shift) & ((1 << bitDepth) - 1);
+  }
+
+  /** Start reading a chunk
+   *
+   *  @return the type of the chunk
+   *  @exception IOException if the chunk cannot be read
+   */
+  private int startChunk() throws IOException {
+    chunkRemaining = in.readInt();
+    if (chunkRemaining < 0) {
+      throw new IOException("Bad PNG chunk length");
+    }
+    int type = in.readInt();
+    crc.reset();
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      crc.update(type >>> shift);
+    }
+    return type;
+  }
+
+  /** Read a byte of the chunk being read
+   *
+   *  @return the byte, 0 .. 255
+   *  @exception IOException if the chunk has no more bytes
+   */
+  private int readChunkByte() throws IOException {
+    if (chunkRemaining == 0) {
+      throw new IOException("PNG chunk too short");
+    }
+    int value = in.readUnsignedByte();
+    crc.update(value);
+    chunkRemaining --;
+    return value;
+  }
+
+  /** Read four bytes of the chunk being read as an int
+   *
+   *  @return the int
+   *  @exception IOException if the chunk has too few bytes left
+   */
+  private int readChunkInt() throws IOException {
+    int value = 0;
+    for (int i = 0; i < 4; i ++) {
+      value = (value << 8) | readChunkByte();
+    }
+    return value;
+  }
+
+  /** Pass over the rest of the chunk being read
+   *
+   *  @exception IOException if the chunk cannot be read
+   */
+  private void skipChunk() throws IOException {
+    byte [] buffer = new byte[Math.min(chunkRemaining, 8192)];
+    while (chunkRemaining > 0) {
+      int count = Math.min(chunkRemaining, buffer.length);
+      in.readFully(buffer, 0, count);
+      crc.update(buffer, 0, count);
+      chunkRemaining -= count;
+    }
+  }
+
+  /** Finish reading a chunk, checking its CRC
+   *
+   *  @exception IOException if the chunk has bytes left, or its CRC is
+   *             wrong
+   */
+  private void endChunk() throws IOException {
+    if (chunkRemaining != 0) {
+      throw new IOException("PNG chunk too long");
+    }
+    if (in.readInt() != (int) crc.getValue()) {
+      throw new IOException("PNG chunk damaged - CRC does not match");
+    }
+  }
+
+  /** Fill an array from a stream
+   *
+   *  @param stream the stream
+   *  @param buffer the array to fill
+   *  @exception IOException if the stream ends first
+   */
+  private static void readFully(InputStream stream, byte [] buffer)
+                                                    throws IOException {
+    int done = 0;
+    while (done < buffer.length) {
+      int count = stream.read(buffer, done, buffer.length - done);
+      if (count < 0) {
+        throw new EOFException("PNG file ends part way through the image");
+      }
+      done += count;
+    }
+  }
+
+  /** The compressed image data, which runs on from one IDAT chunk into the
+   *  next, read as one stream
+   */
+  private final class ImageData extends InputStream
+  {
+    // True once the chunk after the last IDAT has been reached
+    private boolean finished;
+
+    public int read() throws IOException {
+      byte [] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    public int read(byte [] buffer, int offset, int length)
+                                                    throws IOException {
+      while (chunkRemaining == 0 && ! finished) {
+        endChunk();
+        if (startChunk() != IDAT) {
+          finished = true;
+        }
+      }
+      if (finished) {
+        return -1;
+      }
+      int count = in.read(buffer, offset, Math.min(length, chunkRemaining));
+      if (count < 0) {
+        throw new EOFException("PNG file ends part way through the image");
+      }
+      crc.update(buffer, offset, count);
+      chunkRemaining -= count;
+      return count;
+    }
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * PngRowWriter.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Writes a PNG file one row at a time, from top to bottom, holding only
+ * the row being written and the one before it.  Each row is stored with
+ * whichever of the PNG filters leaves the smallest differences, as most
+ * PNG writers choose, and deflated straight into the file, which is cut
+ * into IDAT chunks of a fixed size as it goes.
+ *
+ * Gray scale images are written as 8 bit gray, and others as 8 bit RGB
+ * with no alpha, the same as saving an image as a TYPE_INT_RGB
+ * BufferedImage.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+final class PngRowWriter implements Closeable
+{
+  // The largest amount of image data put in one IDAT chunk
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final DataOutputStream out;
+  private final boolean gray;
+  private final int width;
+  private final int height;
+
+  // The deflated rows, and the two row buffers
+  private final Deflater deflater;
+  private final DeflaterOutputStream rows;
+  private byte [] previous;
+  private byte [] current;
+
+  // The row filtered each way, each led by its filter type
+  private final byte [] [] filtered = new byte[5][];
+  private int rowsWritten;
+
+  /** Constructor - write the header of a PNG file
+   *
+   *  @param output the stream to write the file to, which is closed by
+   *         close()
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @param gray true to write the image as gray scale, false for RGB
+   *  @exception IOException if the stream cannot be written
+   */
+  PngRowWriter(OutputStream output, int width, int height, boolean gray)
+                                                    throws IOException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Image size out of range: "
+                                         + width + " x " + height);
+    }
+    this.out = new DataOutputStream(new BufferedOutputStream(output));
+    this.gray = gray;
+    this.width = width;
+    this.height = height;
+    int rowBytes = Math.multiplyExact(width, gray ? 1 : 3);
+    previous = new byte[rowBytes];
+    current = new byte[rowBytes];
+    for (int filter = 0; filter < filtered.length; filter ++) {
+      filtered[filter] = new byte[rowBytes + 1];
+    }
+
+    out.write(PngRowReader.SIGNATURE);
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt(width);
+    headerData.writeInt(height);
+    headerData.writeByte(8);
+    headerData.writeByte(gray ? PngRowReader.GRAY : PngRowReader.RGB);
+    headerData.writeByte(0);   // Compression
+    headerData.writeByte(0);   // Filter method
+    headerData.writeByte(0);   // No interlace
+    writeChunk(PngRowReader.IHDR, header.toByteArray(), 0, header.size());
+
+    // Encrypted rows hardly compress at all, so the fastest level gives
+    // nearly the same size as the best
+    deflater = new Deflater(Deflater.BEST_SPEED);
+    rows = new DeflaterOutputStream(new ImageData(), deflater, CHUNK_SIZE);
+  }
+
+  /** Write the next row of the image
+   *
+   *  @param src the array holding the row - gray values 0 .. 255 for a gray
+   *         scale image, or packed RGB values; any other bits are ignored
+   *  @param srcOffset the position in src of column 0
+   *  @exception IOException if the row cannot be written, or all the rows
+   *             have been written already
+   */
+  void writeRow(int [] src, int srcOffset) throws IOException {
+    if (rowsWritten == height) {
+      throw new IOException("All the rows have been written already");
+    }
+    byte [] swap = previous;
+    previous = current;
+    current = swap;
+    if (gray) {
+      for (int col = 0; col < width; col ++) {
+        current[col] = (byte) src[srcOffset + col];
+      }
+    } else {
+      for (int col = 0, i = 0; col < width; col ++) {
+        int rgb = src[srcOffset + col];
+        current[i ++] = (byte) (rgb >> 16);
+        current[i ++] = (byte) (rgb >> 8);
+        current[i ++] = (byte) rgb;
+      }
+    }
+    byte [] best = chooseFilter(current, rowsWritten == 0 ? null : previous,
+                                gray ? 1 : 3);
+    rows.write(best);
+    rowsWritten ++;
+  }
+
+  /** Finish the file and close it.  Every row must have been written.
+   *
+   *  @exception IOException if the file cannot be written, or some rows
+   *             have not been written
+   */
+  public void close() throws IOException {
+    try {
+      if (rowsWritten != height) {
+        throw new IOException("Only " + rowsWritten + " of " + height
+                              + " rows written");
+      }
+      rows.close();
+      writeChunk(PngRowReader.IEND, new byte[0], 0, 0);
+    } finally {
+      deflater.end();
+      out.close();
+    }
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Filter a row each way, and choose the one whose bytes, taken as
+   *  signed differences, add up to the least
+   *
+   *  @param row the row
+   *  @param above the row before, or null for the first row
+   *  @param bytesPerPixel the number of bytes in each pixel
+   *  @return the chosen filter type followed by the filtered row
+   */
+  private byte [] chooseFilter(byte [] row, byte [] above,
+                               int bytesPerPixel) {
+    byte [] best = null;
+    long bestSum = Long.MAX_VALUE;
+    for (int filter = 0; filter < filtered.length; filter ++) {
+      // With no row above, Up is the same as None and Paeth as Sub
+      if (above == null && (filter == PngRowReader.FILTER_UP
+                            || filter == PngRowReader.FILTER_PAETH)) {
+        continue;
+      }
+      byte [] result = filtered[filter];
+      result[0] = (byte) filter;
+      long sum = 0;
+      for (int i = 0; i < row.length; i ++) {
+        int value = row[i] & 0xFF;
+        int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+        int up = above == null ? 0 : above[i] & 0xFF;
+        int upLeft = above == null || i < bytesPerPixel
+                     ? 0 : above[i - bytesPerPixel] & 0xFF;
+        int prediction;
+        switch (filter) {
+        case PngRowReader.FILTER_NONE: prediction = 0; break;
+        case PngRowReader.FILTER_SUB: prediction = left; break;
+        case PngRowReader.FILTER_UP: prediction = up; break;
+        case PngRowReader.FILTER_AVERAGE: prediction = (left + up) >> 1; break;
+        default: prediction = PngRowReader.paeth(left, up, upLeft);
+        }
+        byte difference = (byte) (value - prediction);
+        result[i + 1] = difference;
+        sum += Math.abs(difference);
+      }
+      if (sum < bestSum) {
+        best = result;
+        bestSum = sum;
+      }
+    }
+    return best;
+  }
+
+  /** Write a whole chunk
+   *
+   *  @param type the type of the chunk
+   *  @param data the array holding the chunk's data
+   *  @param offset the position of the data in the array
+   *  @param length the number of bytes of data
+   *  @exception IOException if the file cannot be written
+   */
+  private void writeChunk(int type, byte [] data, int offset, int length)
+                                                    throws IOException {
+    CRC32 crc = new CRC32();
+    out.writeInt(length);
+    out.writeInt(type);
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      crc.update(type >>> shift);
+    }
+    out.write(data, offset, length);
+    crc.update(data, offset, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /** The compressed image data, cut into IDAT chunks of up to CHUNK_SIZE
+   *  bytes
+   */
+  private final class ImageData extends OutputStream
+  {
+    private final byte [] buffer = new byte[CHUNK_SIZE];
+    private int count;
+
+    public void write(int value) throws IOException {
+      write(new byte[] { (byte) value }, 0, 1);
+    }
+
+    public void write(byte [] data, int offset, int length)
+                                                    throws IOException {
+      while (length > 0) {
+        int part = Math.min(length, buffer.length - count);
+        System.arraycopy(data, offset, buffer, count, part);
+        count += part;
+        offset += part;
+        length -= part;
+        if (count == buffer.length) {
+          flush();
+        }
+      }
+    }
+
+    public void flush() throws IOException {
+      if (count > 0) {
+        writeChunk(PngRowReader.IDAT, buffer, 0, count);
+        count = 0;
+      }
+    }
+
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -15,15 +15,57 @@ package edu.gordon.cs.imageeditor;
 
 import java.io.*;
 import java.awt.image.ColorModel;
-import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
 
 public class ProjectImage
 {
   // Image data
   private ColorModel colorModel;
-  private int[][] pixels;
-  private int width;
-  private int height;
+  private PixelStore store;
+
+  // Point operations that have been asked for but not yet applied to the
+  // pixels in store.  A pixel whose value v lies in 0 .. 255 is to become
+  // pendingTable[v]; any other pixel p is to become
+  // pendingOperation.applyAsInt(p).  Both are null when nothing is pending.
+  // pendingOperation is made up of pendingOperationCount functions, each
+  // run in turn on every such pixel
+  private int [] pendingTable;
+  private IntUnaryOperator pendingOperation;
+  private int pendingOperationCount;
+
+  // The number of pixels in store with each value 0 .. 255, or null if
+  // this has not been worked out since the pixels last changed.
+  // valuesOutOfRange is true if counting found some other value
+  private long [] valueCounts;
+  private boolean valuesOutOfRange;
+
+  // Sums of the pixels in store over rectangles, or null if these have not
+  // been worked out since the pixels last changed or moved
+  private SummedAreaTable summedAreaTable;
+
+  // Halved copies of the pixels in store, made as they are asked for and
+  // kept until the pixels change or move
+  private final Pyramid pyramid = new Pyramid();
+
+  // Flips, rotations and shifts that have been asked for but not yet
+  // applied to the pixels in store.  The image is store, after any pending
+  // point operations, put into pendingOrientation and then shifted
+  // cyclically down by pendingShiftRows and right by pendingShiftCols.
+  // Each flip, rotation or shift only changes these, so store is looked at
+  // through them for display, and only rearranged when some other
+  // operation needs its pixels where they belong
+  private Orientation pendingOrientation = Orientation.IDENTITY;
+  private int pendingShiftRows;
+  private int pendingShiftCols;
+
+  // In deferred mode, operations that cannot simply be collected -
+  // along with everything that follows them - are recorded in chain.
+  // Nothing is done until the pixels are needed.  replaying is true while
+  // the recorded operations are being carried out
+  private boolean deferred;
+  private final OperationChain chain = new OperationChain();
+  private boolean replaying;
 
   // Constants
   private static final int LIGHTEN_DARKEN_AMOUNT = 3;
@@ -31,6 +73,14 @@ public class ProjectImage
   private static final int MIN_BRIGHTNESS = 0;
   private static final int MAX_RANDOM = 256 * 256 * 256;
 
+  // Images with at least this many pixels (that are not kept one byte per
+  // pixel) are kept in tiles, so operations on them work one tile at a time
+  private static final long TILED_STORAGE_PIXELS = 1L << 24;
+
+  // The most point operations that are combined before they are applied,
+  // when some pixels may lie outside 0 .. 255 and so not use the table
+  private static final int MAX_PENDING_OPERATIONS = 64;
+
   /** Constructor
    *
    *  @param colorModel the color model to use for interpreting the
@@ -42,10 +92,51 @@ public class ProjectImage
    *      with alpha value
    */
   public ProjectImage(ColorModel colorModel, int[][] pixels) {
+    this(colorModel, IntPixelStore.fromArray(pixels));
+  }
+
+  /** Constructor for an image whose pixels are already in a store.  The
+   *  image takes ownership of the store and changes it in place.  A gray
+   *  scale image whose pixels are all in the range 0 .. 255 is kept one
+   *  byte per pixel, even if the store passed in is bigger.  An image too
+   *  big to be comfortably held on the heap is moved off it, and any other
+   *  very large image is kept in tiles.
+   *
+   *  @param colorModel the color model to use for interpreting the
+   *         pixel values
+   *  @param store the data content of this image, with the same meaning as
+   *         the pixels passed to the other constructor
+   */
+  ProjectImage(ColorModel colorModel, PixelStore store) {
     this.colorModel = colorModel;
-    this.pixels = pixels;
-    this.height = pixels.length;
-    this.width = pixels[0].length;
+    this.store = chooseStore(colorModel, store);
+  }
+
+  /** Decide how the pixels of a new image should be stored
+   *
+   *  @param colorModel the color model of the image
+   *  @param store the store holding the pixels
+   *  @return the store to use - either store itself or a copy of it
+   */
+  private static PixelStore chooseStore(ColorModel colorModel,
+                                        PixelStore store) {
+    if (colorModel instanceof GrayScaleColorModel
+        && ! (store instanceof BytePixelStore)
+        && ! (store instanceof MappedPixelStore)
+        && BytePixelStore.canHold(store)) {
+      store = BytePixelStore.copyOf(store);
+    }
+    long pixelCount = (long) store.getWidth() * store.getHeight();
+    int bytesPerPixel = store.getBytesPerPixel();
+    if (! (store instanceof MappedPixelStore)
+        && PixelStore.belongsOffHeap(pixelCount, bytesPerPixel)) {
+      return MappedPixelStore.copyOf(store, bytesPerPixel);
+    } else if (store instanceof IntPixelStore
+               && pixelCount >= TILED_STORAGE_PIXELS) {
+      return TiledPixelStore.copyOf(store);
+    } else {
+      return store;
+    }
   }
 
   /**************************************************************************
@@ -67,6 +158,46 @@ public class ProjectImage
     return false;
   }
 
+  /** Choose how operations on images are run.  Operations that work on
+   *  each pixel separately split the image into bands of rows and work on
+   *  several bands at once, giving exactly the same results as working on
+   *  one row at a time.
+   *
+   *  @param threadCount the number of threads to use: 1 to work on one row
+   *         at a time, or 0 to use the default pool of threads
+   *  @param bandRows the number of rows in each band, or 0 for the default
+   */
+  public static void setParallelism(int threadCount, int bandRows) {
+    RowBands.configure(threadCount, bandRows);
+  }
+
+  /** Choose whether operations on this image are carried out as soon as
+   *  they are asked for, or deferred until the pixels are next needed.
+   *  Deferring lets runs of operations be combined, and operations that
+   *  cancel out - such as two flips, four rotations or encrypting twice with
+   *  the same key - be skipped altogether.  Turning deferred mode off
+   *  carries out anything still pending.  Deferred operations are carried
+   *  out on the whole image whenever any of its pixels are needed, even
+   *  through getRegion(); only flips, rotations, shifts and point
+   *  operations can be applied to a rectangle alone.
+   *
+   *  @param deferred true to defer operations
+   */
+  public void setDeferred(boolean deferred) {
+    if (! deferred) {
+      pixels();
+    }
+    this.deferred = deferred;
+  }
+
+  /** Find out whether operations on this image are deferred
+   *
+   *  @return true if they are
+   */
+  public boolean isDeferred() {
+    return deferred;
+  }
+
   /**************************************************************************
    * Accessors for information about this image
    *************************************************************************/
@@ -75,10 +206,23 @@ public class ProjectImage
    *
    *  @return the pixels for this image - represented as a 2 dimensional
    *          array of integers, to be interpreted according to the
-   *          color model
+   *          color model.  This is a copy; changing it does not change
+   *          the image
    */
   public int [] [] getPixels() {
-    return pixels;
+    return pixels().toArray();
+  }
+
+  /** Get the store holding the pixels of this image, for classes that can
+   *  work with it directly rather than through a copy.  The store must not
+   *  be changed.  Pending flips, rotations and shifts are not carried out;
+   *  if there are any, the store is a view that finds each pixel through
+   *  them.
+   *
+   *  @return the pixel store, or a view of it - not a copy
+   */
+  PixelStore getPixelStore() {
+    return view();
   }
 
   /** Get the pixels of this image as a one-dimensional array of packed RGB
@@ -89,23 +233,101 @@ public class ProjectImage
    *          array of integers representing packed RGB values
    */
   public int [] getPixelsIntRGB() {
-    int [] result = new int[height * width];
-    for (int row = 0; row < height; row ++) {
-      for (int col = 0; col < width; col ++) {
-        result[row * width + col] = isColor()
-          ? pixels[row][col]
-          : pixels[row][col] * 0x10101; // Makes all three colors same
+    final PixelStore pixels = view();
+    final int width = getWidth();
+    final int [] result = new int[Math.multiplyExact(width, getHeight())];
+    final boolean color = isColor();
+    pixels.scanRows(0, getHeight(), (row, col, data, offset, length) -> {
+      int dest = row * width + col;
+      if (color) {
+        System.arraycopy(data, offset, result, dest, length);
+      } else {
+        for (int i = offset; i < offset + length; i ++) {
+          result[dest ++] = data[i] * 0x10101; // Makes all three colors same
+        }
       }
-    }
+    });
     return result;
   }
 
+  /** Get a rectangle of the pixels, doing only the work needed for that
+   *  rectangle.  Pending flips, rotations, shifts and point operations are
+   *  applied to a copy of the rectangle rather than to the whole image, and
+   *  are left pending.  Other operations deferred by setDeferred() - sizes,
+   *  filters and the like - cannot be, so any of those are first carried
+   *  out on the whole image.
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return a new store holding the pixels of the rectangle
+   */
+  PixelStore getRegion(int row, int col, int width, int height) {
+    if (row < 0 || col < 0 || width < 0 || height < 0
+        || row + height > getHeight() || col + width > getWidth()) {
+      throw new IllegalArgumentException("Region lies outside the image");
+    }
+    replayChain();
+    if (width == 0 || height == 0) {
+      return new IntPixelStore(width, height);
+    }
+
+    // The view reads only the part of store that ends up in the rectangle,
+    // even when the rectangle wraps round its edges
+    PixelStore region = new GeometricView(store, pendingOrientation,
+                                          pendingShiftRows, pendingShiftCols)
+      .copyRegion(row, col, width, height);
+    if (pendingTable != null) {
+      mapPixels(region, pendingTable, pendingOperation);
+    }
+    return region;
+  }
+
+  /** Get the mean value of the pixels in a rectangle.  Once worked out,
+   *  the sums behind this are kept until the pixels change, so asking about
+   *  any number of rectangles costs little more than asking about one.
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return the mean value
+   */
+  public double getRegionMean(int row, int col, int width, int height) {
+    checkRegion(row, col, width, height);
+    return (double) getSummedAreaTable().sum(row, col, width, height)
+           / ((long) width * height);
+  }
+
+  /** Get the variance of the values of the pixels in a rectangle, worked
+   *  out in the same way as getRegionMean()
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return the variance
+   */
+  public double getRegionVariance(int row, int col, int width, int height) {
+    checkRegion(row, col, width, height);
+    SummedAreaTable table = getSummedAreaTable();
+    double count = (double) width * height;
+    double mean = table.sum(row, col, width, height) / count;
+    return Math.max(0, table.sumOfSquares(row, col, width, height) / count
+                       - mean * mean);
+  }
+
   /** Get the width of this image
    *
    *  @return the width of this image
    */
   public int getWidth() {
-    return width;
+    if (! chain.isEmpty()) {
+      return chain.getWidth();
+    }
+    return pendingOrientation.swapsDimensions() ? store.getHeight()
+                                                : store.getWidth();
   }
 
   /** Get the height of this image
@@ -113,7 +335,11 @@ public class ProjectImage
    *  @return the height of this image
    */
   public int getHeight() {
-    return height;
+    if (! chain.isEmpty()) {
+      return chain.getHeight();
+    }
+    return pendingOrientation.swapsDimensions() ? store.getWidth()
+                                                : store.getHeight();
   }
 
   /** Get the color model used by this image
@@ -132,95 +358,665 @@ public class ProjectImage
     return ! (colorModel instanceof GrayScaleColorModel);
   }
 
+  /**************************************************************************
+   * Saving and opening images in the program's own format
+   *************************************************************************/
+
+  /** Save this image in the program's own format, which holds the pixels
+   *  just as they are kept in memory, so that it can be opened again
+   *  without being decoded.  A gray scale image whose pixels all lie in the
+   *  range 0 .. 255 takes one byte per pixel.
+   *
+   *  @param file the file to write
+   *  @param checksums true to store checksums of the pixels, so that
+   *         openRaw() can be asked to check them
+   *  @exception IOException if the file cannot be written
+   */
+  public void saveRaw(File file, boolean checksums) throws IOException {
+    RawImageFile.write(file, colorModel, view(), checksums);
+  }
+
+  /** Open an image saved by saveRaw().  The pixels are mapped from the
+   *  file rather than read, and the image works on them where they lie;
+   *  changes to the image are not written back to the file.  Any checksums
+   *  in the file are not checked, so opening costs the same however big
+   *  the image is.
+   *
+   *  @param file the file to open
+   *  @return the image
+   *  @exception IOException if the file cannot be read, or is not in the
+   *             program's own format
+   */
+  public static ProjectImage openRaw(File file) throws IOException {
+    return openRaw(file, false);
+  }
+
+  /** Open an image saved by saveRaw(), choosing whether to check its
+   *  checksums.  Checking them reads the whole file once.
+   *
+   *  @param file the file to open
+   *  @param verify true to check the pixels against the checksums in the
+   *         file, if it has any
+   *  @return the image
+   *  @exception IOException if the file cannot be read, is not in the
+   *             program's own format, or does not match its checksums
+   */
+  public static ProjectImage openRaw(File file, boolean verify)
+                                                    throws IOException {
+    RawImageFile raw = RawImageFile.open(file, verify);
+    return new ProjectImage(raw.getColorModel(), raw.getStore());
+  }
+
   /**************************************************************************
    * Mutators to alter this image.  Some of these will alter the
    * image "in place", while others will change the width and/or height,
-   * resulting in the creation of a new array of pixels.
+   * resulting in the creation of a new store of pixels.
    *************************************************************************/
 
   /** Lighten the image by a small fixed amount
    */
   public void lighten() {
-    for (int row = 0; row < height; row ++) {
-      for (int col = 0; col < width; col ++) {
-        pixels[row][col] = keepBelowMaxBrightness(pixels[row][col] + LIGHTEN_DARKEN_AMOUNT);
-      }
+    if (record(OperationChain.Kind.POINT, ProjectImage::lighten)) {
+      return;
     }
+    applyPointOperation(
+      pixel -> keepBelowMaxBrightness(pixel + LIGHTEN_DARKEN_AMOUNT));
   }
+
   /** Darken the image by the same fixed amount as lighten()
    */
   public void darken() {
-    for (int row = 0; row < height; row ++) {
-      for (int col = 0; col < width; col ++) {
-        pixels[row][col] = keepAboveMinBrightness(pixels[row][col] - LIGHTEN_DARKEN_AMOUNT);
-      }
+    if (record(OperationChain.Kind.POINT, ProjectImage::darken)) {
+      return;
     }
-  }     
+    applyPointOperation(
+      pixel -> keepAboveMinBrightness(pixel - LIGHTEN_DARKEN_AMOUNT));
+  }
 
   /** Reverses the value of pixels
    */
   public void negative() {
-    for (int row = 0; row < height; row ++) {
-      for (int col = 0; col < width; col ++) {
-        pixels[row][col] = MAX_BRIGHTNESS - pixels[row][col];
-      }
+    if (record(OperationChain.Kind.POINT, ProjectImage::negative)) {
+      return;
     }
+    applyPointOperation(pixel -> MAX_BRIGHTNESS - pixel);
   }
+
   /** With the average pixel value as reference, it takes all pixels in the array,
    *  and makes all values closer to the average (if they are not average values yet).
    */
   public void reduceContrast() {
-    int avgPixelValue = getAvgPixelValue(pixels);
-    for (int row = 0; row < height; row ++) {
-      for (int col = 0; col < width; col ++) {
-        if (pixels[row][col] < avgPixelValue) {
-          pixels[row][col]++;
-        } else if (pixels[row][col] > avgPixelValue) {
-          pixels[row][col]--;
-        }
-      }
+    if (record(OperationChain.Kind.POINT, ProjectImage::reduceContrast)) {
+      return;
     }
+    int avgPixelValue = getAvgPixelValue();
+    applyPointOperation(pixel -> {
+      if (pixel < avgPixelValue) {
+        return pixel + 1;
+      } else if (pixel > avgPixelValue) {
+        return pixel - 1;
+      } else {
+        return pixel;
+      }
+    });
   }
+
   /** With the average pixel value as reference, it takes all pixels in the array,
    *  and makes all values further from the average (if they are not average values yet).
    */
   public void enhanceContrast() {
-    int avgPixelValue = getAvgPixelValue(pixels);
-    for (int row = 0; row < height; row ++) {
-      for (int col = 0; col < width; col ++) {
-        if (pixels[row][col] < avgPixelValue) {
-          pixels[row][col] = keepAboveMinBrightness(pixels[row][col] - 1);
-        } else if (pixels[row][col] > avgPixelValue) {
-          pixels[row][col] = keepBelowMaxBrightness(pixels[row][col] + 1);
-        }
-      }
+    if (record(OperationChain.Kind.POINT, ProjectImage::enhanceContrast)) {
+      return;
     }
+    int avgPixelValue = getAvgPixelValue();
+    applyPointOperation(pixel -> {
+      if (pixel < avgPixelValue) {
+        return keepAboveMinBrightness(pixel - 1);
+      } else if (pixel > avgPixelValue) {
+        return keepBelowMaxBrightness(pixel + 1);
+      } else {
+        return pixel;
+      }
+    });
   }
+
   //Encrypts the image, meaning random random generates number
   //Adding ^seed with randomInt en/decrypt method
-  public void encryptDecrypt (int seed) {
-      Random random = new Random(seed);
-      for (int row = 0; row < height; row ++)
-        for (int col = 0; col < width; col ++) {
-          int randomInt = random.nextInt(MAX_BRIGHTNESS + 1);
-          pixels[row][col] = pixels[row][col]^seed + randomInt;
+  public void encryptDecrypt(int seed) {
+    if (record(OperationChain.Kind.ENCRYPT,
+               image -> image.encryptDecrypt(seed), seed, getWidth(),
+               getHeight())) {
+      return;
+    }
+
+    // The encrypted values can be well above MAX_BRIGHTNESS, which a gray
+    // scale image kept one byte per pixel cannot hold
+    store = pixels().widen();
+    pixelsChanged();
+
+    // updateRows() visits the pixels in row-major order, which is the
+    // order the random numbers must be drawn in
+    LegacyKeystream keystream = new LegacyKeystream(seed);
+    store.updateRows(0, getHeight(), (row, col, data, offset, length) -> {
+      keystream.apply(data, offset, length);
+    });
+  }
+
+  /** Encrypt or decrypt the image in a given mode.  Either way, doing it
+   *  again with the same key gives back the original image.
+   *
+   *  @param seed the key
+   *  @param mode LEGACY to do the same as encryptDecrypt(seed), or COUNTER
+   *         to use a keystream that can be worked out for each pixel on its
+   *         own, so that the image is worked on in bands at once
+   */
+  public void encryptDecrypt(int seed, EncryptionMode mode) {
+    if (mode == EncryptionMode.LEGACY) {
+      encryptDecrypt(seed);
+      return;
+    }
+    if (record(OperationChain.Kind.COUNTER_ENCRYPT,
+               image -> image.encryptDecrypt(seed, mode), seed, getWidth(),
+               getHeight())) {
+      return;
+    }
+    applyKeystream(new CounterKeystream(seed), 0, 0, getWidth(),
+                   getHeight());
+    pixelsChanged();
+  }
+
+  /** Encrypt or decrypt one rectangle of the image in counter mode, in the
+   *  same way as the whole image would be.  Decrypting part of an image
+   *  encrypted in counter mode gives back that part of the original,
+   *  without working on the rest.
+   *
+   *  @param seed the key
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @exception IllegalArgumentException if the rectangle is empty or does
+   *             not lie within the image
+   */
+  public void encryptDecryptRegion(int seed, int row, int col, int width,
+                                   int height) {
+    checkRegion(row, col, width, height);
+
+    // Recorded as a filter, since it cannot cancel out with encrypting the
+    // whole image
+    if (record(OperationChain.Kind.FILTER,
+               image -> image.encryptDecryptRegion(seed, row, col, width,
+                                                   height),
+               0, getWidth(), getHeight())) {
+      return;
+    }
+    applyKeystream(new CounterKeystream(seed), row, col, width, height);
+    pixelsChanged(row, col, width, height);
+  }
+
+  //Rotates the image to the right 90 degrees.  Any pending point
+  //operations can still be applied afterwards, since it only moves pixels
+  public void rotate() {
+    if (record(OperationChain.Kind.GEOMETRIC, ProjectImage::rotate, 0,
+               getHeight(), getWidth())) {
+      return;
+    }
+
+    // What was shifted down is now shifted left, and what was shifted right
+    // is now shifted down
+    int shiftRows = pendingShiftRows;
+    pendingShiftRows = pendingShiftCols;
+    pendingShiftCols = wrap(- shiftRows, getHeight());
+    pendingOrientation = pendingOrientation.thenRotate();
+  }
+
+  /** Rotate the image clockwise by any angle.  The image grows to hold the
+   *  rotated corners, and the new space around them is black.  Whole
+   *  quarter turns are made in the same way as rotate(); the rest of the
+   *  angle is made up of three shears.
+   *
+   *  @param degrees the angle to rotate by - anticlockwise if it is
+   *         negative
+   *  @exception IllegalArgumentException if the angle is not finite
+   */
+  public void rotate(double degrees) {
+    ShearRotation rotation = new ShearRotation(degrees);
+    for (int turn = 0; turn < rotation.getQuarterTurns(); turn ++) {
+      rotate();
+    }
+    if (! rotation.isQuarterTurns()) {
+      applyShearRotation(rotation);
+    }
+  }
+
+  /** Apply the part of a rotation that is left after the whole quarter
+   *  turns
+   *
+   *  @param rotation the rotation
+   */
+  private void applyShearRotation(ShearRotation rotation) {
+    if (record(OperationChain.Kind.HALVE,
+               image -> image.applyShearRotation(rotation), 0,
+               rotation.getWidth(getWidth(), getHeight()),
+               rotation.getHeight(getWidth(), getHeight()))) {
+      return;
+    }
+    store = rotation.apply(pixels());
+    pixelsChanged();
+  }
+
+  /** Count the pixels of each brightness.  For a color image, the
+   *  brightness of a pixel is the average of its three colors.
+   *
+   *  @return an array of 256 counts - element i is the number of pixels
+   *          whose brightness is i
+   */
+  public int [] calculateHistogram() {
+    replayChain();
+    int [] histogram = new int[MAX_BRIGHTNESS + 1];
+
+    // For a gray scale image, this is just the counts of the values each
+    // pixel will have once pending operations are applied
+    long [] counts = isColor() ? null : getValueCounts();
+    if (counts != null) {
+      for (int value = 0; value < counts.length; value ++) {
+        int brightness = pendingTable == null ? value : keepAboveMinBrightness(
+          keepBelowMaxBrightness(pendingTable[value]));
+        histogram[brightness] += (int) counts[value];
+      }
+      return histogram;
+    }
+
+    // Otherwise, each band of rows is counted separately, and the counts
+    // added up
+    final PixelStore pixels = unmovedPixels();
+    final int bandRows = RowBands.bandRows();
+    final int [] [] bandHistograms =
+      new int[RowBands.bandCount(pixels.getHeight(), bandRows)]
+             [MAX_BRIGHTNESS + 1];
+    final boolean color = isColor();
+    RowBands.run(pixels.getWidth(), pixels.getHeight(), bandRows,
+                 (band, fromRow, toRow) -> {
+      final int [] bandHistogram = bandHistograms[band];
+      pixels.scanRows(fromRow, toRow, (row, col, data, offset, length) -> {
+        for (int i = offset; i < offset + length; i ++) {
+          int brightness = color ? ImageInput.grayValue(data[i])
+            : keepAboveMinBrightness(keepBelowMaxBrightness(data[i]));
+          bandHistogram[brightness] ++;
+        }
+      });
+    });
+    for (int [] bandHistogram: bandHistograms) {
+      for (int pixel = 0; pixel < histogram.length; pixel ++) {
+        histogram[pixel] += bandHistogram[pixel];
+      }
+    }
+    return histogram;
+  }
+
+  /** Replace every pixel by a function of its own value.  The function is
+   *  worked out once for each possible brightness and kept in a table.
+   *  Rather than being applied straight away, the table is combined with
+   *  those of any other point operations still pending, so that a run of
+   *  point operations costs only one pass over the pixels, made when the
+   *  pixels are next needed.  Pixels outside 0 .. 255, such as color or
+   *  encrypted ones, go through every combined function instead, so only a
+   *  limited number of these are combined unless the pixels are kept one
+   *  byte each.
+   *
+   *  @param operation the function giving the new value of a pixel
+   */
+  private void applyPointOperation(IntUnaryOperator operation) {
+    if (pendingOperationCount >= MAX_PENDING_OPERATIONS
+        && store.getBytesPerPixel() != 1) {
+      applyPendingTable();
+    }
+    int [] table = new int[MAX_BRIGHTNESS + 1];
+    for (int pixel = MIN_BRIGHTNESS; pixel <= MAX_BRIGHTNESS; pixel ++) {
+      table[pixel] = operation.applyAsInt(
+        pendingTable == null ? pixel : pendingTable[pixel]);
+    }
+    pendingTable = table;
+    pendingOperation = pendingOperation == null
+      ? operation : pendingOperation.andThen(operation);
+    pendingOperationCount ++;
+  }
+
+  /** Get the pixels of this image, first carrying out any operations still
+   *  pending
+   *
+   *  @return the store holding the up to date pixels
+   */
+  private PixelStore pixels() {
+    replayChain();
+    applyPendingTable();
+    if (pendingOrientation != Orientation.IDENTITY) {
+      store = pendingOrientation.apply(store);
+      pendingOrientation = Orientation.IDENTITY;
+      pixelsMoved();
+    }
+    if (pendingShiftRows != 0 || pendingShiftCols != 0) {
+      store = new GeometricView(store, Orientation.IDENTITY, pendingShiftRows,
+                                pendingShiftCols).copy();
+      pendingShiftRows = 0;
+      pendingShiftCols = 0;
+      pixelsMoved();
+    }
+    return store;
+  }
+
+  /** Get the pixels of this image, first carrying out any operations still
+   *  pending other than flips, rotations and shifts, which are looked
+   *  through instead
+   *
+   *  @return the store holding the up to date pixels, or a view of it
+   */
+  private PixelStore view() {
+    replayChain();
+    applyPendingTable();
+    if (pendingOrientation == Orientation.IDENTITY && pendingShiftRows == 0
+        && pendingShiftCols == 0) {
+      return store;
+    }
+    return new GeometricView(store, pendingOrientation, pendingShiftRows,
+                             pendingShiftCols);
+  }
+
+  /** Get the values of the pixels of this image, which may not yet be where
+   *  they belong, first carrying out any operations still pending other
+   *  than flips, rotations and shifts.  This is all that is needed for
+   *  totals over the whole image.
+   *
+   *  @return the store holding the up to date values
+   */
+  private PixelStore unmovedPixels() {
+    replayChain();
+    applyPendingTable();
+    return store;
+  }
+
+  /** Record an operation that does not change the size of the image in
+   *  the chain to be carried out later, if it has to be
+   *
+   *  @param kind the kind of operation
+   *  @param operation the operation, to be carried out on this image
+   *  @return true if the operation was recorded, false if the caller must
+   *          go ahead with it now
+   */
+  private boolean record(OperationChain.Kind kind,
+                         Consumer<ProjectImage> operation) {
+    return record(kind, operation, 0, getWidth(), getHeight());
+  }
+
+  /** Record an operation in the chain to be carried out later, if it has
+   *  to be.  In deferred mode, halving and encrypting are always recorded,
+   *  and so is any operation that comes after them; other operations are
+   *  collected straight away when nothing is recorded ahead of them.
+   *
+   *  @param kind the kind of operation
+   *  @param operation the operation, to be carried out on this image
+   *  @param key the key used by an ENCRYPT or COUNTER_ENCRYPT operation -
+   *         ignored otherwise
+   *  @param width the width of the image after the operation
+   *  @param height the height of the image after the operation
+   *  @return true if the operation was recorded, false if the caller must
+   *          go ahead with it now
+   */
+  private boolean record(OperationChain.Kind kind,
+                         Consumer<ProjectImage> operation, int key,
+                         int width, int height) {
+    if (! deferred || replaying) {
+      return false;
+    }
+    if ((kind == OperationChain.Kind.POINT
+         || kind == OperationChain.Kind.GEOMETRIC) && chain.isEmpty()) {
+      return false;
+    }
+    chain.add(kind, operation, key, width, height);
+    return true;
+  }
+
+  /** Carry out the operations recorded in the chain.  Point operations,
+   *  flips, rotations and shifts among them are collected rather than
+   *  carried out.
+   */
+  private void replayChain() {
+    if (chain.isEmpty()) {
+      return;
+    }
+    replaying = true;
+    try {
+      chain.replay(this);
+    } finally {
+      replaying = false;
+    }
+  }
+
+  /** Apply any pending point operations to the pixels in store
+   */
+  private void applyPendingTable() {
+    if (pendingTable == null) {
+      return;
+    }
+    final int [] table = pendingTable;
+    pendingTable = null;
+
+    // A gray scale image kept one byte per pixel applies the table directly
+    // to its bytes, provided the new values still fit in a byte
+    if (! fitsBytes(table)) {
+      store = store.widen();
+    }
+    mapPixels(store, table, pendingOperation);
+    pendingOperation = null;
+    pendingOperationCount = 0;
+    pixelsMoved();
+
+    // The counts of the old values tell us the counts of the new ones
+    if (valueCounts != null) {
+      long [] newCounts = new long[MAX_BRIGHTNESS + 1];
+      for (int value = 0; value < table.length; value ++) {
+        if ((table[value] & ~MAX_BRIGHTNESS) == 0) {
+          newCounts[table[value]] += valueCounts[value];
+        } else if (valueCounts[value] != 0) {
+          newCounts = null;
+          valuesOutOfRange = true;
+          break;
+        }
+      }
+      valueCounts = newCounts;
+    }
+  }
+
+  /** Replace every pixel of a store by a function of its own value, working
+   *  on bands of rows in parallel
+   *
+   *  @param pixels the store to change, which must be able to hold the new
+   *         values
+   *  @param table the new value for each pixel value 0 .. 255
+   *  @param operation the function giving the new value of any other pixel
+   */
+  private static void mapPixels(final PixelStore pixels, final int [] table,
+                                final IntUnaryOperator operation) {
+    final byte [] byteTable = new byte[table.length];
+    for (int pixel = 0; pixel < table.length; pixel ++) {
+      byteTable[pixel] = (byte) table[pixel];
+    }
+    RowBands.run(pixels.getWidth(), pixels.getHeight(),
+                 (band, fromRow, toRow) -> {
+      if (pixels instanceof BytePixelStore) {
+        ((BytePixelStore) pixels).applyTable(byteTable, fromRow, toRow);
+        return;
+      }
+      pixels.updateRows(fromRow, toRow, (row, col, data, offset, length) -> {
+        for (int i = offset; i < offset + length; i ++) {
+          int pixel = data[i];
+          data[i] = (pixel & ~MAX_BRIGHTNESS) == 0 ? table[pixel]
+                                                  : operation.applyAsInt(pixel);
+        }
+      });
+    });
+  }
+
+  /** XOR a keystream into a rectangle of the up to date pixels, working on
+   *  bands of rows in parallel.  Each pixel gets the byte of the stream for
+   *  its position in the whole image.
+   *
+   *  @param keystream the keystream
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   */
+  private void applyKeystream(final CounterKeystream keystream,
+                              final int row, final int col, final int width,
+                              int height) {
+    final PixelStore pixels = pixels();
+    final int imageWidth = pixels.getWidth();
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      pixels.updateRows(row + fromRow, row + toRow,
+                        (runRow, runCol, data, offset, length) -> {
+        // Only the part of the run inside the rectangle is changed
+        int from = Math.max(runCol, col);
+        int to = Math.min(runCol + length, col + width);
+        if (from < to) {
+          keystream.apply((long) runRow * imageWidth + from, data,
+                          offset + from - runCol, to - from);
         }
+      });
+    });
+  }
+
+  /** Check whether every value in a table lies in the range 0 .. 255
+   *
+   *  @param table the table to check
+   *  @return true if a byte can hold each value
+   */
+  private static boolean fitsBytes(int [] table) {
+    for (int value: table) {
+      if ((value & ~MAX_BRIGHTNESS) != 0) {
+        return false;
+      }
     }
-  //Rotates the image to the right 45 degrees
-  public void rotate()
-    {
-        int spinningHeight = width;
-        int spinningWidth = height;
-        int [] [] spinningPixels = new int [spinningHeight] [spinningWidth];
-        for (int row = 0; row < height; row ++)
-            for (int col = 0; col < width; col ++)
-            {
-                spinningPixels[col][row] = pixels[height - 1 - row][col];
-            }
-        width = spinningWidth;
-        height = spinningHeight;
-        pixels = spinningPixels;
+    return true;
+  }
+
+  /** Bring a shift into the range 0 .. size - 1, shifting by size being
+   *  the same as not shifting at all
+   *
+   *  @param amount the shift
+   *  @param size the width or height shifted across
+   *  @return the same shift in range, or 0 for an empty image
+   */
+  private static int wrap(int amount, int size) {
+    return size == 0 ? 0 : Math.floorMod(amount, size);
+  }
+
+  /** Record that the values of the pixels in store have changed, other
+   *  than by being moved around
+   */
+  private void pixelsChanged() {
+    valueCounts = null;
+    valuesOutOfRange = false;
+    pixelsMoved();
+  }
+
+  /** Record that the values of the pixels in one rectangle of store have
+   *  changed.  Halved copies of the image are kept, other than the parts
+   *  made from the rectangle.
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   */
+  private void pixelsChanged(int row, int col, int width, int height) {
+    valueCounts = null;
+    valuesOutOfRange = false;
+    summedAreaTable = null;
+    pyramid.invalidate(row, col, width, height);
+  }
+
+  /** Record that the pixels in store have been moved around, which leaves
+   *  the number with each value as it was
+   */
+  private void pixelsMoved() {
+    summedAreaTable = null;
+    pyramid.clear();
+  }
+
+  /** Get the sums of the up to date pixels over rectangles, working them
+   *  out if they are not already known
+   *
+   *  @return the sums
+   */
+  private SummedAreaTable getSummedAreaTable() {
+    PixelStore pixels = pixels();
+    if (summedAreaTable == null) {
+      summedAreaTable = new SummedAreaTable(pixels);
+    }
+    return summedAreaTable;
+  }
+
+  /** Make sure a rectangle is a non-empty part of the image
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @exception IllegalArgumentException if it is not
+   */
+  private void checkRegion(int row, int col, int width, int height) {
+    if (row < 0 || col < 0 || width <= 0 || height <= 0
+        || row + height > getHeight() || col + width > getWidth()) {
+      throw new IllegalArgumentException("Region lies outside the image");
     }
+  }
+
+  /** Find out how many pixels in store have each value 0 .. 255.  The counts
+   *  are kept until the pixels change.
+   *
+   *  @return the counts, or null if some pixel is outside that range
+   */
+  private long [] getValueCounts() {
+    if (valueCounts != null || valuesOutOfRange) {
+      return valueCounts;
+    }
+    final PixelStore pixels = store;
+    final int bandRows = RowBands.bandRows();
+    final int bands = RowBands.bandCount(pixels.getHeight(), bandRows);
+    final int [] [] bandCounts = new int[bands][MAX_BRIGHTNESS + 1];
+    final boolean [] bandOutOfRange = new boolean[bands];
+    RowBands.run(pixels.getWidth(), pixels.getHeight(), bandRows,
+                 (band, fromRow, toRow) -> {
+      final int [] counts = bandCounts[band];
+      if (pixels instanceof BytePixelStore) {
+        ((BytePixelStore) pixels).countValues(counts, fromRow, toRow);
+        return;
+      }
+      pixels.scanRows(fromRow, toRow, (row, col, data, offset, length) -> {
+        for (int i = offset; i < offset + length; i ++) {
+          if ((data[i] & ~MAX_BRIGHTNESS) == 0) {
+            counts[data[i]] ++;
+          } else {
+            bandOutOfRange[band] = true;
+          }
+        }
+      });
+    });
+    long [] counts = new long[MAX_BRIGHTNESS + 1];
+    for (int band = 0; band < bands; band ++) {
+      if (bandOutOfRange[band]) {
+        valuesOutOfRange = true;
+        return null;
+      }
+      for (int value = 0; value < counts.length; value ++) {
+        counts[value] += bandCounts[band][value];
+      }
+    }
+    valueCounts = counts;
+    return counts;
+  }
+
   /** Keeps the pixel value below the MAX_BRIGHTNESS limit
    * 
    *  @param the pixel to be changed/kept
@@ -245,88 +1041,415 @@ public class ProjectImage
   }
   /** Takes all the pixels in a picture and calculates the average pixel value
    * 
-   *  @param pixels the 2D array of pixels; the picture
    *  @return the integer average pixel value
    */
-  private int getAvgPixelValue(int [][] pixels) {
-    int totalValue = 0, numOfPixels = 0;
-    for (int [] row: pixels) {
-      for (int pixel: row) {
-        totalValue += pixel;
-        numOfPixels++;
+  private int getAvgPixelValue() {
+    replayChain();
+    long pixelCount = (long) getWidth() * getHeight();
+
+    // Sums already worked out over rectangles give it straight away
+    if (summedAreaTable != null && pendingTable == null) {
+      return (int) (summedAreaTable.sum(0, 0, store.getWidth(),
+                                        store.getHeight()) / pixelCount);
+    }
+
+    // Usually this can be worked out from the counts of each value,
+    // without looking at the pixels
+    long [] counts = getValueCounts();
+    if (counts != null) {
+      long totalValue = 0;
+      for (int value = 0; value < counts.length; value ++) {
+        totalValue += counts[value]
+                      * (pendingTable == null ? value : pendingTable[value]);
       }
+      return (int) (totalValue / pixelCount);
+    }
+
+    final PixelStore pixels = unmovedPixels();
+    final int bandRows = RowBands.bandRows();
+    final long [] bandTotals =
+      new long[RowBands.bandCount(pixels.getHeight(), bandRows)];
+    RowBands.run(pixels.getWidth(), pixels.getHeight(), bandRows,
+                 (band, fromRow, toRow) -> {
+      pixels.scanRows(fromRow, toRow, (row, col, data, offset, length) -> {
+        long rowTotal = 0;
+        for (int i = offset; i < offset + length; i ++) {
+          rowTotal += data[i];
+        }
+        bandTotals[band] += rowTotal;
+      });
+    });
+    long totalValue = 0;
+    for (long bandTotal: bandTotals) {
+      totalValue += bandTotal;
     }
-    return totalValue / numOfPixels;
+    return (int) (totalValue / pixelCount);
   }
-  
-/*  
-//L SH Work on line 171, methods above. check negative button and encrypt/decrypt
-public void encryptDecrypt() {
-  int randomValue = (int) (Math.random() * MAX_BRIGHTNESS);
-  // Something about nextInt(MAX_BRIGHTNESS+1)
-  for (int row = 0; row < height; row++) {
-    for (int col = 0; col < width; col++) {
-      pixels[row][col] += randomValue;
+
+  /** Mirrors the image left to right.  Pending point operations are kept,
+   *  since this only moves pixels.
+   */
+  public void flipHorizontally() {
+    if (record(OperationChain.Kind.GEOMETRIC,
+               ProjectImage::flipHorizontally)) {
+      return;
     }
+    pendingShiftCols = wrap(- pendingShiftCols, getWidth());
+    pendingOrientation = pendingOrientation.thenFlipHorizontally();
   }
-}
-*/
 
-public void flipHorizontally() {
-  int [][] newPixels = new int [height][width];
-  for (int row = 0; row < height; row++) {
-    for (int col = 0; col < width; col++) {
-      newPixels[row][col] = pixels[row][width - col - 1];
+  /** Mirrors the image top to bottom.  Pending point operations are kept,
+   *  since this only moves pixels.
+   */
+  public void flipVertically() {
+    if (record(OperationChain.Kind.GEOMETRIC, ProjectImage::flipVertically)) {
+      return;
     }
+    pendingShiftRows = wrap(- pendingShiftRows, getHeight());
+    pendingOrientation = pendingOrientation.thenFlipVertically();
   }
-  pixels = newPixels;
-}
-public void flipVertically() {
-  int [][] newPixels = new int [height][width];
-  for (int row = 0; row < height; row++) {
-    for (int col = 0; col < width; col++) {
-      newPixels[row][col] = pixels[height - row - 1][col];
+
+  /** Shift the image to the right, cyclically: pixels pushed off the right
+   *  edge come back in at the left.  Pending point operations are kept,
+   *  since this only moves pixels.
+   *
+   *  @param amount the number of pixels to shift by - to the left if it is
+   *         negative
+   */
+  public void shiftHorizontally(int amount) {
+    if (record(OperationChain.Kind.GEOMETRIC,
+               image -> image.shiftHorizontally(amount))) {
+      return;
     }
+    pendingShiftCols = wrap(pendingShiftCols + wrap(amount, getWidth()),
+                            getWidth());
   }
-  pixels = newPixels;
 
-}
-public void rotate() {
-  int [][] newPixels = new int [width][height];
-  for (int row = 0; row < height; row++) {
-    for (int col = 0; col < width; col++) {
-      newPixels[row][col] = pixels[col][row];// Check syntax
-      // Regarding the [y][x] (?) format, which one is the height,
-      // and which one is the width?
+  /** Shift the image down, cyclically: pixels pushed off the bottom edge
+   *  come back in at the top.  Pending point operations are kept, since
+   *  this only moves pixels.
+   *
+   *  @param amount the number of pixels to shift by - up if it is negative
+   */
+  public void shiftVertically(int amount) {
+    if (record(OperationChain.Kind.GEOMETRIC,
+               image -> image.shiftVertically(amount))) {
+      return;
     }
+    pendingShiftRows = wrap(pendingShiftRows + wrap(amount, getHeight()),
+                            getHeight());
   }
-}
+
   /** Scale the image by a factor of 0.5 in each dimension
    */
   public void halve() {
-    // We need to build a new image in a separate array, and then make
-    // it our current image
-
-    int newWidth = width / 2;
-    int newHeight = height / 2;
-    int [] [] newPixels = new int [newHeight] [newWidth];
+    if (record(OperationChain.Kind.HALVE, ProjectImage::halve, 0,
+               getWidth() / 2, getHeight() / 2)) {
+      return;
+    }
 
     // Each pixel in the new image is an average of a 2 x 2 square of pixels
-    // in the original image
-
-    for (int row = 0; row < newHeight; row ++) {
-      for (int col = 0; col < newWidth; col ++) {
-        newPixels[row][col] = (pixels[2*row][2*col]
-                               + pixels[2*row+1][2*col]
-                               + pixels[2*row][2*col+1]
-                               + pixels[2*row+1][2*col+1])/4;
-      }
+    // in the original image.  The store builds the new image and we make it
+    // our current one
+    store = pixels().halve();
+    pixelsChanged();
+  }
+
+  /** Scale the image by a factor of 2 in each dimension, each pixel
+   *  becoming a 2 x 2 square of the same value
+   */
+  public void doubleSize() {
+    resize(2 * getWidth(), 2 * getHeight(), ResizeFilter.BOX);
+  }
+
+  /** Scale the image to any size.  Each new pixel is made up from the old
+   *  pixels around the point it comes from, weighted by a filter; when the
+   *  image shrinks, every old pixel is used, so fine detail is smoothed
+   *  away rather than breaking up into patterns.
+   *
+   *  @param newWidth the new width
+   *  @param newHeight the new height
+   *  @param filter the filter to weight the old pixels by
+   *  @exception IllegalArgumentException if either size is negative
+   */
+  public void resize(int newWidth, int newHeight, ResizeFilter filter) {
+    applyResampler(new Resampler(newWidth, newHeight, filter));
+  }
+
+  /** Find the level of the image pyramid to show the image from at a given
+   *  size: the smallest level that is still at least that size, so that
+   *  scaling it the rest of the way loses nothing.  Level 0 is the image
+   *  itself, level 1 half its size, level 2 a quarter and so on.  This is
+   *  for callers that show the image reduced; the editor's own canvas
+   *  always shows it at full size.
+   *
+   *  @param width the width the image is to be shown at
+   *  @param height the height the image is to be shown at
+   *  @return the level, or 0 if the image is no bigger than that size
+   */
+  public int nearestPyramidLevel(int width, int height) {
+    int levels = Pyramid.levelCount(getWidth(), getHeight());
+    int level = 0;
+    while (level + 1 < levels && getWidth() >> (level + 1) >= width
+           && getHeight() >> (level + 1) >= height) {
+      level ++;
+    }
+    return level;
+  }
+
+  /** Get one level of the image pyramid: the image halved in the same way
+   *  as halve(), as many times as the level.  Levels are kept once made,
+   *  so asking for one again costs only the copy until the pixels change.
+   *
+   *  @param level the level, 0 for the image itself
+   *  @return the pixels of the level, in the same form as getPixels()
+   *  @exception IllegalArgumentException if the image has no such level
+   */
+  public int [] [] getPyramidLevel(int level) {
+    return getPyramidStore(level).toArray();
+  }
+
+  /** Get the store holding one level of the image pyramid, for classes
+   *  that can work with it directly rather than through a copy.  The store
+   *  must not be changed.
+   *
+   *  @param level the level, 0 for the image itself
+   *  @return the store holding the level
+   *  @exception IllegalArgumentException if the image has no such level
+   */
+  PixelStore getPyramidStore(int level) {
+    return pyramid.getLevel(pixels(), level);
+  }
+
+  /** Apply a scaling that has been prepared for use
+   *
+   *  @param resampler the scaling
+   */
+  private void applyResampler(Resampler resampler) {
+    if (record(OperationChain.Kind.HALVE,
+               image -> image.applyResampler(resampler), 0,
+               resampler.getWidth(), resampler.getHeight())) {
+      return;
     }
+    store = resampler.apply(pixels());
+    pixelsChanged();
+  }
 
-    // Now replace the current image with the one we just created
-    width = newWidth;
-    height = newHeight;
-    pixels = newPixels;
+  /** Blur the image by a Gaussian.  The cost is the same however wide the
+   *  Gaussian is.
+   *
+   *  @param sigma the standard deviation of the Gaussian, in pixels - at
+   *         least 0.5
+   */
+  public void gaussianBlur(double sigma) {
+    applyGaussianBlur(new GaussianBlur(sigma));
+  }
+
+  /** Apply a Gaussian blur that has been prepared for use
+   *
+   *  @param blur the blur
+   */
+  private void applyGaussianBlur(GaussianBlur blur) {
+    if (record(OperationChain.Kind.FILTER,
+               image -> image.applyGaussianBlur(blur), 0, getWidth(),
+               getHeight())) {
+      return;
+    }
+    store = blur.apply(pixels());
+    pixelsChanged();
+  }
+
+  /** Replace each pixel by the smallest value in the rectangle of pixels
+   *  around it, thinning bright shapes and growing dark ones.  This, and
+   *  the other morphological operations, cost the same however big the
+   *  rectangle is.
+   *
+   *  @param horizontalRadius the number of pixels the rectangle reaches to
+   *         the left and right of the pixel
+   *  @param verticalRadius the number of pixels the rectangle reaches above
+   *         and below the pixel
+   */
+  public void erode(int horizontalRadius, int verticalRadius) {
+    applyMorphology(new Morphology(Morphology.Operation.ERODE,
+                                   horizontalRadius, verticalRadius));
+  }
+
+  /** Replace each pixel by the largest value in the rectangle of pixels
+   *  around it, growing bright shapes and thinning dark ones
+   *
+   *  @param horizontalRadius the number of pixels the rectangle reaches to
+   *         the left and right of the pixel
+   *  @param verticalRadius the number of pixels the rectangle reaches above
+   *         and below the pixel
+   */
+  public void dilate(int horizontalRadius, int verticalRadius) {
+    applyMorphology(new Morphology(Morphology.Operation.DILATE,
+                                   horizontalRadius, verticalRadius));
+  }
+
+  /** Erode and then dilate the image, removing bright details smaller than
+   *  the rectangle
+   *
+   *  @param horizontalRadius the number of pixels the rectangle reaches to
+   *         the left and right of the pixel
+   *  @param verticalRadius the number of pixels the rectangle reaches above
+   *         and below the pixel
+   */
+  public void open(int horizontalRadius, int verticalRadius) {
+    applyMorphology(new Morphology(Morphology.Operation.OPEN,
+                                   horizontalRadius, verticalRadius));
+  }
+
+  /** Dilate and then erode the image, filling in dark details smaller than
+   *  the rectangle
+   *
+   *  @param horizontalRadius the number of pixels the rectangle reaches to
+   *         the left and right of the pixel
+   *  @param verticalRadius the number of pixels the rectangle reaches above
+   *         and below the pixel
+   */
+  public void close(int horizontalRadius, int verticalRadius) {
+    applyMorphology(new Morphology(Morphology.Operation.CLOSE,
+                                   horizontalRadius, verticalRadius));
+  }
+
+  /** Apply a morphological operation that has been prepared for use
+   *
+   *  @param morphology the operation
+   */
+  private void applyMorphology(Morphology morphology) {
+    if (record(OperationChain.Kind.FILTER,
+               image -> image.applyMorphology(morphology), 0, getWidth(),
+               getHeight())) {
+      return;
+    }
+    store = morphology.apply(pixels());
+    pixelsChanged();
+  }
+
+  /** Replace each pixel by the median of the square of pixels around it,
+   *  which removes specks of noise while keeping edges sharp
+   *
+   *  @param radius the number of pixels the square reaches to each side of
+   *         the pixel
+   */
+  public void medianFilter(int radius) {
+    rankFilter(radius, 50);
+  }
+
+  /** Replace each pixel by the smallest value in the square of pixels
+   *  around it
+   *
+   *  @param radius the number of pixels the square reaches to each side of
+   *         the pixel
+   */
+  public void minimumFilter(int radius) {
+    rankFilter(radius, 0);
+  }
+
+  /** Replace each pixel by the largest value in the square of pixels
+   *  around it
+   *
+   *  @param radius the number of pixels the square reaches to each side of
+   *         the pixel
+   */
+  public void maximumFilter(int radius) {
+    rankFilter(radius, 100);
+  }
+
+  /** Replace each pixel by a percentile of the values in the square of
+   *  pixels around it.  Where the square reaches past the edge of the
+   *  image the nearest edge pixel is used instead.  The cost is the same
+   *  however big the square is, apart from a little for each row.
+   *
+   *  @param radius the number of pixels the square reaches to each side of
+   *         the pixel
+   *  @param percentile where the new value lies between the smallest in the
+   *         square (0) and the largest (100)
+   */
+  public void rankFilter(int radius, double percentile) {
+    applyRankFilter(new RankFilter(radius, percentile));
+  }
+
+  /** Apply a rank filter that has been prepared for use
+   *
+   *  @param filter the filter
+   */
+  private void applyRankFilter(RankFilter filter) {
+    if (record(OperationChain.Kind.FILTER,
+               image -> image.applyRankFilter(filter), 0, getWidth(),
+               getHeight())) {
+      return;
+    }
+    store = filter.apply(pixels());
+    pixelsChanged();
+  }
+
+  /** Replace each pixel by the mean of the square of pixels around it,
+   *  which is the same as applying a filter of equal weights, but costs the
+   *  same however big the square is
+   *
+   *  @param radius the number of pixels the square reaches to each side of
+   *         the pixel
+   */
+  public void boxBlur(int radius) {
+    SummedAreaTable.checkRadius(radius);
+    if (record(OperationChain.Kind.FILTER, image -> image.boxBlur(radius),
+               0, getWidth(), getHeight())) {
+      return;
+    }
+    PixelStore result = pixels().createResult(getWidth(), getHeight());
+    getSummedAreaTable().mean(radius, result);
+    store = result;
+    pixelsChanged();
+  }
+
+  /** Replace each pixel by the variance of the values in the square of
+   *  pixels around it, kept below 256.  This picks out texture and edges;
+   *  like boxBlur(), it costs the same however big the square is.
+   *
+   *  @param radius the number of pixels the square reaches to each side of
+   *         the pixel
+   */
+  public void localVariance(int radius) {
+    SummedAreaTable.checkRadius(radius);
+    if (record(OperationChain.Kind.FILTER,
+               image -> image.localVariance(radius), 0, getWidth(),
+               getHeight())) {
+      return;
+    }
+    PixelStore result = pixels().createResult(getWidth(), getHeight());
+    getSummedAreaTable().variance(radius, result);
+    store = result;
+    pixelsChanged();
+  }
+
+  /** Replace each pixel by a weighted sum of itself and its neighbours.
+   *  The filter is centered on the pixel, and where it reaches past the edge
+   *  of the image the nearest edge pixel is used instead.  Filters that are
+   *  (or are a sum of a few) products of a column and a row of weights are
+   *  applied as passes along the rows and down the columns, which is much
+   *  cheaper for large filters.
+   *
+   *  @param filter the weights - a rectangular array, applied with
+   *         filter[height / 2][width / 2] on the pixel itself
+   */
+  public void applyFilter(double [] [] filter) {
+    applyConvolution(new Convolution(filter));
+  }
+
+  /** Apply a filter that has been prepared for use
+   *
+   *  @param convolution the filter
+   */
+  private void applyConvolution(Convolution convolution) {
+    if (record(OperationChain.Kind.FILTER,
+               image -> image.applyConvolution(convolution), 0, getWidth(),
+               getHeight())) {
+      return;
+    }
+    store = convolution.apply(pixels());
+    pixelsChanged();
   }
 
   /* *************************************************************************
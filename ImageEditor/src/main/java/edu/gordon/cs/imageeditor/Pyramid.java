@@ -0,0 +1,181 @@
+/*
+ * Pyramid.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Copies of an image at half, a quarter, an eighth ... of its size, for
+ * previews.  Level 0 is the image itself, and each further level is the
+ * one before it halved in the same way as halve(), each of its pixels the
+ * average of a 2 x 2 square.  Levels are only made when they are first
+ * asked for, and are then kept.
+ *
+ * When only part of the image changes, only the pixels of each level that
+ * were averaged from that part are out of date.  Each level keeps the
+ * rectangle of its pixels that is out of date, and only that rectangle is
+ * worked out again when the level is next asked for, after the same has
+ * been done for the level before it.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class Pyramid
+{
+  // The size of the image the levels were made from
+  private int width;
+  private int height;
+
+  // The levels made so far, from level 1 on, and for each the rectangle of
+  // it that is out of date: rows dirtyTop[i] .. dirtyBottom[i] - 1 and
+  // columns dirtyLeft[i] .. dirtyRight[i] - 1 of levels.get(i).  An empty
+  // rectangle has dirtyTop[i] >= dirtyBottom[i]
+  private final List<PixelStore> levels = new ArrayList<PixelStore>();
+  private int [] dirtyTop = new int[0];
+  private int [] dirtyBottom = new int[0];
+  private int [] dirtyLeft = new int[0];
+  private int [] dirtyRight = new int[0];
+
+  /** Find out how many levels there are for an image, counting the image
+   *  itself.  Levels go on until halving would leave no pixels.
+   *
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @return the number of levels
+   */
+  static int levelCount(int width, int height) {
+    int count = 1;
+    while ((width >> count) > 0 && (height >> count) > 0) {
+      count ++;
+    }
+    return count;
+  }
+
+  /** Get one level of the pyramid for an image, making it or bringing it up
+   *  to date if need be
+   *
+   *  @param image the image, which is level 0
+   *  @param level the level wanted
+   *  @return the store holding the level, which must not be changed; it is
+   *          kept, and may be changed the next time a level is asked for
+   *  @exception IllegalArgumentException if there is no such level
+   */
+  PixelStore getLevel(PixelStore image, int level) {
+    if (level < 0 || level >= levelCount(image.getWidth(),
+                                         image.getHeight())) {
+      throw new IllegalArgumentException("Level out of range: " + level);
+    }
+    if (image.getWidth() != width || image.getHeight() != height) {
+      clear();
+      width = image.getWidth();
+      height = image.getHeight();
+    }
+    PixelStore previous = image;
+    for (int i = 0; i < level; i ++) {
+      if (i == levels.size()) {
+        levels.add(previous.halve());
+        growDirty(i + 1);
+      } else if (dirtyTop[i] < dirtyBottom[i]) {
+        rebuild(previous, levels.get(i), dirtyTop[i], dirtyBottom[i],
+                dirtyLeft[i], dirtyRight[i]);
+        dirtyBottom[i] = dirtyTop[i];
+      }
+      previous = levels.get(i);
+    }
+    return previous;
+  }
+
+  /** Record that part of the image has changed.  The levels made so far
+   *  are kept, and the part of each averaged from the change is worked out
+   *  again when it is next asked for.
+   *
+   *  @param row the top row of the rectangle that changed
+   *  @param col the left column of the rectangle that changed
+   *  @param regionWidth the number of columns in the rectangle
+   *  @param regionHeight the number of rows in the rectangle
+   */
+  void invalidate(int row, int col, int regionWidth, int regionHeight) {
+    int top = row;
+    int bottom = row + regionHeight;
+    int left = col;
+    int right = col + regionWidth;
+    for (int i = 0; i < levels.size() && top < bottom && left < right;
+         i ++) {
+      // A pixel of the next level is out of date if either of the rows or
+      // columns it was averaged from is
+      PixelStore store = levels.get(i);
+      top /= 2;
+      bottom = Math.min(store.getHeight(), (bottom + 1) / 2);
+      left /= 2;
+      right = Math.min(store.getWidth(), (right + 1) / 2);
+      if (dirtyTop[i] >= dirtyBottom[i]) {
+        dirtyTop[i] = top;
+        dirtyBottom[i] = bottom;
+        dirtyLeft[i] = left;
+        dirtyRight[i] = right;
+      } else {
+        dirtyTop[i] = Math.min(dirtyTop[i], top);
+        dirtyBottom[i] = Math.max(dirtyBottom[i], bottom);
+        dirtyLeft[i] = Math.min(dirtyLeft[i], left);
+        dirtyRight[i] = Math.max(dirtyRight[i], right);
+      }
+    }
+  }
+
+  /** Forget all the levels, when the whole image has changed
+   */
+  void clear() {
+    levels.clear();
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Make room to record the out of date rectangle of each level
+   *
+   *  @param count the number of levels made so far
+   */
+  private void growDirty(int count) {
+    if (dirtyTop.length < count) {
+      int length = Math.max(count, 2 * dirtyTop.length);
+      dirtyTop = Arrays.copyOf(dirtyTop, length);
+      dirtyBottom = Arrays.copyOf(dirtyBottom, length);
+      dirtyLeft = Arrays.copyOf(dirtyLeft, length);
+      dirtyRight = Arrays.copyOf(dirtyRight, length);
+    }
+    dirtyBottom[count - 1] = dirtyTop[count - 1];
+  }
+
+  /** Work out a rectangle of a level again from the level before it, a
+   *  band of rows at a time
+   *
+   *  @param previous the level before
+   *  @param level the level to bring up to date
+   *  @param top the top row of the rectangle
+   *  @param bottom one past the bottom row of the rectangle
+   *  @param left the left column of the rectangle
+   *  @param right one past the right column of the rectangle
+   */
+  private static void rebuild(final PixelStore previous,
+                              final PixelStore level, final int top,
+                              int bottom, final int left, final int right) {
+    final PixelKernels kernels = PixelKernels.get();
+    RowBands.run(right - left, bottom - top, (band, fromRow, toRow) -> {
+      int [] upper = new int[previous.getWidth()];
+      int [] lower = new int[previous.getWidth()];
+      int [] newRow = new int[level.getWidth()];
+      for (int row = top + fromRow; row < top + toRow; row ++) {
+        previous.readRow(2 * row, upper, 0);
+        previous.readRow(2 * row + 1, lower, 0);
+        level.readRow(row, newRow, 0);
+        kernels.averageSquares(upper, 2 * left, lower, 2 * left, newRow,
+                               left, right - left);
+        level.writeRow(row, newRow, 0);
+      }
+    });
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * RankFilter.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Replaces each pixel by the value of a given rank among the square window
+ * of pixels around it: the smallest, the largest, the median or any
+ * percentile in between.  Where the window reaches past the edge of the
+ * image the nearest edge pixel is used instead, as when applying a filter.
+ *
+ * Rather than sorting each window, the method of Perreault and Hebert
+ * keeps a histogram of the 256 gray values for each column of the window
+ * height, and one for the whole window.  Moving down a row changes each
+ * column histogram by one pixel out and one in; moving along a row changes
+ * the window histogram by one column histogram out and one in.  The value
+ * of the wanted rank is found by counting through the histogram, first by
+ * groups of 16 values and then within one group.  None of this depends on
+ * the size of the window, except for filling in the histograms at the
+ * start of each row and of each band of rows.
+ *
+ * Values outside the range 0 .. 255 are taken to be the nearest end of it.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.Arrays;
+
+final class RankFilter
+{
+  // Largest radius of window allowed, which keeps the counts in an int
+  static final int MAX_RADIUS = 1 << 14;
+
+  // Number of gray values, and of the groups of them counted together
+  private static final int VALUES = PixelKernels.MAX_VALUE + 1;
+  private static final int GROUP_BITS = 4;
+  private static final int GROUPS = VALUES >> GROUP_BITS;
+
+  // Bands should be several windows high, so that filling in the column
+  // histograms at the start of each band costs little
+  private static final int WINDOWS_PER_BAND = 4;
+
+  // Size of the window, and the rank of the value wanted in it
+  private final int radius;
+  private final int rank;
+
+  /** Constructor
+   *
+   *  @param radius the number of pixels the window reaches to each side
+   *  @param percentile where the value wanted lies between the smallest in
+   *         the window (0) and the largest (100); 50 gives the median
+   *  @exception IllegalArgumentException if the radius is negative or more
+   *             than MAX_RADIUS, or the percentile is not in 0 .. 100
+   */
+  RankFilter(int radius, double percentile) {
+    if (radius < 0 || radius > MAX_RADIUS) {
+      throw new IllegalArgumentException("Radius out of range: " + radius);
+    }
+    if (! (percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("Percentile out of range: "
+                                         + percentile);
+    }
+    this.radius = radius;
+    int size = 2 * radius + 1;
+    rank = (int) Math.round(percentile / 100 * ((double) size * size - 1));
+  }
+
+  /** Filter an image.  The image is worked on in bands of rows, several
+   *  at a time.
+   *
+   *  @param source the image to filter, which is not changed
+   *  @return a new store of the same kind holding the filtered image
+   */
+  PixelStore apply(final PixelStore source) {
+    final PixelStore result =
+      source.createResult(source.getWidth(), source.getHeight());
+    if (source.getWidth() == 0 || source.getHeight() == 0) {
+      return result;
+    }
+    int windowRows = 2 * radius + 1;
+    int bandRows = windowRows * WINDOWS_PER_BAND > RowBands.DEFAULT_BAND_ROWS
+      ? windowRows * WINDOWS_PER_BAND : 0;
+    RowBands.run(source.getWidth(), source.getHeight(), bandRows,
+                 (band, fromRow, toRow) -> {
+      filterBand(source, result, fromRow, toRow);
+    });
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Filter one band of rows
+   *
+   *  @param source the image being filtered
+   *  @param result the store to put the new pixels in
+   *  @param fromRow the first row of the band
+   *  @param toRow one past the last row of the band
+   */
+  private void filterBand(PixelStore source, PixelStore result, int fromRow,
+                          int toRow) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+
+    // The histograms of the columns, one after the other, each in counts of
+    // single values and of groups
+    int [] columnCounts = new int[Math.multiplyExact(width, VALUES)];
+    int [] columnGroups = new int[width * GROUPS];
+    int [] counts = new int[VALUES];
+    int [] groups = new int[GROUPS];
+    int [] values = new int[width];
+
+    for (int i = - radius; i <= radius; i ++) {
+      source.readRow(clamp(fromRow + i, height), values, 0);
+      countRow(values, columnCounts, columnGroups, 1);
+    }
+
+    for (int row = fromRow; row < toRow; row ++) {
+      if (row > fromRow) {
+        source.readRow(clamp(row - radius - 1, height), values, 0);
+        countRow(values, columnCounts, columnGroups, -1);
+        source.readRow(clamp(row + radius, height), values, 0);
+        countRow(values, columnCounts, columnGroups, 1);
+      }
+
+      // Fill in the window at the start of the row, then move it along
+      Arrays.fill(counts, 0);
+      Arrays.fill(groups, 0);
+      for (int j = - radius; j <= radius; j ++) {
+        addColumn(clamp(j, width), columnCounts, columnGroups, counts,
+                  groups, 1);
+      }
+      for (int col = 0; col < width; col ++) {
+        values[col] = find(counts, groups);
+        int leaving = clamp(col - radius, width);
+        int entering = clamp(col + radius + 1, width);
+        if (leaving != entering && col + 1 < width) {
+          addColumn(leaving, columnCounts, columnGroups, counts, groups, -1);
+          addColumn(entering, columnCounts, columnGroups, counts, groups, 1);
+        }
+      }
+      result.writeRow(row, values, 0);
+    }
+  }
+
+  /** Add one row of pixels to the column histograms, or take it away
+   *
+   *  @param values the pixels of the row
+   *  @param columnCounts the counts of single values for each column
+   *  @param columnGroups the counts of groups of values for each column
+   *  @param change 1 to add the row, or -1 to take it away
+   */
+  private static void countRow(int [] values, int [] columnCounts,
+                               int [] columnGroups, int change) {
+    for (int col = 0; col < values.length; col ++) {
+      int value = Math.max(PixelKernels.MIN_VALUE,
+                           Math.min(PixelKernels.MAX_VALUE, values[col]));
+      columnCounts[col * VALUES + value] += change;
+      columnGroups[col * GROUPS + (value >> GROUP_BITS)] += change;
+    }
+  }
+
+  /** Add the histogram of one column to that of the window, or take it away
+   *
+   *  @param col the column
+   *  @param columnCounts the counts of single values for each column
+   *  @param columnGroups the counts of groups of values for each column
+   *  @param counts the counts of single values in the window
+   *  @param groups the counts of groups of values in the window
+   *  @param change 1 to add the column, or -1 to take it away
+   */
+  private static void addColumn(int col, int [] columnCounts,
+                                int [] columnGroups, int [] counts,
+                                int [] groups, int change) {
+    int start = col * VALUES;
+    for (int value = 0; value < VALUES; value ++) {
+      counts[value] += change * columnCounts[start + value];
+    }
+    start = col * GROUPS;
+    for (int group = 0; group < GROUPS; group ++) {
+      groups[group] += change * columnGroups[start + group];
+    }
+  }
+
+  /** Find the value of the wanted rank in the window
+   *
+   *  @param counts the counts of single values in the window
+   *  @param groups the counts of groups of values in the window
+   *  @return the value
+   */
+  private int find(int [] counts, int [] groups) {
+    int below = 0;
+    int group = 0;
+    while (below + groups[group] <= rank) {
+      below += groups[group];
+      group ++;
+    }
+    int value = group << GROUP_BITS;
+    while (below + counts[value] <= rank) {
+      below += counts[value];
+      value ++;
+    }
+    return value;
+  }
+
+  /** Keep a row or column number inside the image
+   *
+   *  @param position the row or column number
+   *  @param size the number of rows or columns
+   *  @return the nearest row or column number inside the image
+   */
+  private static int clamp(int position, int size) {
+    return Math.max(0, Math.min(size - 1, position));
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * RawImageFile.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The program's own image format, for saving intermediate results: a short
+ * header, then the pixels exactly as a MappedPixelStore lays them out.  An
+ * image is opened by mapping its pixels where they lie in the file, so
+ * opening costs nothing however big the image is, and the image works on
+ * the mapped pixels directly.  Changes are kept out of the file.  The
+ * checksums, if the file has them, are only checked when that is asked
+ * for, since checking means reading every pixel.
+ *
+ * The header (all values little endian) holds
+ *
+ *      MAGIC                       8 bytes
+ *      version                     int, VERSION
+ *      width, height               ints
+ *      color model                 int, GRAY or RGB
+ *      bytes per pixel             int, 1 or 4
+ *      rows per tile               int, 0 if there are no checksums
+ *      position of the pixels      long
+ *      CRC32 of the above          int
+ *
+ * followed by the CRC32 of each tile, if there are checksums.  A tile is a
+ * band of whole rows, so that it is one run of bytes in the file.  The
+ * pixels start at the next multiple of PAGE_SIZE, so the mapping of them
+ * is page aligned.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+final class RawImageFile
+{
+  // The first bytes of every file
+  static final byte [] MAGIC =
+    "IEPIXELS".getBytes(StandardCharsets.US_ASCII);
+
+  // The version of the format written
+  static final int VERSION = 1;
+
+  // The usual extension of a file name
+  static final String EXTENSION = "pixels";
+
+  // Color models
+  static final int GRAY = 0;
+  static final int RGB = 1;
+
+  // Size of the header, before the tile checksums
+  private static final int HEADER_SIZE = 44;
+
+  // Boundary the pixels are aligned to
+  private static final int PAGE_SIZE = 4096;
+
+  // About how many bytes of pixels each checksum covers
+  private static final int TILE_BYTES = 1 << 20;
+
+  private final ColorModel colorModel;
+  private final MappedPixelStore store;
+
+  /** Constructor
+   *
+   *  @param colorModel the color model of the image
+   *  @param store the pixels of the image
+   */
+  private RawImageFile(ColorModel colorModel, MappedPixelStore store) {
+    this.colorModel = colorModel;
+    this.store = store;
+  }
+
+  /** Check whether a file is in this format, from its first bytes
+   *
+   *  @param file the file to check
+   *  @return true if it starts with MAGIC
+   *  @exception IOException if the file cannot be read
+   */
+  static boolean isRawFile(File file) throws IOException {
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      byte [] start = new byte[MAGIC.length];
+      return input.length() >= MAGIC.length
+             && input.read(start) == start.length
+             && Arrays.equals(start, MAGIC);
+    }
+  }
+
+  /** Open an image file, mapping its pixels.  If the file has checksums
+   *  and they are to be checked, every tile is checked against its own,
+   *  which means reading the whole file once; otherwise the pixels are not
+   *  read.
+   *
+   *  @param file the file to open
+   *  @param verify true to check the checksums, if the file has them
+   *  @return the opened file
+   *  @exception IOException if the file cannot be read, is not in this
+   *             format, or does not match its checksums
+   */
+  static RawImageFile open(File file, boolean verify) throws IOException {
+    // A private mapping needs the file open for writing, although nothing
+    // is written to it
+    boolean writable = file.canWrite();
+    try (RandomAccessFile input =
+           new RandomAccessFile(file, writable ? "rw" : "r")) {
+      FileChannel channel = input.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header, 0);
+      byte [] magic = new byte[MAGIC.length];
+      header.get(magic);
+      if (! Arrays.equals(magic, MAGIC)) {
+        throw new IOException(file
+                              + ": not an image in the program's format");
+      }
+      CRC32 crc = new CRC32();
+      crc.update(header.array(), 0, HEADER_SIZE - Integer.BYTES);
+      if (header.getInt(HEADER_SIZE - Integer.BYTES)
+          != (int) crc.getValue()) {
+        throw new IOException(file + ": header damaged - CRC does not match");
+      }
+      int version = header.getInt();
+      int width = header.getInt();
+      int height = header.getInt();
+      int model = header.getInt();
+      int bytesPerPixel = header.getInt();
+      int tileRows = header.getInt();
+      long position = header.getLong();
+      if (version != VERSION) {
+        throw new IOException(file + ": unsupported version " + version);
+      }
+      if (width < 0 || height < 0 || (model != GRAY && model != RGB)
+          || (bytesPerPixel != 1 && bytesPerPixel != Integer.BYTES)
+          || tileRows < 0 || position < HEADER_SIZE
+          + (long) tileCount(height, tileRows) * Integer.BYTES
+          || position + (long) width * height * bytesPerPixel
+             > channel.size()) {
+        throw new IOException(file + ": header is not valid");
+      }
+
+      MappedPixelStore store =
+        new MappedPixelStore(channel, position, width, height, bytesPerPixel,
+                             writable ? FileChannel.MapMode.PRIVATE
+                                      : FileChannel.MapMode.READ_ONLY);
+      if (verify && tileRows > 0) {
+        ByteBuffer checksums =
+          ByteBuffer.allocate(tileCount(height, tileRows) * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, checksums, HEADER_SIZE);
+        for (int row = 0; row < height; row += tileRows) {
+          crc.reset();
+          store.updateChecksum(crc, row, Math.min(height, row + tileRows));
+          if (checksums.getInt() != (int) crc.getValue()) {
+            throw new IOException(file + ": pixels damaged in rows " + row
+                                  + " .. " + (Math.min(height, row + tileRows)
+                                              - 1));
+          }
+        }
+      }
+
+      // The pixels of a file that cannot be written are copied into a
+      // scratch file, where the image can change them
+      if (! writable) {
+        store = MappedPixelStore.copyOf(store, bytesPerPixel);
+      }
+      return new RawImageFile(model == GRAY ? new GrayScaleColorModel()
+                                            : ColorModel.getRGBdefault(),
+                              store);
+    }
+  }
+
+  /** Save an image in this format.  The file is written under another name
+   *  and then renamed, so that an image still mapped from the file being
+   *  replaced is not disturbed.
+   *
+   *  @param file the file to write
+   *  @param colorModel the color model of the image
+   *  @param pixels the pixels of the image, which are not changed
+   *  @param checksums true to store a checksum of each tile
+   *  @exception IOException if the file cannot be written
+   */
+  static void write(File file, ColorModel colorModel, PixelStore pixels,
+                    boolean checksums) throws IOException {
+    int width = pixels.getWidth();
+    int height = pixels.getHeight();
+    boolean gray = colorModel instanceof GrayScaleColorModel;
+    int bytesPerPixel = gray && fitsInBytes(pixels) ? 1 : Integer.BYTES;
+    int rowBytes = Math.max(1, width * bytesPerPixel);
+    int tileRows = checksums ? Math.max(1, TILE_BYTES / rowBytes) : 0;
+    long position = HEADER_SIZE
+                    + (long) tileCount(height, tileRows) * Integer.BYTES;
+    position = (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    File temporary = File.createTempFile("imageeditor", "." + EXTENSION,
+                                         directory);
+    try {
+      try (RandomAccessFile output = new RandomAccessFile(temporary, "rw")) {
+        FileChannel channel = output.getChannel();
+        output.setLength(position + (long) width * height * bytesPerPixel);
+        MappedPixelStore store =
+          new MappedPixelStore(channel, position, width, height,
+                               bytesPerPixel, FileChannel.MapMode.READ_WRITE);
+        int [] buffer = new int[width];
+        for (int row = 0; row < height; row ++) {
+          pixels.readRow(row, buffer, 0);
+          store.writeRow(row, buffer, 0);
+        }
+        store.force();
+
+        ByteBuffer header =
+          ByteBuffer.allocate((int) position).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(gray ? GRAY : RGB);
+        header.putInt(bytesPerPixel);
+        header.putInt(tileRows);
+        header.putLong(position);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue());
+        for (int row = 0; row < height && checksums; row += tileRows) {
+          crc.reset();
+          store.updateChecksum(crc, row, Math.min(height, row + tileRows));
+          header.putInt((int) crc.getValue());
+        }
+        header.clear();
+        while (header.hasRemaining()) {
+          channel.write(header, header.position());
+        }
+      }
+      Files.move(temporary.toPath(), file.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      temporary.delete();
+    }
+  }
+
+  /** Get the color model of the image
+   *
+   *  @return a GrayScaleColorModel, or the default RGB color model
+   */
+  ColorModel getColorModel() {
+    return colorModel;
+  }
+
+  /** Get the pixels of the image, mapped from the file - or from a copy of
+   *  it, if it cannot be written.  Changes to them are not written to the
+   *  file.
+   *
+   *  @return the store holding the pixels
+   */
+  MappedPixelStore getStore() {
+    return store;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Find the number of tiles an image is cut into for checksums
+   *
+   *  @param height the height of the image
+   *  @param tileRows the number of rows in each tile, or 0 for none
+   *  @return the number of tiles
+   */
+  private static int tileCount(int height, int tileRows) {
+    return tileRows == 0 ? 0 : (height + tileRows - 1) / tileRows;
+  }
+
+  /** Check whether the pixels of an image can be saved one byte each,
+   *  without looking at them when the store already holds them that way
+   *
+   *  @param pixels the pixels to check
+   *  @return true if they all lie in the range 0 .. 255
+   */
+  private static boolean fitsInBytes(PixelStore pixels) {
+    return (pixels instanceof MappedPixelStore
+            && ((MappedPixelStore) pixels).getBytesPerPixel() == 1)
+           || BytePixelStore.canHold(pixels);
+  }
+
+  /** Fill a buffer from a file, then make it ready to be read
+   *
+   *  @param channel the file
+   *  @param buffer the buffer
+   *  @param position the position in the file to read from
+   *  @exception IOException if the file cannot be read, or ends too soon
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buffer,
+                                long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("File ends too soon");
+      }
+    }
+    buffer.flip();
+  }
+}
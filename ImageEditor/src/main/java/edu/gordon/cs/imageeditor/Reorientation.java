@@ -0,0 +1,328 @@
+/*
+ * Reorientation.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Moves the pixels of an image held in an array into a new orientation:
+ * a quarter turn either way, a half turn, or a flip.
+ *
+ * A quarter turn reads the image along its rows and writes it down the
+ * columns, or the other way round.  Done a whole row at a time, nearly
+ * every pixel written is on a different cache line from the last, and
+ * those lines are long gone by the time the next row comes to them.  So
+ * the image is instead moved in square blocks small enough that the block
+ * read and the block written both stay in cache.  A square image is
+ * turned in place: each pixel in the top left quarter, together with the
+ * three that a turn takes it to, forms a cycle of four, which is moved
+ * round with one spare value.  Half turns and flips swap pixels in pairs,
+ * also in place.
+ *
+ * Each operation is split into bands that run in parallel.  Every pixel is
+ * moved by exactly one band, though not always one in the band's own rows.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class Reorientation
+{
+  // Side of the square blocks pixels are moved in.  A block of ints read
+  // and one written together take 32K, within the first level cache of
+  // most processors
+  static final int BLOCK_SIZE = 64;
+
+  /** Class is not meant to be instantiated
+   */
+  private Reorientation() {
+  }
+
+  /** Copy an image into another array, turned a quarter turn
+   *
+   *  @param src the array holding the image
+   *  @param srcOffset the position in src of pixel (0, 0)
+   *  @param srcStride the distance in src from one row to the next
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   *  @param dest the array to put the turned image in, which is height
+   *         pixels wide and width pixels high
+   *  @param destOffset the position in dest of pixel (0, 0)
+   *  @param destStride the distance in dest from one row to the next
+   */
+  static void turn(final int [] src, int srcOffset, int srcStride,
+                   int width, int height, boolean clockwise,
+                   final int [] dest, final int destOffset,
+                   final int destStride) {
+    // Pixel (r, c) of the turned image is src[start + r * rowStep
+    // + c * colStep]
+    final int start = clockwise ? srcOffset + (height - 1) * srcStride
+                                : srcOffset + width - 1;
+    final int rowStep = clockwise ? 1 : -1;
+    final int colStep = clockwise ? - srcStride : srcStride;
+    final int newWidth = height;
+    RowBands.run(newWidth, width, BLOCK_SIZE, (band, fromRow, toRow) -> {
+      for (int fromCol = 0; fromCol < newWidth; fromCol += BLOCK_SIZE) {
+        int toCol = Math.min(newWidth, fromCol + BLOCK_SIZE);
+        for (int row = fromRow; row < toRow; row ++) {
+          int source = start + row * rowStep + fromCol * colStep;
+          int target = destOffset + row * destStride + fromCol;
+          for (int col = fromCol; col < toCol; col ++) {
+            dest[target ++] = src[source];
+            source += colStep;
+          }
+        }
+      }
+    });
+  }
+
+  /** Copy an image of bytes into another array, turned a quarter turn
+   *
+   *  @param src the array holding the image, in row-major order
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   *  @param dest the array to put the turned image in, in row-major order
+   */
+  static void turn(final byte [] src, int width, int height,
+                   boolean clockwise, final byte [] dest) {
+    final int start = clockwise ? (height - 1) * width : width - 1;
+    final int rowStep = clockwise ? 1 : -1;
+    final int colStep = clockwise ? - width : width;
+    final int newWidth = height;
+    RowBands.run(newWidth, width, BLOCK_SIZE, (band, fromRow, toRow) -> {
+      for (int fromCol = 0; fromCol < newWidth; fromCol += BLOCK_SIZE) {
+        int toCol = Math.min(newWidth, fromCol + BLOCK_SIZE);
+        for (int row = fromRow; row < toRow; row ++) {
+          int source = start + row * rowStep + fromCol * colStep;
+          int target = row * newWidth + fromCol;
+          for (int col = fromCol; col < toCol; col ++) {
+            dest[target ++] = src[source];
+            source += colStep;
+          }
+        }
+      }
+    });
+  }
+
+  /** Turn a square image a quarter turn in place.  Each band takes some
+   *  rows of the top left quarter, along with the columns and rows their
+   *  cycles of four lead to.
+   *
+   *  @param data the array holding the image
+   *  @param offset the position in data of pixel (0, 0)
+   *  @param stride the distance in data from one row to the next
+   *  @param size the width and height of the image
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   */
+  static void turnSquare(final int [] data, final int offset,
+                         final int stride, final int size,
+                         final boolean clockwise) {
+    // Pixel (i, j) of the quarter, with i < size / 2 and j < (size + 1) / 2,
+    // goes round with (size - 1 - j, i), (size - 1 - i, size - 1 - j) and
+    // (j, size - 1 - i); for an odd size the middle pixel stays put
+    final int across = (size + 1) / 2;
+    RowBands.run(size, size / 2, BLOCK_SIZE, (band, fromRow, toRow) -> {
+      for (int fromCol = 0; fromCol < across; fromCol += BLOCK_SIZE) {
+        int toCol = Math.min(across, fromCol + BLOCK_SIZE);
+        for (int i = fromRow; i < toRow; i ++) {
+          for (int j = fromCol; j < toCol; j ++) {
+            int a = offset + i * stride + j;
+            int b = offset + (size - 1 - j) * stride + i;
+            int c = offset + (size - 1 - i) * stride + size - 1 - j;
+            int d = offset + j * stride + size - 1 - i;
+            int temp = data[a];
+            if (clockwise) {
+              data[a] = data[b];
+              data[b] = data[c];
+              data[c] = data[d];
+              data[d] = temp;
+            } else {
+              data[a] = data[d];
+              data[d] = data[c];
+              data[c] = data[b];
+              data[b] = temp;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /** Turn a square image of bytes a quarter turn in place, in the same way
+   *  as turnSquare() for ints
+   *
+   *  @param data the array holding the image, in row-major order
+   *  @param size the width and height of the image
+   *  @param clockwise true to turn clockwise, false to turn anticlockwise
+   */
+  static void turnSquare(final byte [] data, final int size,
+                         final boolean clockwise) {
+    final int across = (size + 1) / 2;
+    RowBands.run(size, size / 2, BLOCK_SIZE, (band, fromRow, toRow) -> {
+      for (int fromCol = 0; fromCol < across; fromCol += BLOCK_SIZE) {
+        int toCol = Math.min(across, fromCol + BLOCK_SIZE);
+        for (int i = fromRow; i < toRow; i ++) {
+          for (int j = fromCol; j < toCol; j ++) {
+            int a = i * size + j;
+            int b = (size - 1 - j) * size + i;
+            int c = (size - 1 - i) * size + size - 1 - j;
+            int d = j * size + size - 1 - i;
+            byte temp = data[a];
+            if (clockwise) {
+              data[a] = data[b];
+              data[b] = data[c];
+              data[c] = data[d];
+              data[d] = temp;
+            } else {
+              data[a] = data[d];
+              data[d] = data[c];
+              data[c] = data[b];
+              data[b] = temp;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /** Turn an image a half turn in place.  Each band takes some rows of the
+   *  top half and swaps them, reversed, with the matching rows of the
+   *  bottom half.
+   *
+   *  @param data the array holding the image
+   *  @param offset the position in data of pixel (0, 0)
+   *  @param stride the distance in data from one row to the next
+   *  @param width the width of the image
+   *  @param height the height of the image
+   */
+  static void halfTurn(final int [] data, final int offset, final int stride,
+                       final int width, final int height) {
+    RowBands.run(width, (height + 1) / 2, (band, fromRow, toRow) -> {
+      for (int row = fromRow; row < toRow; row ++) {
+        int top = offset + row * stride;
+        int bottom = offset + (height - 1 - row) * stride + width - 1;
+
+        // The middle row of an odd height is swapped with itself
+        int count = top + width - 1 == bottom ? width / 2 : width;
+        for (int i = 0; i < count; i ++) {
+          int temp = data[top + i];
+          data[top + i] = data[bottom - i];
+          data[bottom - i] = temp;
+        }
+      }
+    });
+  }
+
+  /** Turn an image of bytes a half turn in place, in the same way as
+   *  halfTurn() for ints
+   *
+   *  @param data the array holding the image, in row-major order
+   *  @param width the width of the image
+   *  @param height the height of the image
+   */
+  static void halfTurn(final byte [] data, final int width,
+                       final int height) {
+    RowBands.run(width, (height + 1) / 2, (band, fromRow, toRow) -> {
+      for (int row = fromRow; row < toRow; row ++) {
+        int top = row * width;
+        int bottom = (height - 1 - row) * width + width - 1;
+        int count = top + width - 1 == bottom ? width / 2 : width;
+        for (int i = 0; i < count; i ++) {
+          byte temp = data[top + i];
+          data[top + i] = data[bottom - i];
+          data[bottom - i] = temp;
+        }
+      }
+    });
+  }
+
+  /** Mirror an image left to right in place
+   *
+   *  @param data the array holding the image
+   *  @param offset the position in data of pixel (0, 0)
+   *  @param stride the distance in data from one row to the next
+   *  @param width the width of the image
+   *  @param height the height of the image
+   */
+  static void flipHorizontally(final int [] data, final int offset,
+                               final int stride, final int width,
+                               final int height) {
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      for (int row = fromRow; row < toRow; row ++) {
+        for (int left = offset + row * stride, right = left + width - 1;
+             left < right; left ++, right --) {
+          int temp = data[left];
+          data[left] = data[right];
+          data[right] = temp;
+        }
+      }
+    });
+  }
+
+  /** Mirror an image of bytes left to right in place
+   *
+   *  @param data the array holding the image, in row-major order
+   *  @param width the width of the image
+   *  @param height the height of the image
+   */
+  static void flipHorizontally(final byte [] data, final int width,
+                               final int height) {
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      for (int row = fromRow; row < toRow; row ++) {
+        for (int left = row * width, right = left + width - 1; left < right;
+             left ++, right --) {
+          byte temp = data[left];
+          data[left] = data[right];
+          data[right] = temp;
+        }
+      }
+    });
+  }
+
+  /** Mirror an image top to bottom in place.  Each band takes some rows of
+   *  the top half and swaps them with the matching rows of the bottom half.
+   *
+   *  @param data the array holding the image
+   *  @param offset the position in data of pixel (0, 0)
+   *  @param stride the distance in data from one row to the next
+   *  @param width the width of the image
+   *  @param height the height of the image
+   */
+  static void flipVertically(final int [] data, final int offset,
+                             final int stride, final int width,
+                             final int height) {
+    RowBands.run(width, height / 2, (band, fromRow, toRow) -> {
+      for (int row = fromRow; row < toRow; row ++) {
+        int top = offset + row * stride;
+        int bottom = offset + (height - 1 - row) * stride;
+        for (int i = 0; i < width; i ++) {
+          int temp = data[top + i];
+          data[top + i] = data[bottom + i];
+          data[bottom + i] = temp;
+        }
+      }
+    });
+  }
+
+  /** Mirror an image of bytes top to bottom in place, in the same way as
+   *  flipVertically() for ints
+   *
+   *  @param data the array holding the image, in row-major order
+   *  @param width the width of the image
+   *  @param height the height of the image
+   */
+  static void flipVertically(final byte [] data, final int width,
+                             final int height) {
+    RowBands.run(width, height / 2, (band, fromRow, toRow) -> {
+      for (int row = fromRow; row < toRow; row ++) {
+        int top = row * width;
+        int bottom = (height - 1 - row) * width;
+        for (int i = 0; i < width; i ++) {
+          byte temp = data[top + i];
+          data[top + i] = data[bottom + i];
+          data[bottom + i] = temp;
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Resampler.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Scales an image to any new width and height.  Each new pixel is a
+ * weighted sum of the old pixels near the point it comes from, the weights
+ * being given by a filter centered on that point.  The filters used are
+ * all separable, so the image is scaled along its rows first and then down
+ * its columns, each pass only looking along one line at a time.
+ *
+ * Which old pixels make up a new one, and their weights, depend only on
+ * where the new pixel lies along its line, so they are worked out once for
+ * each new column and each new row, and used for every line.  When the
+ * image shrinks, the filter is stretched by the same amount, so that every
+ * old pixel plays its part in the new ones rather than being skipped over;
+ * this keeps fine detail from turning into aliasing patterns.  Past the
+ * ends of a line, the value at the end is taken to go on for ever, in the
+ * same way as filters replicate the edge pixels.  Rows are worked on in
+ * bands several at a time.  Each band keeps as floats only the old rows,
+ * scaled along, that its next new row is made up from, so the values
+ * between the passes never take more than a few rows.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.Arrays;
+
+final class Resampler
+{
+  private final int newWidth;
+  private final int newHeight;
+  private final ResizeFilter filter;
+
+  /** Constructor
+   *
+   *  @param newWidth the width of the scaled image
+   *  @param newHeight the height of the scaled image
+   *  @param filter the filter to weight the old pixels by
+   *  @exception IllegalArgumentException if either size is negative
+   */
+  Resampler(int newWidth, int newHeight, ResizeFilter filter) {
+    if (newWidth < 0 || newHeight < 0) {
+      throw new IllegalArgumentException("Size out of range: " + newWidth
+                                         + " x " + newHeight);
+    }
+    this.newWidth = newWidth;
+    this.newHeight = newHeight;
+    this.filter = filter;
+  }
+
+  /** Get the width of the scaled image
+   *
+   *  @return the width
+   */
+  int getWidth() {
+    return newWidth;
+  }
+
+  /** Get the height of the scaled image
+   *
+   *  @return the height
+   */
+  int getHeight() {
+    return newHeight;
+  }
+
+  /** Scale an image
+   *
+   *  @param source the image to scale, which is not changed
+   *  @return a new store of the same kind holding the scaled image
+   */
+  PixelStore apply(final PixelStore source) {
+    final int width = source.getWidth();
+    final int height = source.getHeight();
+    final PixelStore result = source.createResult(newWidth, newHeight);
+    if (width == 0 || height == 0 || newWidth == 0 || newHeight == 0) {
+      return result;
+    }
+
+    // A square image scaled to a square uses the same table both ways
+    final Contributions across = new Contributions(width, newWidth, filter);
+    final Contributions down = width == height && newWidth == newHeight
+      ? across : new Contributions(height, newHeight, filter);
+
+    // Each new row is added up from whole old rows, so the columns are all
+    // worked on together in the order they lie in memory.  Old row j,
+    // scaled along, is kept in window[j % window.length] while the new rows
+    // need it; the new rows of a band use old rows in order, and never more
+    // at once than the window holds
+    RowBands.run(newWidth, newHeight, (band, fromRow, toRow) -> {
+      float [] [] window = new float[down.getStride()][newWidth];
+      int [] held = new int[window.length];
+      Arrays.fill(held, -1);
+      int [] values = new int[Math.max(width, newWidth)];
+      float [] line = new float[newWidth];
+      for (int row = fromRow; row < toRow; row ++) {
+        for (int old = down.getFirst(row),
+               end = old + down.getCount(row); old < end; old ++) {
+          int slot = old % window.length;
+          if (held[slot] != old) {
+            source.readRow(old, values, 0);
+            across.scaleLine(values, window[slot]);
+            held[slot] = old;
+          }
+        }
+        down.addRows(row, window, line);
+        for (int col = 0; col < newWidth; col ++) {
+          values[col] = Math.max(PixelKernels.MIN_VALUE,
+            Math.min(PixelKernels.MAX_VALUE, Math.round(line[col])));
+        }
+        result.writeRow(row, values, 0);
+      }
+    });
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Which old pixels along a line make up each new one, and their weights
+   */
+  private static final class Contributions
+  {
+    // New pixel i is made up from old pixels first[i] .. first[i] +
+    // count[i] - 1, with weights weights[i * stride] onwards
+    private final int [] first;
+    private final int [] count;
+    private final float [] weights;
+    private final int stride;
+
+    /** Constructor
+     *
+     *  @param oldSize the length of the old line
+     *  @param newSize the length of the new line
+     *  @param filter the filter to weight the old pixels by
+     */
+    Contributions(int oldSize, int newSize, ResizeFilter filter) {
+      double scale = (double) newSize / oldSize;
+
+      // Shrinking stretches the filter over more old pixels
+      double stretch = Math.max(1, 1 / scale);
+      double support = filter.getSupport() * stretch;
+      first = new int[newSize];
+      count = new int[newSize];
+      stride = Math.min(oldSize, (int) Math.ceil(2 * support) + 1);
+      weights = new float[newSize * stride];
+      double [] sums = new double[stride];
+      for (int i = 0; i < newSize; i ++) {
+        // The centers of the pixels line up with the centers of the old
+        // pixels they fall between
+        double center = (i + 0.5) / scale - 0.5;
+        int left = (int) Math.ceil(center - support);
+        int right = (int) Math.floor(center + support);
+
+        // Old pixels past the ends are the end pixels, so their weights go
+        // to those
+        first[i] = Math.max(0, Math.min(left, oldSize - stride));
+        Arrays.fill(sums, 0);
+        double total = 0;
+        for (int j = left; j <= right; j ++) {
+          double weight = filter.weight((j - center) / stretch);
+          int old = Math.max(0, Math.min(oldSize - 1, j));
+          sums[old - first[i]] += weight;
+          total += weight;
+        }
+
+        // Drop the zero weights at either end, and scale the rest to add up
+        // to 1 so that flat areas keep their value
+        int from = 0;
+        int to = stride;
+        while (from < to - 1 && sums[from] == 0) {
+          from ++;
+        }
+        while (to > from + 1 && sums[to - 1] == 0) {
+          to --;
+        }
+        first[i] += from;
+        count[i] = to - from;
+        for (int k = from; k < to; k ++) {
+          weights[i * stride + k - from] =
+            (float) (total == 0 ? (k == from ? 1 : 0) : sums[k] / total);
+        }
+      }
+    }
+
+    /** Get the first old pixel that makes up a new one
+     *
+     *  @param i the new pixel
+     *  @return the first old pixel
+     */
+    int getFirst(int i) {
+      return first[i];
+    }
+
+    /** Get the number of old pixels that make up a new one
+     *
+     *  @param i the new pixel
+     *  @return the number of old pixels, starting at getFirst(i)
+     */
+    int getCount(int i) {
+      return count[i];
+    }
+
+    /** Get the most old pixels that any new one is made up from
+     *
+     *  @return the largest count
+     */
+    int getStride() {
+      return stride;
+    }
+
+    /** Scale a line of pixels
+     *
+     *  @param line the old pixels
+     *  @param dest the array to put the new pixels in
+     */
+    void scaleLine(int [] line, float [] dest) {
+      for (int i = 0; i < dest.length; i ++) {
+        int old = first[i];
+        int weight = i * stride;
+        float sum = 0;
+        for (int k = 0; k < count[i]; k ++) {
+          sum += weights[weight ++] * line[old ++];
+        }
+        dest[i] = sum;
+      }
+    }
+
+    /** Add up the old rows that make up a new row
+     *
+     *  @param row the new row
+     *  @param rows the old rows, already scaled along their length; old row
+     *         j is rows[j % rows.length]
+     *  @param dest the array to put the new row in
+     */
+    void addRows(int row, float [] [] rows, float [] dest) {
+      Arrays.fill(dest, 0);
+      for (int k = 0; k < count[row]; k ++) {
+        float weight = weights[row * stride + k];
+        float [] old = rows[(first[row] + k) % rows.length];
+        for (int col = 0; col < dest.length; col ++) {
+          dest[col] += weight * old[col];
+        }
+      }
+    }
+  }
+}
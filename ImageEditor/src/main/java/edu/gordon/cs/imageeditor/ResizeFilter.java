@@ -0,0 +1,69 @@
+/*
+ * ResizeFilter.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The filters an image can be resized with, which weight the old pixels
+ * near the point each new pixel comes from.  Each reaches further than
+ * the one before it, and so costs more.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+public enum ResizeFilter
+{
+  BOX(0.5),       // The average of the old pixels the new one covers
+  BILINEAR(1),    // A straight line between the two nearest old pixels
+  BICUBIC(2),     // A cubic through the four nearest, as Keys describes
+  LANCZOS3(3);    // A windowed sinc over the six nearest
+
+  // How far the filter reaches either side of its center, in old pixels
+  // when the image grows
+  private final double support;
+
+  ResizeFilter(double support) {
+    this.support = support;
+  }
+
+  /** Get how far the filter reaches either side of its center
+   *
+   *  @return the distance, in old pixels when the image grows
+   */
+  double getSupport() {
+    return support;
+  }
+
+  /** Get the weight the filter gives to a point
+   *
+   *  @param x the distance of the point from the center of the filter
+   *  @return the weight, before the weights are scaled to add up to 1
+   */
+  double weight(double x) {
+    double distance = Math.abs(x);
+    switch (this) {
+    case BOX:
+      // Half open, so that a point exactly between two old pixels goes
+      // to only one of them
+      return x >= -0.5 && x < 0.5 ? 1 : 0;
+    case BILINEAR:
+      return distance < 1 ? 1 - distance : 0;
+    case BICUBIC:
+      // Keys' cubic with a = -0.5, which is exact for quadratics
+      if (distance < 1) {
+        return (1.5 * distance - 2.5) * distance * distance + 1;
+      } else if (distance < 2) {
+        return ((-0.5 * distance + 2.5) * distance - 4) * distance + 2;
+      }
+      return 0;
+    default:
+      if (distance < 1e-8) {
+        return 1;
+      } else if (distance < 3) {
+        double angle = Math.PI * distance;
+        return 3 * Math.sin(angle) * Math.sin(angle / 3) / (angle * angle);
+      }
+      return 0;
+    }
+  }
+}
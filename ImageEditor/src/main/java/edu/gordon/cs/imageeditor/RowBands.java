@@ -0,0 +1,203 @@
+/*
+ * RowBands.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Runs an operation over the rows of an image in parallel.  The rows are
+ * split into bands of a fixed number of rows, and the bands are handed to a
+ * ForkJoinPool.  Band boundaries depend only on the band size, never on the
+ * number of threads, so an operation that combines per-band results in band
+ * order gets the same answer however it is run.  Small images are not worth
+ * the overhead and are done band by band on the calling thread.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class RowBands
+{
+  /** An operation on one band of rows.  Bands are run concurrently, so an
+   *  action must only change pixels in its own rows.
+   */
+  interface BandAction
+  {
+    void run(int band, int fromRow, int toRow);
+  }
+
+  // Rows in each band, unless configured otherwise
+  static final int DEFAULT_BAND_ROWS = 64;
+
+  // Columns in each strip, for operations that work down the columns of
+  // an image a strip at a time and keep the whole strip in memory
+  static final int STRIP_COLUMNS = 64;
+
+  // Images with fewer pixels than this are always done serially
+  private static final long MIN_PARALLEL_PIXELS = 1L << 18;
+
+  // The pool to run bands in - null to run them on the calling thread
+  private static ForkJoinPool pool = ForkJoinPool.commonPool();
+  private static boolean ownPool = false;
+  private static int bandRows = DEFAULT_BAND_ROWS;
+
+  // The number of runs still using each pool of our own.  A pool that has
+  // been replaced is shut down once the last run using it is done
+  private static final Map<ForkJoinPool, Integer> runsInPool =
+    new IdentityHashMap<>();
+
+  /** Class is not meant to be instantiated
+   */
+  private RowBands() {
+  }
+
+  /** Choose how operations are run
+   *
+   *  @param threadCount the number of threads to use: 1 to run everything
+   *         serially, or 0 or less for the common ForkJoinPool
+   *  @param rows the number of rows in each band, or 0 or less for
+   *         DEFAULT_BAND_ROWS
+   */
+  static synchronized void configure(int threadCount, int rows) {
+    if (ownPool && ! runsInPool.containsKey(pool)) {
+      pool.shutdown();
+    }
+    if (threadCount <= 0) {
+      pool = ForkJoinPool.commonPool();
+      ownPool = false;
+    } else if (threadCount == 1) {
+      pool = null;
+      ownPool = false;
+    } else {
+      pool = new ForkJoinPool(threadCount);
+      ownPool = true;
+    }
+    bandRows = rows > 0 ? rows : DEFAULT_BAND_ROWS;
+  }
+
+  /** Get the number of rows in each band.  An action that keeps results
+   *  for each band should get this once, size its results with
+   *  bandCount(), and pass it to run(), so that a change of configuration
+   *  in between cannot change the bands.
+   *
+   *  @return the configured number of rows
+   */
+  static synchronized int bandRows() {
+    return bandRows;
+  }
+
+  /** Find out how many bands an image is split into
+   *
+   *  @param height the number of rows in the image
+   *  @param rows the number of rows in each band
+   *  @return the number of bands
+   */
+  static int bandCount(int height, int rows) {
+    return (height + rows - 1) / rows;
+  }
+
+  /** Run an action on every band of an image, returning when all are done
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   *  @param action the action to run on each band
+   */
+  static void run(int width, int height, BandAction action) {
+    run(width, height, 0, action);
+  }
+
+  /** Run an action on every band of an image, with bands of a given size,
+   *  returning when all are done.  This is for actions that work best on
+   *  bands of a particular size.
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   *  @param rows the number of rows in each band, or 0 or less for the
+   *         configured number
+   *  @param action the action to run on each band
+   */
+  static void run(int width, int height, int rows, BandAction action) {
+    ForkJoinPool runPool;
+    int bands;
+    synchronized (RowBands.class) {
+      if (rows <= 0) {
+        rows = bandRows;
+      }
+      bands = bandCount(height, rows);
+      runPool = bands < 2 || (long) width * height < MIN_PARALLEL_PIXELS
+        ? null : pool;
+
+      // A pool of our own cannot be shut down while this is using it
+      if (runPool != null && ownPool) {
+        runsInPool.merge(runPool, 1, Integer::sum);
+      }
+    }
+    if (runPool == null) {
+      for (int band = 0; band < bands; band ++) {
+        action.run(band, band * rows, Math.min(height, (band + 1) * rows));
+      }
+      return;
+    }
+    try {
+      runPool.invoke(new BandTask(action, rows, height, 0, bands));
+    } finally {
+      release(runPool);
+    }
+  }
+
+  /** Note that a run has finished with a pool, shutting the pool down if
+   *  it has been replaced and nothing else is using it
+   *
+   *  @param runPool the pool the run used
+   */
+  private static synchronized void release(ForkJoinPool runPool) {
+    Integer runs = runsInPool.get(runPool);
+    if (runs == null) {
+      return;
+    }
+    if (runs > 1) {
+      runsInPool.put(runPool, runs - 1);
+    } else {
+      runsInPool.remove(runPool);
+      if (runPool != pool) {
+        runPool.shutdown();
+      }
+    }
+  }
+
+  /** Task that runs a range of bands, splitting it in half until only one
+   *  band is left
+   */
+  private static final class BandTask extends RecursiveAction
+  {
+    private final BandAction action;
+    private final int rows;
+    private final int height;
+    private final int fromBand;
+    private final int toBand;
+
+    BandTask(BandAction action, int rows, int height, int fromBand,
+             int toBand) {
+      this.action = action;
+      this.rows = rows;
+      this.height = height;
+      this.fromBand = fromBand;
+      this.toBand = toBand;
+    }
+
+    @Override
+    protected void compute() {
+      if (toBand - fromBand == 1) {
+        action.run(fromBand, fromBand * rows,
+                   Math.min(height, (fromBand + 1) * rows));
+      } else {
+        int middle = (fromBand + toBand) >>> 1;
+        invokeAll(new BandTask(action, rows, height, fromBand, middle),
+                  new BandTask(action, rows, height, middle, toBand));
+      }
+    }
+  }
+}
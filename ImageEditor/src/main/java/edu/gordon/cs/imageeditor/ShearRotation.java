@@ -0,0 +1,307 @@
+/*
+ * ShearRotation.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Rotates an image clockwise by any angle, as Paeth describes: a rotation
+ * is a shear along the rows, then one down the columns, then another along
+ * the rows.  Each shear slides every row (or column) along by its own
+ * amount, so it only reads and writes along one line at a time, and the
+ * two weights that split each pixel between its new neighbours are the
+ * same all along the line, worked out once for it.
+ *
+ * The shears stay small only for angles up to 45 degrees either way, so a
+ * rotation is split into whole quarter turns, which move pixels without
+ * changing them, and what is left over.  The image grows to hold the
+ * rotated corners; the new space is filled with black.  Rows are worked on
+ * in bands and columns in strips, several at a time; the values between
+ * the shears are kept as the bits of floats, in stores that go off the
+ * heap when the image is large.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.Arrays;
+
+final class ShearRotation
+{
+  // How far the image is rotated, as whole quarter turns clockwise and
+  // then a part turn of -45 .. 45 degrees
+  private final int quarterTurns;
+  private final double radians;
+
+  // The shear along the rows, and the one down the columns
+  private final double rowShear;
+  private final double columnShear;
+
+  /** Constructor
+   *
+   *  @param degrees the angle to rotate clockwise by - anticlockwise if it
+   *         is negative
+   *  @exception IllegalArgumentException if the angle is not finite
+   */
+  ShearRotation(double degrees) {
+    if (Double.isNaN(degrees) || Double.isInfinite(degrees)) {
+      throw new IllegalArgumentException("Angle out of range: " + degrees);
+    }
+    double turns = Math.rint(Math.IEEEremainder(degrees, 360) / 90);
+    quarterTurns = Math.floorMod((int) turns, 4);
+    radians = Math.toRadians(Math.IEEEremainder(degrees, 360) - 90 * turns);
+    rowShear = - Math.tan(radians / 2);
+    columnShear = Math.sin(radians);
+  }
+
+  /** Get the number of whole quarter turns in the rotation, which are to be
+   *  made before this is applied
+   *
+   *  @return the number of clockwise quarter turns, 0 .. 3
+   */
+  int getQuarterTurns() {
+    return quarterTurns;
+  }
+
+  /** Find out whether anything is left of the rotation after the whole
+   *  quarter turns
+   *
+   *  @return true if applying this would do nothing
+   */
+  boolean isQuarterTurns() {
+    return radians == 0;
+  }
+
+  /** Get the width of an image once rotated by what is left of the
+   *  rotation after the whole quarter turns
+   *
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @return the width of the rotated image
+   */
+  int getWidth(int width, int height) {
+    return rotatedSize(width, height, Math.cos(radians), Math.sin(radians));
+  }
+
+  /** Get the height of an image once rotated by what is left of the
+   *  rotation after the whole quarter turns
+   *
+   *  @param width the width of the image
+   *  @param height the height of the image
+   *  @return the height of the rotated image
+   */
+  int getHeight(int width, int height) {
+    return rotatedSize(height, width, Math.cos(radians), Math.sin(radians));
+  }
+
+  /** Rotate an image by what is left of the rotation after the whole
+   *  quarter turns
+   *
+   *  @param source the image to rotate, which is not changed
+   *  @return a new store of the same kind holding the rotated image
+   */
+  PixelStore apply(final PixelStore source) {
+    final int width = source.getWidth();
+    final int height = source.getHeight();
+    final int newWidth = getWidth(width, height);
+    final int newHeight = getHeight(width, height);
+    final PixelStore result = source.createResult(newWidth, newHeight);
+    if (width == 0 || height == 0) {
+      return result;
+    }
+
+    // The rows after the first shear are wide enough for it; the columns
+    // after the second are already as high as the finished image, since
+    // the last shear only moves pixels along the rows
+    final int shearedWidth =
+      width + (int) Math.ceil(Math.abs(rowShear) * (height - 1)) + 1;
+    final PixelStore rows = PixelStore.createIntermediate(shearedWidth, height);
+    final PixelStore columns =
+      PixelStore.createIntermediate(shearedWidth, newHeight);
+
+    // Each shear keeps the center of the image at the center
+    final int [] firstWhole = new int[height];
+    final float [] firstPart = new float[height];
+    slides(height, (shearedWidth - width) / 2.0, rowShear, firstWhole,
+           firstPart);
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      int [] values = new int[width];
+      float [] line = new float[width];
+      float [] sheared = new float[shearedWidth];
+      int [] bits = new int[shearedWidth];
+      for (int row = fromRow; row < toRow; row ++) {
+        source.readRow(row, values, 0);
+        for (int col = 0; col < width; col ++) {
+          line[col] = values[col];
+        }
+        Arrays.fill(sheared, 0);
+        slide(line, sheared, firstWhole[row], firstPart[row]);
+        toBits(sheared, bits);
+        rows.writeRow(row, bits, 0);
+      }
+    });
+
+    final int [] secondWhole = new int[shearedWidth];
+    final float [] secondPart = new float[shearedWidth];
+    slides(shearedWidth, (newHeight - height) / 2.0, columnShear,
+           secondWhole, secondPart);
+
+    // The columns are split into strips as if they were rows; only one
+    // strip at a time is read back as floats
+    RowBands.run(newHeight, shearedWidth, RowBands.STRIP_COLUMNS,
+                 (band, fromCol, toCol) -> {
+      int stripWidth = toCol - fromCol;
+      int [] bits = new int[stripWidth];
+      float [] [] strip = new float[height][stripWidth];
+      for (int row = 0; row < height; row ++) {
+        rows.readSpan(row, fromCol, stripWidth, bits, 0);
+        fromBits(bits, strip[row]);
+      }
+      float [] [] slid = new float[newHeight][stripWidth];
+      slideColumns(strip, slid, fromCol, secondWhole, secondPart);
+      for (int row = 0; row < newHeight; row ++) {
+        toBits(slid[row], bits);
+        columns.writeSpan(row, fromCol, stripWidth, bits, 0);
+      }
+    });
+
+    final int [] thirdWhole = new int[newHeight];
+    final float [] thirdPart = new float[newHeight];
+    slides(newHeight, (newWidth - shearedWidth) / 2.0, rowShear, thirdWhole,
+           thirdPart);
+    RowBands.run(newWidth, newHeight, (band, fromRow, toRow) -> {
+      int [] bits = new int[shearedWidth];
+      float [] sheared = new float[shearedWidth];
+      float [] line = new float[newWidth];
+      int [] values = new int[newWidth];
+      for (int row = fromRow; row < toRow; row ++) {
+        columns.readRow(row, bits, 0);
+        fromBits(bits, sheared);
+        Arrays.fill(line, 0);
+        slide(sheared, line, thirdWhole[row], thirdPart[row]);
+        for (int col = 0; col < newWidth; col ++) {
+          values[col] = Math.max(PixelKernels.MIN_VALUE,
+            Math.min(PixelKernels.MAX_VALUE, Math.round(line[col])));
+        }
+        result.writeRow(row, values, 0);
+      }
+    });
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Find the size of an image along one side once rotated
+   *
+   *  @param along the size of the image along that side
+   *  @param across the size of the image along the other side
+   *  @param cos the cosine of the angle rotated by
+   *  @param sin the sine of the angle rotated by
+   *  @return the rotated size
+   */
+  private static int rotatedSize(int along, int across, double cos,
+                                 double sin) {
+    if (along == 0 || across == 0) {
+      return along;
+    }
+
+    // Allow for rounding error in the sine and cosine, which would otherwise
+    // add a column or row of background to an exact fit
+    return (int) Math.ceil(along * Math.abs(cos) + across * Math.abs(sin)
+                           - 1e-6);
+  }
+
+  /** Work out how far each line is slid by a shear, as a whole number of
+   *  pixels and a part of a pixel
+   *
+   *  @param lines the number of lines
+   *  @param margin how far the center of the lines moves along them, which
+   *         is half the difference in length
+   *  @param shear how far each line slides for each line it is from the
+   *         center
+   *  @param whole the array to put the whole number of pixels in
+   *  @param part the array to put the part pixels in, 0 .. 1
+   */
+  private static void slides(int lines, double margin, double shear,
+                             int [] whole, float [] part) {
+    double center = (lines - 1) / 2.0;
+    for (int line = 0; line < lines; line ++) {
+      double distance = margin + shear * (line - center);
+      whole[line] = (int) Math.floor(distance);
+      part[line] = (float) (distance - whole[line]);
+    }
+  }
+
+  /** Slide one line of values along into another.  Each new value is
+   *  made up from the two old values that end up either side of it.
+   *
+   *  @param line the values
+   *  @param dest the line to put them in, which is filled with zeros
+   *  @param whole the whole number of pixels to slide by
+   *  @param part the part of a pixel to slide by further, 0 .. 1
+   */
+  private static void slide(float [] line, float [] dest, int whole,
+                            float part) {
+    float keep = 1 - part;
+    int from = Math.max(0, whole);
+    int to = Math.min(dest.length, whole + line.length + 1);
+    for (int i = from; i < to; i ++) {
+      int old = i - whole;
+      float here = old < line.length ? line[old] : 0;
+      float before = old > 0 ? line[old - 1] : 0;
+      dest[i] = keep * here + part * before;
+    }
+  }
+
+  /** Slide each column of a strip down into new rows, in the same way as
+   *  slide().  The strip is worked on a row at a time, so the values are
+   *  read in the order they lie in memory.
+   *
+   *  @param rows the rows of the strip
+   *  @param dest the rows to put the slid strip in, which are filled with
+   *         zeros
+   *  @param fromCol the column of the image the strip starts at
+   *  @param whole the whole number of pixels to slide each column of the
+   *         image by
+   *  @param part the part of a pixel to slide each column by further
+   */
+  private static void slideColumns(float [] [] rows, float [] [] dest,
+                                   int fromCol, int [] whole,
+                                   float [] part) {
+    for (int row = 0; row < dest.length; row ++) {
+      float [] destRow = dest[row];
+      for (int col = 0; col < destRow.length; col ++) {
+        int old = row - whole[fromCol + col];
+        if (old < 0 || old > rows.length) {
+          continue;
+        }
+        float here = old < rows.length ? rows[old][col] : 0;
+        float before = old > 0 ? rows[old - 1][col] : 0;
+        float slid = part[fromCol + col];
+        destRow[col] = (1 - slid) * here + slid * before;
+      }
+    }
+  }
+
+  /** Turn a line of floats into their bits, to keep in a store
+   *
+   *  @param line the values
+   *  @param bits the array to put their bits in
+   */
+  private static void toBits(float [] line, int [] bits) {
+    for (int i = 0; i < line.length; i ++) {
+      bits[i] = Float.floatToRawIntBits(line[i]);
+    }
+  }
+
+  /** Turn a line of bits kept in a store back into floats
+   *
+   *  @param bits the bits
+   *  @param line the array to put the values in
+   */
+  private static void fromBits(int [] bits, float [] line) {
+    for (int i = 0; i < line.length; i ++) {
+      line[i] = Float.intBitsToFloat(bits[i]);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * StreamingEncryption.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * Encrypts or decrypts a PNG file into another without ever holding the
+ * whole image: each row is read, encrypted and written before the next is
+ * read, so the memory needed depends only on the width of the image.  The
+ * file written is the same image as opening the file in the editor,
+ * encrypting it with the same key and saving it would give.
+ *
+ * Legacy encryption draws its random numbers in row order, which is the
+ * order the rows arrive in, so both modes can be streamed.  A gray scale
+ * image encrypted in counter mode stays in the range 0 .. 255 and is
+ * written as gray; otherwise the file is written as RGB, as Save As does.
+ *
+ * This class also has a main() method, to encrypt or decrypt a batch of
+ * files from the command line.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.io.*;
+
+public class StreamingEncryption
+{
+  /** Class is not meant to be instantiated
+   */
+  private StreamingEncryption() {
+  }
+
+  /** Encrypt or decrypt one PNG file into another
+   *
+   *  @param input the file to read
+   *  @param output the file to write
+   *  @param seed the key
+   *  @param mode the way to encrypt
+   *  @param forceGray true to work on the image as gray scale, as the
+   *         editor does unless it is using color
+   *  @exception IOException if a file cannot be read or written, or the
+   *             input is not a PNG image that can be read a row at a time
+   */
+  public static void encryptDecrypt(File input, File output, int seed,
+                                    EncryptionMode mode, boolean forceGray)
+                                                    throws IOException {
+    try (InputStream in = new FileInputStream(input);
+         OutputStream out = new FileOutputStream(output)) {
+      encryptDecrypt(in, out, seed, mode, forceGray);
+    }
+  }
+
+  /** Encrypt or decrypt a PNG image from one stream into another
+   *
+   *  @param in the stream to read the image from, which is closed
+   *  @param out the stream to write the image to, which is closed
+   *  @param seed the key
+   *  @param mode the way to encrypt
+   *  @param forceGray true to work on the image as gray scale
+   *  @exception IOException if a stream cannot be read or written, or does
+   *             not hold a PNG image that can be read a row at a time
+   */
+  static void encryptDecrypt(InputStream in, OutputStream out, int seed,
+                             EncryptionMode mode, boolean forceGray)
+                                                    throws IOException {
+    try (PngRowReader reader = new PngRowReader(in)) {
+      int width = reader.getWidth();
+      int height = reader.getHeight();
+      boolean grayOutput = forceGray && mode == EncryptionMode.COUNTER;
+      CounterKeystream counter = new CounterKeystream(seed);
+      LegacyKeystream legacy = new LegacyKeystream(seed);
+      int [] row = new int[width];
+      try (PngRowWriter writer = new PngRowWriter(out, width, height,
+                                                  grayOutput)) {
+        for (int r = 0; r < height; r ++) {
+          reader.readRow(row, 0);
+          if (forceGray) {
+            for (int col = 0; col < width; col ++) {
+              row[col] = ImageInput.grayValue(row[col]);
+            }
+          }
+          if (mode == EncryptionMode.COUNTER) {
+            counter.apply((long) r * width, row, 0, width);
+          } else {
+            legacy.apply(row, 0, width);
+          }
+
+          // Save As spreads a gray value over all three colors, in the
+          // same way as ProjectImage.getPixelsIntRGB()
+          if (forceGray && ! grayOutput) {
+            for (int col = 0; col < width; col ++) {
+              row[col] *= 0x10101;
+            }
+          }
+          writer.writeRow(row, 0);
+        }
+      }
+    }
+  }
+
+  /** Main method - encrypt or decrypt PNG files from the command line
+   *
+   *  @param args options, then the key, then pairs of files to read and
+   *         write.  The options are -counter to use counter mode rather
+   *         than legacy mode, and -color to keep the colors rather than
+   *         working in gray scale
+   */
+  public static void main(String [] args) {
+    EncryptionMode mode = EncryptionMode.LEGACY;
+    boolean forceGray = true;
+    int arg = 0;
+    for (; arg < args.length && args[arg].startsWith("-"); arg ++) {
+      if (args[arg].equals("-counter")) {
+        mode = EncryptionMode.COUNTER;
+      } else if (args[arg].equals("-color")) {
+        forceGray = false;
+      } else {
+        usage();
+        return;
+      }
+    }
+    if (args.length - arg < 3 || (args.length - arg) % 2 != 1) {
+      usage();
+      return;
+    }
+    int seed;
+    try {
+      seed = Integer.parseInt(args[arg ++]);
+    } catch (NumberFormatException exception) {
+      usage();
+      return;
+    }
+    for (; arg < args.length; arg += 2) {
+      try {
+        encryptDecrypt(new File(args[arg]), new File(args[arg + 1]), seed,
+                       mode, forceGray);
+      } catch (IOException exception) {
+        System.err.println(args[arg] + ": " + exception.getMessage());
+        System.exit(1);
+      }
+    }
+  }
+
+  /** Explain how to run main()
+   */
+  private static void usage() {
+    System.err.println("Usage: StreamingEncryption [-counter] [-color] key "
+                       + "input.png output.png ...");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * SummedAreaTable.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * The sums of the pixel values of an image, and of their squares, over
+ * every rectangle whose top left corner is the top left of the image.
+ * From these, the sum over any rectangle is found from the four values at
+ * its corners, in the same time however big the rectangle is.  This gives
+ * box blurs and local variances whose cost per pixel does not depend on
+ * the size of the window, and the mean and variance of any region.
+ *
+ * The sums are kept in longs.  Should a sum of squares overflow, the
+ * wrapped around values still give the right sum for any rectangle whose
+ * own sum fits in a long.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+final class SummedAreaTable
+{
+  // Largest radius of window allowed, which keeps the sums over any window
+  // of gray values well within a long
+  static final int MAX_RADIUS = 1 << 20;
+
+  // Size of the image
+  private final int width;
+  private final int height;
+
+  // sums[r][c] is the sum of the pixels in rows 0 .. r - 1 and columns
+  // 0 .. c - 1, and squares[r][c] the sum of their squares
+  private final long [] [] sums;
+  private final long [] [] squares;
+
+  /** Constructor - work out the sums for an image.  Each band of rows is
+   *  first summed from its own top row, in parallel; the totals of the
+   *  bands above are then added in.
+   *
+   *  @param pixels the image, which is not changed
+   */
+  SummedAreaTable(final PixelStore pixels) {
+    width = pixels.getWidth();
+    height = pixels.getHeight();
+    sums = new long[height + 1][width + 1];
+    squares = new long[height + 1][width + 1];
+
+    final int bandRows = RowBands.bandRows();
+    final int [] bandEnds = new int[RowBands.bandCount(height, bandRows)];
+    RowBands.run(width, height, bandRows, (band, fromRow, toRow) -> {
+      bandEnds[band] = toRow;
+      pixels.scanRows(fromRow, toRow, (row, col, data, offset, length) -> {
+        // The runs of a row come left to right, so the sums so far are
+        // already in place
+        long [] rowSums = sums[row + 1];
+        long [] rowSquares = squares[row + 1];
+        long sum = rowSums[col];
+        long square = rowSquares[col];
+        for (int i = 0; i < length; i ++) {
+          long value = data[offset + i];
+          sum += value;
+          square += value * value;
+          rowSums[col + i + 1] = sum;
+          rowSquares[col + i + 1] = square;
+        }
+      });
+      for (int row = fromRow + 1; row < toRow; row ++) {
+        addRow(row + 1, row);
+      }
+    });
+
+    // The bottom row of each band becomes complete once the one above it
+    // is, and then completes the rest of the band below it
+    for (int band = 1; band < bandEnds.length; band ++) {
+      addRow(bandEnds[band], bandEnds[band - 1]);
+    }
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      if (fromRow > 0) {
+        for (int row = fromRow; row < toRow - 1; row ++) {
+          addRow(row + 1, fromRow);
+        }
+      }
+    });
+  }
+
+  /** Make sure a window radius is one the table can be used with
+   *
+   *  @param radius the radius
+   *  @exception IllegalArgumentException if it is negative or more than
+   *             MAX_RADIUS
+   */
+  static void checkRadius(int radius) {
+    if (radius < 0 || radius > MAX_RADIUS) {
+      throw new IllegalArgumentException("Radius out of range: " + radius);
+    }
+  }
+
+  /** Get the sum of the pixels in a rectangle
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return the sum
+   */
+  long sum(int row, int col, int width, int height) {
+    return rectangle(sums, row, col, row + height, col + width);
+  }
+
+  /** Get the sum of the squares of the pixels in a rectangle
+   *
+   *  @param row the top row of the rectangle
+   *  @param col the left column of the rectangle
+   *  @param width the number of columns in the rectangle
+   *  @param height the number of rows in the rectangle
+   *  @return the sum of squares
+   */
+  long sumOfSquares(int row, int col, int width, int height) {
+    return rectangle(squares, row, col, row + height, col + width);
+  }
+
+  /** Replace each pixel by the mean of the square window of pixels around
+   *  it, rounded and kept in the range 0 .. 255.  Where the window reaches
+   *  past the edge of the image the nearest edge pixel is used instead, as
+   *  when applying a filter.
+   *
+   *  @param radius the number of pixels the window reaches to each side
+   *  @param result the store to put the new pixels in, the same size as
+   *         the image
+   */
+  void mean(final int radius, final PixelStore result) {
+    checkRadius(radius);
+    final double count = (2.0 * radius + 1) * (2.0 * radius + 1);
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      int [] values = new int[width];
+      for (int row = fromRow; row < toRow; row ++) {
+        for (int col = 0; col < width; col ++) {
+          values[col] = clamp(window(sums, row, col, radius) / count);
+        }
+        result.writeRow(row, values, 0);
+      }
+    });
+  }
+
+  /** Replace each pixel by the variance of the square window of pixels
+   *  around it, rounded and kept in the range 0 .. 255.  The window is the
+   *  same as for mean().
+   *
+   *  @param radius the number of pixels the window reaches to each side
+   *  @param result the store to put the new pixels in, the same size as
+   *         the image
+   */
+  void variance(final int radius, final PixelStore result) {
+    checkRadius(radius);
+    final double count = (2.0 * radius + 1) * (2.0 * radius + 1);
+    RowBands.run(width, height, (band, fromRow, toRow) -> {
+      int [] values = new int[width];
+      for (int row = fromRow; row < toRow; row ++) {
+        for (int col = 0; col < width; col ++) {
+          double mean = window(sums, row, col, radius) / count;
+          values[col] = clamp(window(squares, row, col, radius) / count
+                              - mean * mean);
+        }
+        result.writeRow(row, values, 0);
+      }
+    });
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Add one row of both tables to another
+   *
+   *  @param row the row to add to
+   *  @param other the row to add
+   */
+  private void addRow(int row, int other) {
+    for (int col = 1; col <= width; col ++) {
+      sums[row][col] += sums[other][col];
+      squares[row][col] += squares[other][col];
+    }
+  }
+
+  /** Get the sum of a table over a rectangle
+   *
+   *  @param table sums or squares
+   *  @param top the top row of the rectangle
+   *  @param left the left column of the rectangle
+   *  @param bottom one past the bottom row of the rectangle
+   *  @param right one past the right column of the rectangle
+   *  @return the sum
+   */
+  private static long rectangle(long [] [] table, int top, int left,
+                                int bottom, int right) {
+    return table[bottom][right] - table[top][right] - table[bottom][left]
+           + table[top][left];
+  }
+
+  /** Get the sum of a table over the square window around a pixel, with
+   *  pixels beyond the edge of the image replaced by the nearest edge
+   *  pixel.  The part of the window inside the image is summed directly;
+   *  each row or column of the window beyond an edge repeats the part of
+   *  the edge row or column it reaches, and each pixel beyond a corner
+   *  repeats the corner pixel.
+   *
+   *  @param table sums or squares
+   *  @param row the row of the pixel
+   *  @param col the column of the pixel
+   *  @param radius the number of pixels the window reaches to each side
+   *  @return the sum
+   */
+  private long window(long [] [] table, int row, int col, int radius) {
+    int top = Math.max(0, row - radius);
+    int bottom = (int) Math.min(height, (long) row + radius + 1);
+    int left = Math.max(0, col - radius);
+    int right = (int) Math.min(width, (long) col + radius + 1);
+    long above = top - ((long) row - radius);
+    long below = (long) row + radius + 1 - bottom;
+    long before = left - ((long) col - radius);
+    long after = (long) col + radius + 1 - right;
+
+    long sum = rectangle(table, top, left, bottom, right);
+    if (above > 0) {
+      sum += above * (rectangle(table, 0, left, 1, right)
+                      + before * rectangle(table, 0, 0, 1, 1)
+                      + after * rectangle(table, 0, width - 1, 1, width));
+    }
+    if (below > 0) {
+      sum += below
+        * (rectangle(table, height - 1, left, height, right)
+           + before * rectangle(table, height - 1, 0, height, 1)
+           + after * rectangle(table, height - 1, width - 1, height, width));
+    }
+    if (before > 0) {
+      sum += before * rectangle(table, top, 0, bottom, 1);
+    }
+    if (after > 0) {
+      sum += after * rectangle(table, top, width - 1, bottom, width);
+    }
+    return sum;
+  }
+
+  /** Round a value to the nearest integer, halves rounding up, and keep it
+   *  in the range 0 .. 255
+   *
+   *  @param value the value
+   *  @return the pixel value
+   */
+  private static int clamp(double value) {
+    return (int) Math.max(PixelKernels.MIN_VALUE,
+                          Math.min(PixelKernels.MAX_VALUE, Math.round(value)));
+  }
+}
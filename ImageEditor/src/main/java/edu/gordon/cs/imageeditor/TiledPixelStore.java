@@ -0,0 +1,531 @@
+/*
+ * TiledPixelStore.java
+ *
+ * Part of ImageEditor project - perform various operations on an image
+ * represented as a 2-dimensional array of pixel values.
+ *
+ * A pixel store for very large images.  The pixels are kept in square tiles
+ * of TILE_SIZE x TILE_SIZE ints, each a separate array that is only
+ * allocated when something is first written to it - a tile that has never
+ * been written holds zeros.
+ *
+ * The image need not start at the corner of the tile grid: pixel (0, 0)
+ * lies at (originY, originX) within it.  Choosing the origin after a flip or
+ * rotation so that every pixel lands at the mirrored or rotated position
+ * within the grid lets those operations move whole tiles around and
+ * transform the contents of each tile separately, one tile at a time, so
+ * they never need a second copy of the image.
+ */
+
+package edu.gordon.cs.imageeditor;
+
+import java.util.Arrays;
+
+final class TiledPixelStore extends PixelStore
+{
+  // Size of the tiles
+  static final int TILE_SHIFT = 8;
+  static final int TILE_SIZE = 1 << TILE_SHIFT;
+  private static final int TILE_MASK = TILE_SIZE - 1;
+
+  // Stands in for a row of a tile that has not been allocated
+  private static final int [] EMPTY_ROW = new int[TILE_SIZE];
+
+  // Position of pixel (0, 0) within the grid of tiles
+  private final int originX;
+  private final int originY;
+
+  // The tiles, row by row.  Tile (tileRow, tileCol) holds its pixels in
+  // row-major order; a null entry is an all zero tile
+  private final int tilesAcross;
+  private final int tilesDown;
+  private final int [] [] tiles;
+
+  /** Constructor for a new, zero filled store
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   */
+  TiledPixelStore(int width, int height) {
+    this(width, height, 0, 0, null);
+  }
+
+  /** Constructor for a store laid out within a grid of tiles
+   *
+   *  @param width the number of pixels in each row
+   *  @param height the number of rows
+   *  @param originX the column within the grid of pixel (0, 0)
+   *  @param originY the row within the grid of pixel (0, 0)
+   *  @param tiles the tiles, or null to start with none allocated
+   */
+  private TiledPixelStore(int width, int height, int originX, int originY,
+                          int [] [] tiles) {
+    super(width, height);
+    this.originX = originX;
+    this.originY = originY;
+    tilesAcross = (int) (((long) originX + width + TILE_MASK) >> TILE_SHIFT);
+    tilesDown = (int) (((long) originY + height + TILE_MASK) >> TILE_SHIFT);
+    this.tiles = tiles != null ? tiles
+                               : new int[tilesAcross * tilesDown][];
+  }
+
+  /** Create a tiled store holding a copy of another store
+   *
+   *  @param store the store to copy
+   *  @return the new store
+   */
+  static TiledPixelStore copyOf(PixelStore store) {
+    TiledPixelStore result =
+      new TiledPixelStore(store.getWidth(), store.getHeight());
+    int [] buffer = new int[store.getWidth()];
+    for (int row = 0; row < store.getHeight(); row ++) {
+      store.readRow(row, buffer, 0);
+      result.writeRow(row, buffer, 0);
+    }
+    return result;
+  }
+
+  /** Count the tiles that have been allocated
+   *
+   *  @return the number of tiles holding data
+   */
+  int getAllocatedTileCount() {
+    int count = 0;
+    for (int [] tile: tiles) {
+      if (tile != null) {
+        count ++;
+      }
+    }
+    return count;
+  }
+
+  /**************************************************************************
+   * Methods required by PixelStore
+   *************************************************************************/
+
+  @Override
+  int get(int row, int col) {
+    int y = row + originY;
+    int x = col + originX;
+    int [] tile = tiles[(y >> TILE_SHIFT) * tilesAcross + (x >> TILE_SHIFT)];
+    return tile == null ? 0
+                        : tile[((y & TILE_MASK) << TILE_SHIFT) + (x & TILE_MASK)];
+  }
+
+  @Override
+  void set(int row, int col, int value) {
+    int y = row + originY;
+    int x = col + originX;
+    int [] tile =
+      writableTile((y >> TILE_SHIFT) * tilesAcross + (x >> TILE_SHIFT));
+    tile[((y & TILE_MASK) << TILE_SHIFT) + (x & TILE_MASK)] = value;
+  }
+
+  @Override
+  void readRow(int row, int [] dest, int destOffset) {
+    readSpan(row, 0, width, dest, destOffset);
+  }
+
+  @Override
+  void writeRow(int row, int [] src, int srcOffset) {
+    int y = row + originY;
+    int tileRow = (y >> TILE_SHIFT) * tilesAcross;
+    int start = (y & TILE_MASK) << TILE_SHIFT;
+    for (int x = originX, end = originX + width; x < end; ) {
+      int length = Math.min(end, (x | TILE_MASK) + 1) - x;
+      int index = tileRow + (x >> TILE_SHIFT);
+
+      // Writing zeros into a tile that was never allocated changes nothing
+      if (tiles[index] != null || ! isZero(src, srcOffset, length)) {
+        System.arraycopy(src, srcOffset, writableTile(index),
+                         start + (x & TILE_MASK), length);
+      }
+      x += length;
+      srcOffset += length;
+    }
+  }
+
+  @Override
+  TiledPixelStore createCompatible(int width, int height) {
+    return new TiledPixelStore(width, height);
+  }
+
+  /**************************************************************************
+   * Faster versions of PixelStore operations
+   *************************************************************************/
+
+  /** Copy part of a row, which may span several tiles, into an array
+   *
+   *  @param row the row to copy from
+   *  @param col the first column to copy
+   *  @param length the number of pixels to copy
+   *  @param dest the array to copy into
+   *  @param destOffset the position in dest that receives the first pixel
+   */
+  @Override
+  void readSpan(int row, int col, int length, int [] dest, int destOffset) {
+    int y = row + originY;
+    int tileRow = (y >> TILE_SHIFT) * tilesAcross;
+    int start = (y & TILE_MASK) << TILE_SHIFT;
+    for (int x = col + originX, end = x + length; x < end; ) {
+      int count = Math.min(end, (x | TILE_MASK) + 1) - x;
+      int [] tile = tiles[tileRow + (x >> TILE_SHIFT)];
+      if (tile == null) {
+        Arrays.fill(dest, destOffset, destOffset + count, 0);
+      } else {
+        System.arraycopy(tile, start + (x & TILE_MASK), dest, destOffset,
+                         count);
+      }
+      x += count;
+      destOffset += count;
+    }
+  }
+
+  /** Replace part of a row, which may span several tiles, from an array.
+   *  Zeros written into a tile that was never allocated change nothing, so
+   *  do not allocate it.
+   *
+   *  @param row the row to write to
+   *  @param col the first column to write
+   *  @param length the number of pixels to write
+   *  @param src the array holding the new values
+   *  @param srcOffset the position in src that holds the first pixel
+   */
+  @Override
+  void writeSpan(int row, int col, int length, int [] src, int srcOffset) {
+    int y = row + originY;
+    int tileRow = (y >> TILE_SHIFT) * tilesAcross;
+    int start = (y & TILE_MASK) << TILE_SHIFT;
+    for (int x = col + originX, end = x + length; x < end; ) {
+      int count = Math.min(end, (x | TILE_MASK) + 1) - x;
+      int index = tileRow + (x >> TILE_SHIFT);
+      if (tiles[index] != null || ! isZero(src, srcOffset, count)) {
+        System.arraycopy(src, srcOffset, writableTile(index),
+                         start + (x & TILE_MASK), count);
+      }
+      x += count;
+      srcOffset += count;
+    }
+  }
+
+  /** Visit rows, allowing the visitor to change the pixels.  A run in a
+   *  tile that has not been allocated is passed to the visitor as zeros in
+   *  a buffer, and the tile is only allocated if the visitor leaves
+   *  something other than zeros there, so an operation that keeps 0 as 0
+   *  does not fill in the empty parts of the image.
+   *
+   *  @param fromRow the first row to visit
+   *  @param toRow one past the last row to visit
+   *  @param visitor the visitor to pass the rows to
+   */
+  @Override
+  void updateRows(int fromRow, int toRow, RowVisitor visitor) {
+    int [] empty = new int[TILE_SIZE];
+    for (int row = fromRow; row < toRow; row ++) {
+      int y = row + originY;
+      int tileRow = (y >> TILE_SHIFT) * tilesAcross;
+      int start = (y & TILE_MASK) << TILE_SHIFT;
+      for (int x = originX, end = originX + width; x < end; ) {
+        int length = Math.min(end, (x | TILE_MASK) + 1) - x;
+        int index = tileRow + (x >> TILE_SHIFT);
+        int [] tile = tiles[index];
+        if (tile != null) {
+          visitor.visitRow(row, x - originX, tile, start + (x & TILE_MASK),
+                           length);
+        } else {
+          Arrays.fill(empty, 0, length, 0);
+          visitor.visitRow(row, x - originX, empty, 0, length);
+          if (! isZero(empty, 0, length)) {
+            System.arraycopy(empty, 0, writableTile(index),
+                             start + (x & TILE_MASK), length);
+          }
+        }
+        x += length;
+      }
+    }
+  }
+
+  @Override
+  void scanRows(int fromRow, int toRow, RowVisitor visitor) {
+    for (int row = fromRow; row < toRow; row ++) {
+      int y = row + originY;
+      int tileRow = (y >> TILE_SHIFT) * tilesAcross;
+      int start = (y & TILE_MASK) << TILE_SHIFT;
+      for (int x = originX, end = originX + width; x < end; ) {
+        int length = Math.min(end, (x | TILE_MASK) + 1) - x;
+        int [] tile = tiles[tileRow + (x >> TILE_SHIFT)];
+        if (tile == null) {
+          visitor.visitRow(row, x - originX, EMPTY_ROW, 0, length);
+        } else {
+          visitor.visitRow(row, x - originX, tile, start + (x & TILE_MASK),
+                           length);
+        }
+        x += length;
+      }
+    }
+  }
+
+  @Override
+  PixelStore copy() {
+    int [] [] newTiles = new int[tiles.length][];
+    for (int i = 0; i < tiles.length; i ++) {
+      if (tiles[i] != null) {
+        newTiles[i] = tiles[i].clone();
+      }
+    }
+    return new TiledPixelStore(width, height, originX, originY, newTiles);
+  }
+
+  /** Mirror the image left to right.  Each row of tiles is reversed, as is
+   *  each row within each tile.  The tiles are shared with the result, so
+   *  this store must not be used afterwards.
+   *
+   *  @return the store holding the flipped image
+   */
+  @Override
+  PixelStore flipHorizontally() {
+    int [] [] newTiles = new int[tiles.length][];
+    for (int tileRow = 0; tileRow < tilesDown; tileRow ++) {
+      for (int tileCol = 0; tileCol < tilesAcross; tileCol ++) {
+        int [] tile = tiles[tileRow * tilesAcross + tileCol];
+        if (tile != null) {
+          flipTileHorizontally(tile);
+        }
+        newTiles[tileRow * tilesAcross + tilesAcross - 1 - tileCol] = tile;
+      }
+    }
+    return new TiledPixelStore(width, height,
+                               tilesAcross * TILE_SIZE - width - originX,
+                               originY, newTiles);
+  }
+
+  /** Mirror the image top to bottom.  The rows of tiles are reversed, as
+   *  are the rows within each tile.  The tiles are shared with the result,
+   *  so this store must not be used afterwards.
+   *
+   *  @return the store holding the flipped image
+   */
+  @Override
+  PixelStore flipVertically() {
+    int [] [] newTiles = new int[tiles.length][];
+    for (int tileRow = 0; tileRow < tilesDown; tileRow ++) {
+      for (int tileCol = 0; tileCol < tilesAcross; tileCol ++) {
+        int [] tile = tiles[tileRow * tilesAcross + tileCol];
+        if (tile != null) {
+          flipTileVertically(tile);
+        }
+        newTiles[(tilesDown - 1 - tileRow) * tilesAcross + tileCol] = tile;
+      }
+    }
+    return new TiledPixelStore(width, height, originX,
+                               tilesDown * TILE_SIZE - height - originY,
+                               newTiles);
+  }
+
+  /** Rotate the image 90 degrees clockwise.  Tile (tileRow, tileCol) moves
+   *  to (tileCol, tilesDown - 1 - tileRow) of the rotated grid, and its
+   *  contents are rotated in place on the way, several rows of tiles at a
+   *  time.  The tiles are shared with the result, so this store must not
+   *  be used afterwards.
+   *
+   *  @return the store holding the rotated image
+   */
+  @Override
+  PixelStore rotateClockwise() {
+    int [] [] newTiles = turnTiles(1);
+    return new TiledPixelStore(height, width,
+                               tilesDown * TILE_SIZE - height - originY,
+                               originX, newTiles);
+  }
+
+  /** Rotate the image 90 degrees counterclockwise.  Tile (tileRow, tileCol)
+   *  moves to (tilesAcross - 1 - tileCol, tileRow) of the rotated grid, in
+   *  the same way as for rotateClockwise().
+   *
+   *  @return the store holding the rotated image
+   */
+  @Override
+  PixelStore rotateCounterclockwise() {
+    int [] [] newTiles = turnTiles(3);
+    return new TiledPixelStore(height, width, originY,
+                               tilesAcross * TILE_SIZE - width - originX,
+                               newTiles);
+  }
+
+  /** Rotate the image 180 degrees.  Tile (tileRow, tileCol) moves to
+   *  (tilesDown - 1 - tileRow, tilesAcross - 1 - tileCol), in the same way
+   *  as for rotateClockwise().
+   *
+   *  @return the store holding the rotated image
+   */
+  @Override
+  PixelStore rotateHalfTurn() {
+    int [] [] newTiles = turnTiles(2);
+    return new TiledPixelStore(width, height,
+                               tilesAcross * TILE_SIZE - width - originX,
+                               tilesDown * TILE_SIZE - height - originY,
+                               newTiles);
+  }
+
+  /** Scale the image by a factor of 0.5 in each dimension.  The new image
+   *  is built one tile at a time; a tile whose source tiles were never
+   *  allocated is left unallocated too.
+   *
+   *  @return the store holding the reduced image
+   */
+  @Override
+  PixelStore halve() {
+    PixelKernels kernels = PixelKernels.get();
+    TiledPixelStore result = new TiledPixelStore(width / 2, height / 2);
+    int [] upper = new int[2 * TILE_SIZE];
+    int [] lower = new int[2 * TILE_SIZE];
+    for (int tileRow = 0; tileRow < result.tilesDown; tileRow ++) {
+      int firstRow = tileRow << TILE_SHIFT;
+      int lastRow = Math.min(result.height, firstRow + TILE_SIZE);
+      for (int tileCol = 0; tileCol < result.tilesAcross; tileCol ++) {
+        int firstCol = tileCol << TILE_SHIFT;
+        int length = Math.min(result.width, firstCol + TILE_SIZE) - firstCol;
+        if (isEmpty(2 * firstRow, 2 * lastRow, 2 * firstCol,
+                    2 * (firstCol + length))) {
+          continue;
+        }
+        int [] tile = result.writableTile(tileRow * result.tilesAcross
+                                          + tileCol);
+        for (int row = firstRow; row < lastRow; row ++) {
+          readSpan(2 * row, 2 * firstCol, 2 * length, upper, 0);
+          readSpan(2 * row + 1, 2 * firstCol, 2 * length, lower, 0);
+          kernels.averageSquares(upper, 0, lower, 0, tile,
+                                 (row - firstRow) << TILE_SHIFT, length);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**************************************************************************
+   * Private methods
+   *************************************************************************/
+
+  /** Get a tile for writing, allocating it if need be.  Allocation is
+   *  synchronized so that threads working on different rows of the same
+   *  tile agree on which array is the tile.
+   *
+   *  @param index the position of the tile in tiles
+   *  @return the tile
+   */
+  private int [] writableTile(int index) {
+    int [] tile = tiles[index];
+    if (tile != null) {
+      return tile;
+    }
+    synchronized (tiles) {
+      if (tiles[index] == null) {
+        tiles[index] = new int[TILE_SIZE * TILE_SIZE];
+      }
+      return tiles[index];
+    }
+  }
+
+  /** Check whether a rectangle of the image lies entirely in tiles that
+   *  have not been allocated
+   *
+   *  @param fromRow the first row of the rectangle
+   *  @param toRow one past the last row
+   *  @param fromCol the first column of the rectangle
+   *  @param toCol one past the last column
+   *  @return true if every pixel of the rectangle is known to be zero
+   */
+  private boolean isEmpty(int fromRow, int toRow, int fromCol, int toCol) {
+    for (int tileRow = (fromRow + originY) >> TILE_SHIFT;
+         tileRow <= (toRow - 1 + originY) >> TILE_SHIFT; tileRow ++) {
+      for (int tileCol = (fromCol + originX) >> TILE_SHIFT;
+           tileCol <= (toCol - 1 + originX) >> TILE_SHIFT; tileCol ++) {
+        if (tiles[tileRow * tilesAcross + tileCol] != null) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Check whether part of an array is all zeros
+   *
+   *  @param values the array to check
+   *  @param offset the first element to check
+   *  @param length the number of elements to check
+   *  @return true if they are all zero
+   */
+  private static boolean isZero(int [] values, int offset, int length) {
+    int bits = 0;
+    for (int i = offset; i < offset + length; i ++) {
+      bits |= values[i];
+    }
+    return bits == 0;
+  }
+
+  /** Reverse each row of a tile in place
+   *
+   *  @param tile the tile to flip
+   */
+  private static void flipTileHorizontally(int [] tile) {
+    for (int start = 0; start < tile.length; start += TILE_SIZE) {
+      for (int left = start, right = start + TILE_MASK; left < right;
+           left ++, right --) {
+        int temp = tile[left];
+        tile[left] = tile[right];
+        tile[right] = temp;
+      }
+    }
+  }
+
+  /** Reverse the order of the rows of a tile in place
+   *
+   *  @param tile the tile to flip
+   */
+  private static void flipTileVertically(int [] tile) {
+    int [] buffer = new int[TILE_SIZE];
+    for (int top = 0, bottom = TILE_MASK; top < bottom; top ++, bottom --) {
+      System.arraycopy(tile, top << TILE_SHIFT, buffer, 0, TILE_SIZE);
+      System.arraycopy(tile, bottom << TILE_SHIFT, tile, top << TILE_SHIFT,
+                       TILE_SIZE);
+      System.arraycopy(buffer, 0, tile, bottom << TILE_SHIFT, TILE_SIZE);
+    }
+  }
+
+  /** Turn each tile in place and move it to its place in the turned grid.
+   *  Rows of tiles are worked on in parallel.
+   *
+   *  @param turns the number of clockwise quarter turns, 1 .. 3
+   *  @return the tiles of the turned grid
+   */
+  private int [] [] turnTiles(final int turns) {
+    final int [] [] newTiles = new int[tiles.length][];
+
+    // Each row of tiles counts as a row of all the pixels in it
+    int pixelsPerRow =
+      (int) Math.min(Integer.MAX_VALUE, (long) width << TILE_SHIFT);
+    RowBands.run(pixelsPerRow, tilesDown, 1, (band, fromTileRow, toTileRow) -> {
+      for (int tileRow = fromTileRow; tileRow < toTileRow; tileRow ++) {
+        for (int tileCol = 0; tileCol < tilesAcross; tileCol ++) {
+          int [] tile = tiles[tileRow * tilesAcross + tileCol];
+          if (tile == null) {
+            continue;
+          }
+          if (turns == 2) {
+            Reorientation.halfTurn(tile, 0, TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            newTiles[(tilesDown - 1 - tileRow) * tilesAcross + tilesAcross
+                     - 1 - tileCol] = tile;
+          } else if (turns == 1) {
+            Reorientation.turnSquare(tile, 0, TILE_SIZE, TILE_SIZE, true);
+            newTiles[tileCol * tilesDown + tilesDown - 1 - tileRow] = tile;
+          } else {
+            Reorientation.turnSquare(tile, 0, TILE_SIZE, TILE_SIZE, false);
+            newTiles[(tilesAcross - 1 - tileCol) * tilesDown + tileRow] =
+              tile;
+          }
+        }
+      }
+    });
+    return newTiles;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Tests for applying filters
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+
+/**
+ * Every method of applying a filter must agree with a plain weighted sum,
+ * worked out here the obvious way, to within rounding.
+ */
+public class ConvolutionTest {
+
+  private static final int WIDTH = 213;
+  private static final int HEIGHT = 150;
+
+  /**
+   * Utility method: apply a filter one pixel at a time.
+   */
+  private int[][] reference(int[][] pixels, double[][] filter) {
+    int height = pixels.length;
+    int width = pixels[0].length;
+    int[][] result = new int[height][width];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        double sum = 0;
+        for (int i = 0; i < filter.length; i++) {
+          for (int j = 0; j < filter[i].length; j++) {
+            int r = Math.max(0, Math.min(height - 1,
+                                         row + i - filter.length / 2));
+            int c = Math.max(0, Math.min(width - 1,
+                                         col + j - filter[i].length / 2));
+            sum += filter[i][j] * pixels[r][c];
+          }
+        }
+        result[row][col] = (int) Math.max(0, Math.min(255, Math.round(sum)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Utility method: make a filter that is the product of a column and a
+   * row of weights.
+   */
+  private double[][] product(double[] column, double[] row) {
+    double[][] filter = new double[column.length][row.length];
+    for (int i = 0; i < column.length; i++) {
+      for (int j = 0; j < row.length; j++) {
+        filter[i][j] = column[i] * row[j];
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * Utility method: check every method against the reference.  Working
+   * directly adds up the same products in the same order, so it must give
+   * exactly the same result; other methods may round the other way when a
+   * sum lands on a half.
+   */
+  private void checkMethods(double[][] filter) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    int[][] expected = reference(pixels, filter);
+    Convolution convolution = new Convolution(filter);
+    for (Convolution.Method method : Convolution.Method.values()) {
+      int[][] actual = convolution.apply(IntPixelStore.fromArray(pixels),
+                                         method).toArray();
+      if (method == Convolution.Method.DIRECT) {
+        assertArrayEquals(expected, actual);
+      }
+      for (int row = 0; row < HEIGHT; row++) {
+        for (int col = 0; col < WIDTH; col++) {
+          assertTrue(Math.abs(expected[row][col] - actual[row][col]) <= 1,
+                     method + " is wrong");
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRankOneFilter() {
+    double[] gaussian = { 1 / 16.0, 4 / 16.0, 6 / 16.0, 4 / 16.0, 1 / 16.0 };
+    double[][] filter = product(gaussian, gaussian);
+    Convolution convolution = new Convolution(filter);
+    assertEquals(1, convolution.getRank());
+    assertEquals(Convolution.Method.SEPARABLE,
+                 convolution.chooseMethod(WIDTH, HEIGHT));
+    checkMethods(filter);
+  }
+
+  @Test
+  public void testLowRankFilter() {
+    double[][] filter = product(new double[] { 1, 2, 3, 2, 1, 0.5, 0.25 },
+                                new double[] { 0.5, -1, 2, 1, 0.5 });
+    double[][] second = product(new double[] { 0, 1, 0, -1, 0, 1, 0 },
+                                new double[] { 1, 1, 1, 1, 1 });
+    for (int i = 0; i < filter.length; i++) {
+      for (int j = 0; j < filter[i].length; j++) {
+        filter[i][j] = (filter[i][j] + second[i][j]) / 10;
+      }
+    }
+    Convolution convolution = new Convolution(filter);
+    assertEquals(2, convolution.getRank());
+    assertEquals(Convolution.Method.SEPARABLE,
+                 convolution.chooseMethod(WIDTH, HEIGHT));
+    checkMethods(filter);
+  }
+
+  @Test
+  public void testButtonFilters() {
+    double[][] blur = { { 1.0/16.0, 1.0/16.0, 1.0/16.0 },
+                        { 1.0/16.0, 1.0/2.0, 1.0/16.0 },
+                        { 1.0/16.0, 1.0/16.0, 1.0/16.0 }
+    };
+    double[][] edges = { { -1, -1, -1, -1, -1 },
+                         { -1,  1,  1,  1, -1 },
+                         { -1,  1,  8,  1, -1 },
+                         { -1,  1,  1,  1, -1 },
+                         { -1, -1, -1, -1, -1 }
+    };
+    assertEquals(2, new Convolution(blur).getRank());
+    assertEquals(Convolution.Method.FIXED_POINT,
+                 new Convolution(blur).chooseMethod(WIDTH, HEIGHT));
+    assertEquals(3, new Convolution(edges).getRank());
+    checkMethods(blur);
+    checkMethods(edges);
+  }
+
+  @Test
+  public void testFullRankFilter() {
+    Random random = new Random(9);
+    double[][] filter = new double[4][6];
+    for (double[] row : filter) {
+      for (int j = 0; j < row.length; j++) {
+        row[j] = random.nextDouble() / 12;
+      }
+    }
+    Convolution convolution = new Convolution(filter);
+    assertEquals(4, convolution.getRank());
+    assertEquals(Convolution.Method.FIXED_POINT,
+                 convolution.chooseMethod(WIDTH, HEIGHT));
+    checkMethods(filter);
+  }
+
+  @Test
+  public void testLargeFilter() {
+    Random random = new Random(15);
+    double[][] filter = new double[21][17];
+    for (double[] row : filter) {
+      for (int j = 0; j < row.length; j++) {
+        row[j] = (random.nextDouble() - 0.4) / 100;
+      }
+    }
+    Convolution convolution = new Convolution(filter);
+    assertEquals(Convolution.Method.FOURIER,
+                 convolution.chooseMethod(WIDTH, HEIGHT));
+    assertEquals(Convolution.Method.FIXED_POINT,
+                 convolution.chooseMethod(3, 3));
+    checkMethods(filter);
+  }
+
+  @Test
+  public void testFixedPoint() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore source = IntPixelStore.fromArray(pixels);
+
+    // Weights that are multiples of a power of two are exact in fixed point
+    double[][] blur = { { 1.0/16.0, 1.0/16.0, 1.0/16.0 },
+                        { 1.0/16.0, 1.0/2.0, 1.0/16.0 },
+                        { 1.0/16.0, 1.0/16.0, 1.0/16.0 }
+    };
+    Convolution convolution = new Convolution(blur);
+    assertTrue(convolution.hasFixedPoint());
+    assertArrayEquals(reference(pixels, blur),
+        convolution.apply(source, Convolution.Method.FIXED_POINT).toArray());
+
+    // Weights too big for int sums are worked in doubles
+    double[][] huge = { { 0, 1e6, 0 }, { 1e6, -4e6 + 1, 1e6 },
+                        { 0, 1e6, 0 } };
+    convolution = new Convolution(huge);
+    assertFalse(convolution.hasFixedPoint());
+    assertEquals(Convolution.Method.DIRECT,
+                 convolution.chooseMethod(WIDTH, HEIGHT));
+    assertArrayEquals(reference(pixels, huge),
+        convolution.apply(source, Convolution.Method.FIXED_POINT).toArray());
+
+    // So are pixels outside the range of gray values
+    pixels[HEIGHT / 2][WIDTH / 2] = 100000;
+    pixels[0][0] = -100000;
+    convolution = new Convolution(blur);
+    assertArrayEquals(reference(pixels, blur),
+        convolution.apply(IntPixelStore.fromArray(pixels),
+                          Convolution.Method.FIXED_POINT).toArray());
+  }
+
+  @Test
+  public void testKindsOfStore() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    double[] gaussian = { 1 / 4.0, 2 / 4.0, 1 / 4.0 };
+    Convolution convolution = new Convolution(product(gaussian, gaussian));
+    int[][] expected = convolution.apply(IntPixelStore.fromArray(pixels))
+                                  .toArray();
+    PixelStore bytes = BytePixelStore.copyOf(IntPixelStore.fromArray(pixels));
+    assertArrayEquals(expected, convolution.apply(bytes).toArray());
+    PixelStore tiles = TiledPixelStore.copyOf(IntPixelStore.fromArray(pixels));
+    assertArrayEquals(expected, convolution.apply(tiles).toArray());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Tests for counter-mode encryption
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.image.ColorModel;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * The generator is checked against the known answer published with
+ * Philox.  The key byte for a pixel must depend only on its position, so
+ * encrypting runs of pixels starting anywhere, regions of an image, and
+ * bands worked on at once must all agree with encrypting the whole image
+ * in one pass.
+ */
+public class CounterKeystreamTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  @Test
+  public void testKnownAnswer() {
+    int[] block = new int[4];
+    new CounterKeystream(0, 0).block(0, block);
+    assertArrayEquals(new int[] { 0x6627e8d5, 0xe169c58d, 0xbc57ac4c,
+                                  0x9b00dbd8 }, block);
+  }
+
+  @Test
+  public void testRunsAgree() {
+    CounterKeystream keystream = new CounterKeystream(537);
+    int[] whole = new int[100];
+    keystream.apply(1000, whole, 0, whole.length);
+    for (int start = 0; start < 40; start += 7) {
+      int[] part = new int[50];
+      keystream.apply(1000 + start, part, 3, 40);
+      for (int i = 0; i < 40; i++) {
+        assertEquals(whole[start + i], part[3 + i]);
+      }
+    }
+  }
+
+  @Test
+  public void testEncryptDecrypt() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    int[][] encrypted = image.getPixels();
+    int changed = 0;
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertTrue(encrypted[row][col] >= 0 && encrypted[row][col] <= 255);
+        if (encrypted[row][col] != pixels[row][col]) {
+          changed++;
+        }
+      }
+    }
+    assertTrue(changed > WIDTH * HEIGHT * 9 / 10);
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    assertArrayEquals(pixels, image.getPixels());
+  }
+
+  @Test
+  public void testLegacyUnchanged() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage legacy = new ProjectImage(ColorModel.getRGBdefault(),
+                                           pixels);
+    ProjectImage mode = new ProjectImage(ColorModel.getRGBdefault(),
+                                         pixels);
+    legacy.encryptDecrypt(537);
+    mode.encryptDecrypt(537, EncryptionMode.LEGACY);
+    assertArrayEquals(legacy.getPixels(), mode.getPixels());
+  }
+
+  @Test
+  public void testRegions() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    int[][] encrypted = image.getPixels();
+    image.getPyramidLevel(2);
+
+    // Decrypting a region gives back just that region
+    image.encryptDecryptRegion(537, 20, 31, 17, 9);
+    int[][] result = image.getPixels();
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        boolean inside = row >= 20 && row < 29 && col >= 31 && col < 48;
+        assertEquals(inside ? pixels[row][col] : encrypted[row][col],
+                     result[row][col]);
+      }
+    }
+
+    // The rest can be decrypted piece by piece, and the halved copies
+    // follow
+    image.encryptDecryptRegion(537, 0, 0, WIDTH, 20);
+    image.encryptDecryptRegion(537, 29, 0, WIDTH, HEIGHT - 29);
+    image.encryptDecryptRegion(537, 20, 0, 31, 9);
+    image.encryptDecryptRegion(537, 20, 48, WIDTH - 48, 9);
+    assertArrayEquals(pixels, image.getPixels());
+    ProjectImage expected = new ProjectImage(ColorModel.getRGBdefault(),
+                                             pixels);
+    assertArrayEquals(expected.getPyramidLevel(2), image.getPyramidLevel(2));
+
+    assertThrows(IllegalArgumentException.class,
+                 () -> image.encryptDecryptRegion(537, 60, 0, 1, 2));
+  }
+
+  @Test
+  public void testDeferredPairsCancel() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    image.setDeferred(true);
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    image.encryptDecrypt(537);
+    image.encryptDecrypt(537);
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    assertArrayEquals(pixels, image.getPixels());
+
+    // Different modes with the same key do not cancel
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    image.encryptDecrypt(537);
+    ProjectImage expected = new ProjectImage(ColorModel.getRGBdefault(),
+                                             pixels);
+    expected.encryptDecrypt(537, EncryptionMode.COUNTER);
+    expected.encryptDecrypt(537);
+    assertArrayEquals(expected.getPixels(), image.getPixels());
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    assertParallelMatchesSerial(() -> {
+      ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                            pixels);
+      image.encryptDecrypt(42, EncryptionMode.COUNTER);
+      return image.getPixels();
+    });
+  }
+}
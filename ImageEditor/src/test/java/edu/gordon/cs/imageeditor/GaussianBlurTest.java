@@ -0,0 +1,96 @@
+/*
+ * Tests for the recursive Gaussian blur
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * The recursive blur only approximates a Gaussian, so it is checked
+ * against a filter of sampled Gaussian weights to within a few gray
+ * levels.
+ */
+public class GaussianBlurTest {
+
+  private static final int WIDTH = 213;
+  private static final int HEIGHT = 150;
+
+  /**
+   * Utility method: make an image of random gray values that change
+   * smoothly enough for blurring to leave some detail.
+   */
+  private int[][] smoothPixels(int width, int height) {
+    Random random = new Random(122);
+    int[][] pixels = new int[height][width];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        pixels[row][col] = (int) (127.5 + 60 * Math.sin(row / 9.0)
+                                  + 60 * Math.cos(col / 13.0))
+                           + random.nextInt(7) - 3;
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Utility method: make a filter of Gaussian weights reaching four
+   * standard deviations each way.
+   */
+  private double[][] gaussianFilter(double sigma) {
+    int radius = (int) Math.ceil(4 * sigma);
+    double[] weights = new double[2 * radius + 1];
+    double total = 0;
+    for (int i = 0; i < weights.length; i++) {
+      double x = i - radius;
+      weights[i] = Math.exp(-x * x / (2 * sigma * sigma));
+      total += weights[i];
+    }
+    double[][] filter = new double[weights.length][weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      for (int j = 0; j < weights.length; j++) {
+        filter[i][j] = weights[i] * weights[j] / (total * total);
+      }
+    }
+    return filter;
+  }
+
+  @Test
+  public void testMatchesGaussianFilter() {
+    PixelStore source = IntPixelStore.fromArray(smoothPixels(WIDTH, HEIGHT));
+    for (double sigma : new double[] { 0.8, 2, 3.5, 10 }) {
+      int[][] expected = new Convolution(gaussianFilter(sigma))
+                             .apply(source).toArray();
+      int[][] actual = new GaussianBlur(sigma).apply(source).toArray();
+      for (int row = 0; row < HEIGHT; row++) {
+        for (int col = 0; col < WIDTH; col++) {
+          assertEquals(expected[row][col], actual[row][col], 3,
+                       "sigma " + sigma + " at " + row + ", " + col);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testConstantImage() {
+    int[][] pixels = new int[40][30];
+    for (int[] row : pixels) {
+      java.util.Arrays.fill(row, 77);
+    }
+    int[][] actual = new GaussianBlur(25).apply(IntPixelStore.fromArray(pixels))
+                                         .toArray();
+    assertArrayEquals(pixels, actual);
+  }
+
+  @Test
+  public void testParallel() {
+    PixelStore source = IntPixelStore.fromArray(smoothPixels(600, 500));
+    assertParallelMatchesSerial(
+      () -> new GaussianBlur(5).apply(source).toArray());
+    assertThrows(IllegalArgumentException.class, () -> new GaussianBlur(0.4));
+    assertThrows(IllegalArgumentException.class,
+                 () -> new GaussianBlur(Double.NaN));
+  }
+}
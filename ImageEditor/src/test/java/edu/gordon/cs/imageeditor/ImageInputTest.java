@@ -0,0 +1,236 @@
+/*
+ * Tests for reading image files
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.AWTException;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+
+/**
+ * Files are written with ImageIO in each of the layouts a reader may give
+ * back - packed RGB, gray bytes, and others that must be copied - and must
+ * read back with the values the editor has always used: gray scale images
+ * as values 0 .. 255, and color images as opaque default RGB.  Reading a
+ * region or subsampling must pick out the same pixels as reading the whole
+ * file does.
+ */
+public class ImageInputTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  /**
+   * Utility method: write an image to a temporary file.
+   */
+  private File write(BufferedImage image, String format) throws IOException {
+    File file = File.createTempFile("ImageInputTest", "." + format);
+    file.deleteOnExit();
+    assertTrue(ImageIO.write(image, format, file));
+    return file;
+  }
+
+  /**
+   * Utility method: a color image made from random pixels.
+   */
+  private BufferedImage colorImage(int type) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        image.setRGB(col, row, 0xFF000000 | pixels[row][col] * 0x10305);
+      }
+    }
+    return image;
+  }
+
+  @Test
+  public void testGray() throws IOException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                            BufferedImage.TYPE_BYTE_GRAY);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        image.getRaster().setSample(col, row, 0, pixels[row][col]);
+      }
+    }
+    File file = write(image, "png");
+    for (boolean forceGray : new boolean[] { false, true }) {
+      PixelStore store = ImageInput.readPixelStore(file, forceGray);
+      assertTrue(store instanceof BytePixelStore);
+      assertArrayEquals(pixels, store.toArray());
+    }
+  }
+
+  @Test
+  public void testColor() throws IOException, AWTException {
+    BufferedImage image = colorImage(BufferedImage.TYPE_INT_RGB);
+    File file = write(image, "png");
+    int[][] pixels = ImageInput.readFile(file, false);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(image.getRGB(col, row), pixels[row][col]);
+      }
+    }
+    assertFalse(ImageInput.isSimpleGrayScale(pixels));
+
+    PixelStore gray = ImageInput.readPixelStore(file, true);
+    assertTrue(gray instanceof BytePixelStore);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(ImageInput.grayValue(image.getRGB(col, row)),
+                     gray.get(row, col));
+      }
+    }
+  }
+
+  @Test
+  public void testCopiedLayouts() throws IOException, AWTException {
+    int[] types = { BufferedImage.TYPE_INT_ARGB,
+                    BufferedImage.TYPE_BYTE_INDEXED,
+                    BufferedImage.TYPE_BYTE_BINARY };
+    for (int type : types) {
+      BufferedImage image = colorImage(type);
+      int[][] pixels = ImageInput.readFile(write(image, "png"), false);
+      for (int row = 0; row < HEIGHT; row++) {
+        for (int col = 0; col < WIDTH; col++) {
+          assertEquals(image.getRGB(col, row), pixels[row][col],
+                       "type " + type + " at " + row + ", " + col);
+        }
+      }
+    }
+
+    // 16 bit gray is cut to its top 8 bits
+    int[][] expected = randomPixels(WIDTH, HEIGHT);
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                            BufferedImage.TYPE_USHORT_GRAY);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        image.getRaster().setSample(col, row, 0, expected[row][col] * 257);
+      }
+    }
+    assertArrayEquals(expected,
+                      ImageInput.readFile(write(image, "png"), false));
+  }
+
+  @Test
+  public void testJpeg() throws IOException, AWTException {
+    BufferedImage image = colorImage(BufferedImage.TYPE_INT_RGB);
+    File file = write(image, "jpg");
+    BufferedImage expected = ImageIO.read(file);
+    int[][] pixels = ImageInput.readFile(file, false);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(expected.getRGB(col, row), pixels[row][col]);
+      }
+    }
+  }
+
+  /**
+   * Utility method: check that part of a file reads the same as the whole.
+   */
+  private void checkPart(File file, Rectangle region, int subsampling)
+      throws IOException, AWTException {
+    int[][] whole = ImageInput.readFile(file, false);
+    int[][] part = ImageInput.readFile(file, false, region, subsampling);
+    Rectangle area = region == null
+                     ? new Rectangle(WIDTH, HEIGHT) : region;
+    assertEquals((area.height + subsampling - 1) / subsampling, part.length);
+    for (int row = 0; row < part.length; row++) {
+      assertEquals((area.width + subsampling - 1) / subsampling,
+                   part[row].length);
+      for (int col = 0; col < part[row].length; col++) {
+        assertEquals(whole[area.y + row * subsampling]
+                          [area.x + col * subsampling],
+                     part[row][col]);
+      }
+    }
+  }
+
+  @Test
+  public void testRegions() throws IOException, AWTException {
+    BufferedImage gray = new BufferedImage(WIDTH, HEIGHT,
+                                           BufferedImage.TYPE_BYTE_GRAY);
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        gray.getRaster().setSample(col, row, 0, pixels[row][col]);
+      }
+    }
+    File[] files = { write(gray, "png"),
+                     write(colorImage(BufferedImage.TYPE_INT_RGB), "png"),
+                     write(colorImage(BufferedImage.TYPE_INT_RGB), "jpg"),
+                     write(colorImage(BufferedImage.TYPE_BYTE_INDEXED),
+                           "png") };
+    for (File file : files) {
+      checkPart(file, null, 1);
+      checkPart(file, null, 4);
+      checkPart(file, new Rectangle(13, 7, 50, 41), 1);
+      checkPart(file, new Rectangle(13, 7, 50, 41), 3);
+      checkPart(file, new Rectangle(WIDTH - 1, HEIGHT - 1, 1, 1), 5);
+    }
+  }
+
+  @Test
+  public void testReadImage() throws IOException {
+    File file = write(colorImage(BufferedImage.TYPE_INT_RGB), "png");
+    assertEquals(new Dimension(WIDTH, HEIGHT), ImageInput.readSize(file));
+
+    ProjectImage color = ImageInput.readImage(file, true, null, 2);
+    assertEquals((WIDTH + 1) / 2, color.getWidth());
+    assertEquals((HEIGHT + 1) / 2, color.getHeight());
+    assertEquals(ColorModel.getRGBdefault(), color.getColorModel());
+
+    ProjectImage gray =
+      ImageInput.readImage(file, false, new Rectangle(10, 20, 30, 40), 1);
+    assertEquals(30, gray.getWidth());
+    assertEquals(40, gray.getHeight());
+    assertTrue(gray.getColorModel() instanceof GrayScaleColorModel);
+    assertArrayEquals(
+      ImageInput.readFile(file, true, new Rectangle(10, 20, 30, 40), 1),
+      gray.getPixels());
+
+    assertThrows(IllegalArgumentException.class,
+                 () -> ImageInput.readFile(file, false, null, 0));
+    assertThrows(IllegalArgumentException.class,
+                 () -> ImageInput.readFile(file, false,
+                                           new Rectangle(80, 0, 20, 10), 1));
+    assertThrows(IllegalArgumentException.class,
+                 () -> ImageInput.readFile(file, false,
+                                           new Rectangle(0, 0, 0, 10), 1));
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    File file = File.createTempFile("ImageInputTest", ".png");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("not an image".getBytes("US-ASCII"));
+    }
+    assertThrows(IOException.class,
+                 () -> ImageInput.readPixelStore(file, false));
+
+    // A file cut short
+    File whole = write(colorImage(BufferedImage.TYPE_INT_RGB), "png");
+    byte[] bytes = Files.readAllBytes(whole.toPath());
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(bytes, 0, bytes.length / 2);
+    }
+    assertThrows(IOException.class,
+                 () -> ImageInput.readPixelStore(file, false));
+
+    File missing = new File(file.getPath() + ".missing");
+    assertThrows(IOException.class,
+                 () -> ImageInput.readPixelStore(missing, false));
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Tests for erosion, dilation, opening and closing
+ */
+package edu.gordon.cs.imageeditor;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * Erosion and dilation must agree exactly with the smallest and largest
+ * values worked out over each rectangle the obvious way.
+ */
+public class MorphologyTest {
+
+  private static final int WIDTH = 213;
+  private static final int HEIGHT = 150;
+
+  /**
+   * Utility method: find the smallest or largest value over the rectangle
+   * around each pixel, leaving out pixels beyond the edges.
+   */
+  private int[][] reference(int[][] pixels, int across, int down,
+                            boolean largest) {
+    int height = pixels.length;
+    int width = pixels[0].length;
+    int[][] result = new int[height][width];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        int extreme = pixels[row][col];
+        for (int r = Math.max(0, row - down);
+             r <= Math.min(height - 1, row + down); r++) {
+          for (int c = Math.max(0, col - across);
+               c <= Math.min(width - 1, col + across); c++) {
+            extreme = largest ? Math.max(extreme, pixels[r][c])
+                              : Math.min(extreme, pixels[r][c]);
+          }
+        }
+        result[row][col] = extreme;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Utility method: carry out an operation on an array of pixels.
+   */
+  private int[][] apply(Morphology.Operation operation, int[][] pixels,
+                        int across, int down) {
+    return new Morphology(operation, across, down)
+             .apply(IntPixelStore.fromArray(pixels)).toArray();
+  }
+
+  @Test
+  public void testErodeDilate() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    int[][] sizes = { { 0, 0 }, { 1, 1 }, { 3, 0 }, { 0, 5 }, { 7, 2 },
+                      { 150, 100 }, { 1000, 3 } };
+    for (int[] size : sizes) {
+      assertArrayEquals(reference(pixels, size[0], size[1], false),
+                        apply(Morphology.Operation.ERODE, pixels, size[0],
+                              size[1]),
+                        "erode " + size[0] + " x " + size[1]);
+      assertArrayEquals(reference(pixels, size[0], size[1], true),
+                        apply(Morphology.Operation.DILATE, pixels, size[0],
+                              size[1]),
+                        "dilate " + size[0] + " x " + size[1]);
+    }
+  }
+
+  @Test
+  public void testOpenClose() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    assertArrayEquals(
+      reference(reference(pixels, 2, 3, false), 2, 3, true),
+      apply(Morphology.Operation.OPEN, pixels, 2, 3));
+    assertArrayEquals(
+      reference(reference(pixels, 4, 1, true), 4, 1, false),
+      apply(Morphology.Operation.CLOSE, pixels, 4, 1));
+    assertThrows(IllegalArgumentException.class,
+                 () -> new Morphology(Morphology.Operation.OPEN, -1, 0));
+  }
+
+  @Test
+  public void testParallel() {
+    int[][] pixels = randomPixels(700, 500);
+    int[][] serial = assertParallelMatchesSerial(
+      () -> apply(Morphology.Operation.ERODE, pixels, 4, 6));
+    assertArrayEquals(reference(pixels, 4, 6, false), serial);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Tests for the inner loops of the image operations
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The kernels in use - vectorized when the vector API is available - must
+ * give exactly the same results as the scalar ones.  Runs have lengths
+ * that leave something over after the last whole vector.
+ */
+public class PixelKernelsTest {
+
+  private static final int LENGTH = 1003;
+
+  private final PixelKernels scalar = new PixelKernels();
+  private final PixelKernels kernels = PixelKernels.get();
+  private final Random random = new Random(10);
+
+  @Test
+  public void testVectorKernelsLoaded() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      assertTrue(kernels.isVectorized());
+    }
+  }
+
+  @Test
+  public void testMultiplyAdd() {
+    int[] ints = new int[LENGTH + 7];
+    double[] doubles = new double[LENGTH + 7];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = random.nextInt(256);
+      doubles[i] = random.nextDouble() * 300 - 20;
+    }
+    double[] expected = new double[LENGTH];
+    double[] actual = new double[LENGTH];
+    for (int step = 0; step < 7; step++) {
+      double weight = random.nextDouble() - 0.3;
+      scalar.multiplyAdd(expected, ints, step, weight, LENGTH - step);
+      kernels.multiplyAdd(actual, ints, step, weight, LENGTH - step);
+      scalar.multiplyAdd(expected, doubles, step, weight, LENGTH);
+      kernels.multiplyAdd(actual, doubles, step, weight, LENGTH);
+    }
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void testFixedPoint() {
+    int[] source = new int[LENGTH + 7];
+    for (int i = 0; i < source.length; i++) {
+      source[i] = random.nextInt(256);
+    }
+    int[] expected = new int[LENGTH];
+    int[] actual = new int[LENGTH];
+    for (int step = 0; step < 7; step++) {
+      int weight = random.nextInt(1 << 17) - (1 << 15);
+      scalar.multiplyAdd(expected, source, step, weight, LENGTH);
+      kernels.multiplyAdd(actual, source, step, weight, LENGTH);
+    }
+    assertArrayEquals(expected, actual);
+    expected[0] = 255 << 16 | 1 << 15;
+    expected[1] = -(1 << 15);
+    actual[0] = expected[0];
+    actual[1] = expected[1];
+
+    int[] expectedValues = new int[LENGTH];
+    int[] actualValues = new int[LENGTH];
+    scalar.shiftAndClamp(expected, 16, expectedValues, LENGTH);
+    kernels.shiftAndClamp(actual, 16, actualValues, LENGTH);
+    assertArrayEquals(expectedValues, actualValues);
+    assertEquals(255, actualValues[0]);
+    assertEquals(0, actualValues[1]);
+  }
+
+  @Test
+  public void testRoundAndClamp() {
+    double[] sums = new double[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      switch (i % 5) {
+        case 0: sums[i] = random.nextInt(300) - 20 + 0.5; break;
+        case 1: sums[i] = random.nextDouble() * 400 - 100; break;
+        case 2: sums[i] = Math.nextDown(random.nextInt(258) - 1 + 0.5); break;
+        case 3: sums[i] = random.nextInt(258) - 1; break;
+        default: sums[i] = i % 3 == 0 ? Double.NaN
+                           : i % 3 == 1 ? 1e300 : Double.NEGATIVE_INFINITY;
+      }
+    }
+    sums[0] = 0.49999999999999994;
+    sums[1] = -0.5;
+    sums[2] = 255.5;
+    int[] expected = new int[LENGTH];
+    int[] actual = new int[LENGTH];
+    scalar.roundAndClamp(sums, expected, LENGTH);
+    kernels.roundAndClamp(sums, actual, LENGTH);
+    assertArrayEquals(expected, actual);
+    assertEquals(0, actual[0]);
+    assertEquals(255, actual[2]);
+  }
+
+  @Test
+  public void testAverageSquares() {
+    int[] ints = new int[2 * LENGTH + 3];
+    byte[] bytes = new byte[2 * LENGTH + 3];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = random.nextInt();
+      bytes[i] = (byte) random.nextInt(256);
+    }
+    int[] expectedInts = new int[LENGTH];
+    int[] actualInts = new int[LENGTH];
+    scalar.averageSquares(ints, 1, ints, 3, expectedInts, 0, LENGTH);
+    kernels.averageSquares(ints, 1, ints, 3, actualInts, 0, LENGTH);
+    assertArrayEquals(expectedInts, actualInts);
+
+    byte[] expectedBytes = new byte[LENGTH];
+    byte[] actualBytes = new byte[LENGTH];
+    scalar.averageSquares(bytes, 3, bytes, 0, expectedBytes, 0, LENGTH - 1);
+    kernels.averageSquares(bytes, 3, bytes, 0, actualBytes, 0, LENGTH - 1);
+    assertArrayEquals(expectedBytes, actualBytes);
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Tests for the PixelStore classes
+ */
+package edu.gordon.cs.imageeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+
+/**
+ * Each kind of store must give the same results as a plain array.  The
+ * images are big enough, and oddly enough sized, to span several partial
+ * tiles of a TiledPixelStore.
+ */
+public class PixelStoreTest {
+
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 530;
+
+  /**
+   * Utility method: make a store of the named kind holding pixels.
+   */
+  private PixelStore makeStore(String kind, int[][] pixels) {
+    PixelStore store = IntPixelStore.fromArray(pixels);
+    switch (kind) {
+      case "byte":
+        return BytePixelStore.copyOf(store);
+      case "tiled":
+        return TiledPixelStore.copyOf(store);
+      case "mapped":
+        return MappedPixelStore.copyOf(store, Integer.BYTES);
+      case "mappedByte":
+        return MappedPixelStore.copyOf(store, 1);
+      default:
+        return store;
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "byte", "tiled", "mapped", "mappedByte" })
+  public void testReadWrite(String kind) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore store = makeStore(kind, pixels);
+    assertEquals(WIDTH, store.getWidth());
+    assertEquals(HEIGHT, store.getHeight());
+    assertEquals(pixels[HEIGHT - 1][WIDTH - 1],
+                 store.get(HEIGHT - 1, WIDTH - 1));
+    store.set(257, 299, 17);
+    pixels[257][299] = 17;
+    assertArrayEquals(pixels, store.toArray());
+    assertArrayEquals(pixels, store.copy().toArray());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "byte", "tiled", "mapped", "mappedByte" })
+  public void testUpdateRows(String kind) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore store = makeStore(kind, pixels);
+    store.updateRows(10, 300, (row, col, data, offset, length) -> {
+      for (int i = 0; i < length; i++) {
+        data[offset + i] = (row + col + i) % 256;
+      }
+    });
+    for (int row = 10; row < 300; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        pixels[row][col] = (row + col) % 256;
+      }
+    }
+    assertArrayEquals(pixels, store.toArray());
+  }
+
+  /**
+   * Parts of rows, crossing tile edges, are read and written in place.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "byte", "tiled", "mapped", "mappedByte" })
+  public void testSpans(String kind) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore store = makeStore(kind, pixels);
+    int[] span = new int[WIDTH];
+    store.readSpan(300, 250, 40, span, 3);
+    for (int i = 0; i < 40; i++) {
+      assertEquals(pixels[300][250 + i], span[3 + i]);
+      span[3 + i] = i;
+      pixels[300][250 + i] = i;
+    }
+    store.writeSpan(300, 250, 40, span, 3);
+    assertArrayEquals(pixels, store.toArray());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "byte", "tiled", "mapped", "mappedByte" })
+  public void testGeometricOperations(String kind) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore expected = IntPixelStore.fromArray(pixels);
+    PixelStore store = makeStore(kind, pixels);
+
+    expected = expected.flipHorizontally().rotateClockwise().flipVertically();
+    store = store.flipHorizontally().rotateClockwise().flipVertically();
+    assertArrayEquals(expected.toArray(), store.toArray());
+
+    expected = expected.rotateClockwise().rotateClockwise().halve();
+    store = store.rotateClockwise().rotateClockwise().halve();
+    assertArrayEquals(expected.toArray(), store.toArray());
+  }
+
+  /**
+   * Utility method: turn an array of pixels a quarter turn clockwise, the
+   * plain way.
+   */
+  private int[][] turnedClockwise(int[][] pixels) {
+    int height = pixels.length;
+    int width = pixels[0].length;
+    int[][] result = new int[width][height];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        result[col][height - 1 - row] = pixels[row][col];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Quarter and half turns give the same results for square images, which
+   * are turned in place, as for others, and in parallel as serially.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "byte", "tiled", "mapped", "mappedByte" })
+  public void testTurns(String kind) {
+    int[][] sizes = { { WIDTH, HEIGHT }, { 517, 517 }, { 1, 9 }, { 8, 1 } };
+    try {
+      for (int parallel = 0; parallel < 2; parallel++) {
+        ProjectImage.setParallelism(4 * parallel, 7 * parallel);
+        for (int[] size : sizes) {
+          int[][] pixels = randomPixels(size[0], size[1]);
+          int[][] once = turnedClockwise(pixels);
+          int[][] twice = turnedClockwise(once);
+          int[][] thrice = turnedClockwise(twice);
+          assertArrayEquals(once,
+                            makeStore(kind, pixels).rotateClockwise()
+                            .toArray());
+          assertArrayEquals(twice,
+                            makeStore(kind, pixels).rotateHalfTurn()
+                            .toArray());
+          assertArrayEquals(thrice,
+                            makeStore(kind, pixels).rotateCounterclockwise()
+                            .toArray());
+          assertArrayEquals(pixels,
+                            makeStore(kind, pixels).rotateClockwise()
+                            .rotateCounterclockwise().toArray());
+        }
+      }
+    } finally {
+      ProjectImage.setParallelism(0, 0);
+    }
+  }
+
+  /**
+   * A view shows the store flipped, rotated and shifted without moving its
+   * pixels, and cannot be changed.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "byte", "tiled", "mapped", "mappedByte" })
+  public void testGeometricView(String kind) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore store = makeStore(kind, pixels);
+    for (Orientation orientation : Orientation.values()) {
+      int[][] oriented =
+        orientation.apply(IntPixelStore.fromArray(pixels)).toArray();
+      int height = oriented.length;
+      int width = oriented[0].length;
+      int shiftRows = 7 % height;
+      int shiftCols = width - 3;
+      PixelStore view = new GeometricView(store, orientation, shiftRows,
+                                          shiftCols);
+      int[][] expected = new int[height][width];
+      for (int row = 0; row < height; row++) {
+        for (int col = 0; col < width; col++) {
+          expected[(row + shiftRows) % height][(col + shiftCols) % width] =
+            oriented[row][col];
+        }
+      }
+      assertArrayEquals(expected, view.toArray());
+      assertEquals(expected[height - 1][2], view.get(height - 1, 2));
+      assertArrayEquals(expected, view.copy().toArray());
+
+      // A region that wraps round both edges before the shift, and one
+      // that does not
+      int[][] region = view.copyRegion(2, width - 5, 4, height - 3)
+        .toArray();
+      for (int row = 0; row < height - 3; row++) {
+        for (int col = 0; col < 4; col++) {
+          assertEquals(expected[2 + row][width - 5 + col], region[row][col]);
+        }
+      }
+      assertEquals(expected[height - 2][1],
+                   view.copyRegion(height - 2, 1, 1, 1).get(0, 0));
+      assertThrows(UnsupportedOperationException.class,
+                   () -> view.set(0, 0, 1));
+    }
+    assertArrayEquals(pixels, store.toArray());
+  }
+
+  /**
+   * A gray scale store cannot hold larger values, but can be widened to
+   * one that can.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = { "byte", "mappedByte" })
+  public void testWiden(String kind) {
+    PixelStore store = makeStore(kind, randomPixels(WIDTH, HEIGHT));
+    assertThrows(IllegalArgumentException.class, () -> store.set(0, 0, 256));
+    PixelStore wide = store.widen();
+    wide.set(0, 0, 0x12345678);
+    assertEquals(0x12345678, wide.get(0, 0));
+    assertEquals(store.get(HEIGHT - 1, 7), wide.get(HEIGHT - 1, 7));
+  }
+
+  /**
+   * Tiles that are never written to are never allocated, and geometric
+   * operations, or changes that leave them holding zeros, do not allocate
+   * them either.
+   */
+  @Test
+  public void testTilesAllocatedLazily() {
+    TiledPixelStore store = new TiledPixelStore(1000, 700);
+    assertEquals(0, store.getAllocatedTileCount());
+    store.set(699, 999, 5);
+    store.writeRow(0, new int[1000], 0);
+    assertEquals(1, store.getAllocatedTileCount());
+
+    PixelStore rotated = store.rotateClockwise().flipHorizontally();
+    assertEquals(1, ((TiledPixelStore) rotated).getAllocatedTileCount());
+    assertEquals(5, rotated.get(999, 699));
+
+    // Changing rows only allocates the tiles left holding something other
+    // than zeros
+    TiledPixelStore turned = (TiledPixelStore) rotated;
+    turned.updateRows(0, 1000, (row, col, data, offset, length) -> {
+      for (int i = 0; i < length; i++) {
+        data[offset + i] = data[offset + i] == 0 ? 0 : 7;
+      }
+    });
+    assertEquals(1, turned.getAllocatedTileCount());
+    assertEquals(7, turned.get(999, 699));
+    turned.updateRows(600, 700, (row, col, data, offset, length) -> {
+      if (col == 0) {
+        data[offset] = 9;
+      }
+    });
+    assertEquals(2, turned.getAllocatedTileCount());
+    assertEquals(9, turned.get(650, 0));
+    assertEquals(0, turned.get(650, 1));
+  }
+
+  /**
+   * Results of operations are made the same kind as the store they come
+   * from, unless they would take too much of the heap.  The large result
+   * is never written to, so its scratch file takes no space.
+   */
+  @Test
+  public void testResultsTooBigForHeap() {
+    PixelStore store = new IntPixelStore(WIDTH, HEIGHT);
+    assertTrue(store.createResult(2 * WIDTH, 2 * HEIGHT)
+               instanceof IntPixelStore);
+    assertTrue(new BytePixelStore(WIDTH, HEIGHT).createResult(WIDTH, HEIGHT)
+               instanceof BytePixelStore);
+
+    int width = 1 << 14;
+    int height = (int) (Runtime.getRuntime().maxMemory()
+                        / PixelStore.OFF_HEAP_FRACTION / Integer.BYTES
+                        / width) + 1;
+    PixelStore big = store.createResult(width, height);
+    assertTrue(big instanceof MappedPixelStore);
+    assertEquals(Integer.BYTES, big.getBytesPerPixel());
+    assertEquals(height, big.getHeight());
+  }
+}
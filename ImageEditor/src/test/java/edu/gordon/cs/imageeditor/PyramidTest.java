@@ -0,0 +1,125 @@
+/*
+ * Tests for the image pyramid
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.image.ColorModel;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * Every level is checked against halving the image that many times.  To
+ * show that only the out of date part of a level is worked out again, a
+ * pixel of the level outside that part is altered by hand, and must still
+ * be altered afterwards.
+ */
+public class PyramidTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  /**
+   * Utility method: halve an image a number of times.
+   */
+  private int[][] halved(int[][] pixels, int times) {
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    for (int i = 0; i < times; i++) {
+      image.halve();
+    }
+    return image.getPixels();
+  }
+
+  @Test
+  public void testLevelCount() {
+    assertEquals(1, Pyramid.levelCount(1, 1));
+    assertEquals(1, Pyramid.levelCount(100, 1));
+    assertEquals(2, Pyramid.levelCount(2, 3));
+    assertEquals(6, Pyramid.levelCount(WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void testLevelsMatchHalving() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    for (int level = 5; level >= 0; level--) {
+      assertArrayEquals(halved(pixels, level), image.getPyramidLevel(level));
+    }
+    assertThrows(IllegalArgumentException.class,
+                 () -> image.getPyramidLevel(6));
+    assertThrows(IllegalArgumentException.class,
+                 () -> image.getPyramidLevel(-1));
+  }
+
+  @Test
+  public void testNearestLevel() {
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          randomPixels(WIDTH, HEIGHT));
+    assertEquals(0, image.nearestPyramidLevel(200, 10));
+    assertEquals(0, image.nearestPyramidLevel(46, 30));
+    assertEquals(1, image.nearestPyramidLevel(45, 30));
+    assertEquals(2, image.nearestPyramidLevel(20, 15));
+    assertEquals(5, image.nearestPyramidLevel(1, 1));
+  }
+
+  @Test
+  public void testChangesReachLevels() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    image.getPyramidLevel(3);
+    image.negative();
+    image.rotate();
+    ProjectImage expected = new ProjectImage(ColorModel.getRGBdefault(),
+                                             pixels);
+    expected.negative();
+    expected.rotate();
+    assertArrayEquals(halved(expected.getPixels(), 3),
+                      image.getPyramidLevel(3));
+  }
+
+  @Test
+  public void testRegionRebuilt() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    IntPixelStore image = IntPixelStore.fromArray(pixels);
+    Pyramid pyramid = new Pyramid();
+    pyramid.getLevel(image, 4);
+
+    // Mark a pixel of level 2 far from the change
+    PixelStore level2 = pyramid.getLevel(image, 2);
+    level2.set(0, 0, 999);
+
+    for (int row = 30; row < 37; row++) {
+      for (int col = 41; col < 50; col++) {
+        image.set(row, col, 255 - image.get(row, col));
+        pixels[row][col] = 255 - pixels[row][col];
+      }
+    }
+    pyramid.invalidate(30, 41, 9, 7);
+    for (int level = 4; level >= 1; level--) {
+      int[][] expected = halved(pixels, level);
+      if (level == 2) {
+        expected[0][0] = pyramid.getLevel(image, level).get(0, 0);
+      }
+      assertArrayEquals(expected, pyramid.getLevel(image, level).toArray(),
+                        "level " + level);
+    }
+    assertEquals(999, pyramid.getLevel(image, 2).get(0, 0));
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    assertParallelMatchesSerial(() -> {
+      IntPixelStore image = IntPixelStore.fromArray(pixels);
+      Pyramid pyramid = new Pyramid();
+      pyramid.getLevel(image, 3);
+      image.set(5, 5, 0);
+      pyramid.invalidate(0, 0, WIDTH, HEIGHT);
+      return pyramid.getLevel(image, 3).toArray();
+    });
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Tests for rank filters
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * Every rank filter must agree exactly with sorting each window.
+ */
+public class RankFilterTest {
+
+  private static final int WIDTH = 71;
+  private static final int HEIGHT = 150;
+
+  /**
+   * Utility method: sort the window around each pixel and pick one value.
+   */
+  private int[][] reference(int[][] pixels, int radius, double percentile) {
+    int height = pixels.length;
+    int width = pixels[0].length;
+    int size = 2 * radius + 1;
+    int rank = (int) Math.round(percentile / 100 * (size * size - 1));
+    int[][] result = new int[height][width];
+    int[] window = new int[size * size];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        int n = 0;
+        for (int i = -radius; i <= radius; i++) {
+          for (int j = -radius; j <= radius; j++) {
+            int r = Math.max(0, Math.min(height - 1, row + i));
+            int c = Math.max(0, Math.min(width - 1, col + j));
+            window[n++] = Math.max(0, Math.min(255, pixels[r][c]));
+          }
+        }
+        Arrays.sort(window);
+        result[row][col] = window[rank];
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testRanks() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore source = IntPixelStore.fromArray(pixels);
+    for (int radius : new int[] { 0, 1, 3, 40 }) {
+      for (double percentile : new double[] { 0, 25, 50, 100 }) {
+        assertArrayEquals(reference(pixels, radius, percentile),
+                          new RankFilter(radius, percentile).apply(source)
+                                                            .toArray(),
+                          "radius " + radius + ", percentile " + percentile);
+      }
+    }
+  }
+
+  @Test
+  public void testOutOfRange() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    pixels[7][9] = 100000;
+    pixels[70][30] = -5;
+    assertArrayEquals(reference(pixels, 2, 90),
+                      new RankFilter(2, 90)
+                        .apply(IntPixelStore.fromArray(pixels)).toArray());
+    assertThrows(IllegalArgumentException.class,
+                 () -> new RankFilter(-1, 50));
+    assertThrows(IllegalArgumentException.class,
+                 () -> new RankFilter(1, 101));
+  }
+
+  @Test
+  public void testParallel() {
+    int[][] pixels = randomPixels(700, 500);
+    PixelStore source = BytePixelStore.copyOf(IntPixelStore.fromArray(pixels));
+    int[][] serial = assertParallelMatchesSerial(
+      () -> new RankFilter(2, 50).apply(source).toArray());
+    assertArrayEquals(reference(pixels, 2, 50), serial);
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Tests for the program's own image format
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.AWTException;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+
+/**
+ * Images are saved and opened again, and must come back with the same
+ * pixels and color model, mapped from the file.  Damage to the pixels of a
+ * file with checksums must be found when it is opened with checking, and
+ * only then.
+ */
+public class RawImageFileTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  /**
+   * Utility method: make a color image from random pixels.
+   */
+  private int[][] colorPixels() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    for (int[] row : pixels) {
+      for (int col = 0; col < row.length; col++) {
+        row[col] = 0xFF000000 | row[col] * 0x10305;
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Utility method: a temporary file to save an image in.
+   */
+  private File tempFile() throws IOException {
+    File file = File.createTempFile("RawImageFileTest", ".pixels");
+    file.deleteOnExit();
+    return file;
+  }
+
+  @Test
+  public void testGray() throws IOException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(new GrayScaleColorModel(), pixels);
+    File file = tempFile();
+    image.saveRaw(file, false);
+
+    // One byte per pixel, after a page of header
+    assertEquals(4096 + WIDTH * HEIGHT, file.length());
+    ProjectImage opened = ProjectImage.openRaw(file);
+    assertTrue(opened.getColorModel() instanceof GrayScaleColorModel);
+    assertTrue(opened.getPixelStore() instanceof MappedPixelStore);
+    assertArrayEquals(pixels, opened.getPixels());
+  }
+
+  @Test
+  public void testColor() throws IOException {
+    int[][] pixels = colorPixels();
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(), pixels);
+    File file = tempFile();
+    image.saveRaw(file, true);
+    ProjectImage opened = ProjectImage.openRaw(file);
+    assertEquals(ColorModel.getRGBdefault(), opened.getColorModel());
+    assertArrayEquals(pixels, opened.getPixels());
+
+    // Pending rotations are saved as they look
+    image.rotate();
+    image.saveRaw(file, true);
+    assertArrayEquals(image.getPixels(),
+                      ProjectImage.openRaw(file).getPixels());
+  }
+
+  @Test
+  public void testChangesStayOutOfFile() throws IOException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    File file = tempFile();
+    new ProjectImage(new GrayScaleColorModel(), pixels).saveRaw(file, true);
+    ProjectImage opened = ProjectImage.openRaw(file);
+    opened.negative();
+    int[][] inverted = opened.getPixels();
+    assertArrayEquals(pixels, ProjectImage.openRaw(file).getPixels());
+
+    // Saving over the file the image was opened from
+    opened.saveRaw(file, true);
+    assertArrayEquals(inverted, opened.getPixels());
+    assertArrayEquals(inverted, ProjectImage.openRaw(file).getPixels());
+  }
+
+  @Test
+  public void testReadOnly() throws IOException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    File file = tempFile();
+    new ProjectImage(new GrayScaleColorModel(), pixels).saveRaw(file, true);
+    assertTrue(file.setWritable(false));
+    try {
+      ProjectImage opened = ProjectImage.openRaw(file);
+      assertArrayEquals(pixels, opened.getPixels());
+      opened.negative();
+      assertEquals(255 - pixels[3][4], opened.getPixels()[3][4]);
+      assertArrayEquals(pixels, ProjectImage.openRaw(file).getPixels());
+    } finally {
+      file.setWritable(true);
+    }
+  }
+
+  @Test
+  public void testChecksums() throws IOException {
+    File file = tempFile();
+    new ProjectImage(new GrayScaleColorModel(),
+                     randomPixels(WIDTH, HEIGHT)).saveRaw(file, true);
+    try (RandomAccessFile damage = new RandomAccessFile(file, "rw")) {
+      damage.seek(file.length() - 100);
+      int value = damage.read();
+      damage.seek(file.length() - 100);
+      damage.write(value ^ 1);
+    }
+    assertThrows(IOException.class, () -> ProjectImage.openRaw(file, true));
+
+    // Unless asked for, the pixels are not read, and the damage is not seen
+    ProjectImage.openRaw(file);
+
+    // Without checksums, the damage goes unnoticed
+    File unchecked = tempFile();
+    new ProjectImage(new GrayScaleColorModel(),
+                     randomPixels(WIDTH, HEIGHT)).saveRaw(unchecked, false);
+    try (RandomAccessFile damage = new RandomAccessFile(unchecked, "rw")) {
+      damage.seek(unchecked.length() - 100);
+      damage.write(0);
+    }
+    ProjectImage.openRaw(unchecked, true);
+
+    // A damaged header is always found
+    try (RandomAccessFile damage = new RandomAccessFile(unchecked, "rw")) {
+      damage.seek(12);
+      damage.write(1);
+    }
+    assertThrows(IOException.class, () -> ProjectImage.openRaw(unchecked));
+  }
+
+  @Test
+  public void testImageInput() throws IOException, AWTException {
+    int[][] pixels = colorPixels();
+    File file = tempFile();
+    new ProjectImage(ColorModel.getRGBdefault(), pixels).saveRaw(file, true);
+    assertEquals(new Dimension(WIDTH, HEIGHT), ImageInput.readSize(file));
+    assertArrayEquals(pixels, ImageInput.readFile(file, false));
+
+    int[][] gray = ImageInput.readFile(file, true);
+    int[][] part = ImageInput.readFile(file, false,
+                                       new Rectangle(13, 7, 50, 41), 3);
+    assertEquals(14, part.length);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(ImageInput.grayValue(pixels[row][col]), gray[row][col]);
+        if (row >= 7 && row < 48 && (row - 7) % 3 == 0
+            && col >= 13 && col < 63 && (col - 13) % 3 == 0) {
+          assertEquals(pixels[row][col], part[(row - 7) / 3][(col - 13) / 3]);
+        }
+      }
+    }
+
+    ProjectImage image = ImageInput.readImage(file, true, null, 1);
+    assertTrue(image.getPixelStore() instanceof MappedPixelStore);
+    assertEquals(ColorModel.getRGBdefault(), image.getColorModel());
+  }
+
+  /**
+   * An encrypted gray scale image is saved four bytes per pixel, but is
+   * still gray: reading it as gray, whole or in part, keeps its values, so
+   * it can be decrypted again.
+   */
+  @Test
+  public void testEncryptedGray() throws IOException, AWTException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(new GrayScaleColorModel(), pixels);
+    image.encryptDecrypt(537);
+    int[][] encrypted = image.getPixels();
+    File file = tempFile();
+    image.saveRaw(file, true);
+    assertEquals(4096 + 4 * WIDTH * HEIGHT, file.length());
+
+    assertArrayEquals(encrypted, ImageInput.readFile(file, true));
+    int[][] part = ImageInput.readFile(file, true,
+                                       new Rectangle(13, 7, 50, 41), 3);
+    assertEquals(encrypted[10][16], part[1][1]);
+
+    for (boolean useColor : new boolean[] { false, true }) {
+      ProjectImage opened = ImageInput.readImage(file, useColor,
+                                                 new Rectangle(0, 0, WIDTH,
+                                                               HEIGHT), 1);
+      assertTrue(opened.getColorModel() instanceof GrayScaleColorModel);
+      opened.encryptDecrypt(537);
+      assertArrayEquals(pixels, opened.getPixels());
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Tests for the Reorientation class
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The pixels are moved within a larger array, to make sure nothing outside
+ * the image is touched.
+ */
+public class ReorientationTest {
+
+  private static final int OFFSET = 5;
+  private static final int STRIDE = 150;
+
+  /**
+   * Utility method: make an array of random values.
+   */
+  private int[] randomData(int length) {
+    Random random = new Random(122);
+    int[] data = new int[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = random.nextInt();
+    }
+    return data;
+  }
+
+  /**
+   * Utility method: find pixel (row, col) of an image turned clockwise, from
+   * the original image.
+   */
+  private int turnedPixel(int[] data, int height, int row, int col) {
+    return data[OFFSET + (height - 1 - col) * STRIDE + row];
+  }
+
+  @Test
+  public void testTurn() {
+    int width = 140;
+    int height = 97;
+    int[] data = randomData(OFFSET + height * STRIDE);
+    int[] clockwise = new int[OFFSET + width * STRIDE];
+    int[] anticlockwise = new int[OFFSET + width * STRIDE];
+    Reorientation.turn(data, OFFSET, STRIDE, width, height, true, clockwise,
+                       OFFSET, STRIDE);
+    Reorientation.turn(data, OFFSET, STRIDE, width, height, false,
+                       anticlockwise, OFFSET, STRIDE);
+    for (int row = 0; row < width; row++) {
+      for (int col = 0; col < height; col++) {
+        assertEquals(turnedPixel(data, height, row, col),
+                     clockwise[OFFSET + row * STRIDE + col]);
+        assertEquals(data[OFFSET + col * STRIDE + width - 1 - row],
+                     anticlockwise[OFFSET + row * STRIDE + col]);
+      }
+      assertEquals(0, clockwise[OFFSET + row * STRIDE + height]);
+    }
+  }
+
+  @Test
+  public void testTurnSquare() {
+    for (int size = 0; size < 140; size += 27) {
+      int[] data = randomData(OFFSET + size * STRIDE);
+      int[] original = data.clone();
+      Reorientation.turnSquare(data, OFFSET, STRIDE, size, true);
+      for (int row = 0; row < size; row++) {
+        for (int col = 0; col < size; col++) {
+          assertEquals(turnedPixel(original, size, row, col),
+                       data[OFFSET + row * STRIDE + col]);
+        }
+        for (int col = size; col < STRIDE && row < size - 1; col++) {
+          assertEquals(original[OFFSET + row * STRIDE + col],
+                       data[OFFSET + row * STRIDE + col]);
+        }
+      }
+      Reorientation.turnSquare(data, OFFSET, STRIDE, size, false);
+      assertArrayEquals(original, data);
+    }
+  }
+
+  @Test
+  public void testHalfTurnAndFlips() {
+    int width = 140;
+    for (int height = 0; height < 8; height++) {
+      int[] data = randomData(OFFSET + height * STRIDE);
+      int[] original = data.clone();
+      Reorientation.halfTurn(data, OFFSET, STRIDE, width, height);
+      for (int row = 0; row < height; row++) {
+        for (int col = 0; col < width; col++) {
+          assertEquals(original[OFFSET + (height - 1 - row) * STRIDE
+                                + width - 1 - col],
+                       data[OFFSET + row * STRIDE + col]);
+        }
+      }
+      Reorientation.flipVertically(data, OFFSET, STRIDE, width, height);
+      Reorientation.flipHorizontally(data, OFFSET, STRIDE, width, height);
+      assertArrayEquals(original, data);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Tests for scaling an image to any size
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.image.ColorModel;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * The weights of every filter add up to 1, so flat images stay flat, and
+ * bilinear and bicubic filters are exact for values that change linearly,
+ * so scaled ramps are checked against the ramp worked out at the point
+ * each pixel came from.  Shrinking must smooth away detail too fine for
+ * the new size rather than picking out some of it.
+ */
+public class ResamplerTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  /**
+   * Utility method: the value of a linear ramp at any point.
+   */
+  private double ramp(double row, double col) {
+    return 20 + 1.1 * col + 1.7 * row;
+  }
+
+  /**
+   * Utility method: make an image of a linear ramp.
+   */
+  private int[][] rampPixels(int width, int height) {
+    int[][] pixels = new int[height][width];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        pixels[row][col] = (int) Math.round(ramp(row, col));
+      }
+    }
+    return pixels;
+  }
+
+  @Test
+  public void testFlatStaysFlat() {
+    int[][] pixels = new int[HEIGHT][WIDTH];
+    for (int[] row : pixels) {
+      Arrays.fill(row, 173);
+    }
+    int[][] sizes = { { 200, 150 }, { 17, 9 }, { 1, 1 }, { 300, 20 } };
+    for (ResizeFilter filter : ResizeFilter.values()) {
+      for (int[] size : sizes) {
+        ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                              pixels);
+        image.resize(size[0], size[1], filter);
+        assertEquals(size[0], image.getWidth());
+        assertEquals(size[1], image.getHeight());
+        for (int[] row : image.getPixels()) {
+          for (int value : row) {
+            assertEquals(173, value, filter + " to " + size[0]);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesRamp() {
+    int[][] sizes = { { 200, 150 }, { 37, 29 }, { 120, 40 } };
+    for (ResizeFilter filter : new ResizeFilter[] {
+           ResizeFilter.BILINEAR, ResizeFilter.BICUBIC }) {
+      for (int[] size : sizes) {
+        ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                              rampPixels(WIDTH, HEIGHT));
+        image.resize(size[0], size[1], filter);
+        int[][] result = image.getPixels();
+        double scaleX = (double) size[0] / WIDTH;
+        double scaleY = (double) size[1] / HEIGHT;
+
+        // Only the pixels whose filters lie wholly inside the image are
+        // checked
+        int checked = 0;
+        for (int row = 0; row < size[1]; row++) {
+          for (int col = 0; col < size[0]; col++) {
+            double sourceRow = (row + 0.5) / scaleY - 0.5;
+            double sourceCol = (col + 0.5) / scaleX - 0.5;
+            double marginRow = 2 * Math.max(1, 1 / scaleY);
+            double marginCol = 2 * Math.max(1, 1 / scaleX);
+            if (sourceRow >= marginRow && sourceRow <= HEIGHT - 1 - marginRow
+                && sourceCol >= marginCol
+                && sourceCol <= WIDTH - 1 - marginCol) {
+              assertEquals(ramp(sourceRow, sourceCol), result[row][col], 1.5,
+                           filter + " to " + size[0] + " at " + row + ", "
+                           + col);
+              checked++;
+            }
+          }
+        }
+        assertTrue(checked > size[0] * size[1] / 3);
+      }
+    }
+  }
+
+  @Test
+  public void testBoxMatchesHalve() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT + 1);
+    ProjectImage halved = new ProjectImage(ColorModel.getRGBdefault(),
+                                           pixels);
+    ProjectImage resized = new ProjectImage(ColorModel.getRGBdefault(),
+                                            pixels);
+    halved.halve();
+    resized.resize(WIDTH / 2, (HEIGHT + 1) / 2, ResizeFilter.BOX);
+    int[][] expected = halved.getPixels();
+    int[][] result = resized.getPixels();
+    for (int row = 0; row < expected.length; row++) {
+      for (int col = 0; col < expected[row].length; col++) {
+        // halve() rounds down rather than to the nearest
+        assertEquals(expected[row][col], result[row][col], 1);
+      }
+    }
+  }
+
+  @Test
+  public void testDoubleSize() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    image.doubleSize();
+    int[][] result = image.getPixels();
+    assertEquals(2 * HEIGHT, result.length);
+    assertEquals(2 * WIDTH, result[0].length);
+    for (int row = 0; row < 2 * HEIGHT; row++) {
+      for (int col = 0; col < 2 * WIDTH; col++) {
+        assertEquals(pixels[row / 2][col / 2], result[row][col]);
+      }
+    }
+  }
+
+  @Test
+  public void testShrinkingSmoothsDetail() {
+    // A checkerboard of single pixels is far too fine for a third of the
+    // size, so it should come out as an even gray
+    int[][] pixels = new int[HEIGHT][WIDTH];
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        pixels[row][col] = (row + col) % 2 == 0 ? 255 : 0;
+      }
+    }
+    for (ResizeFilter filter : ResizeFilter.values()) {
+      ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                            pixels);
+      image.resize(WIDTH / 3, HEIGHT / 3, filter);
+      int[][] result = image.getPixels();
+      for (int row = 2; row < result.length - 2; row++) {
+        for (int col = 2; col < result[row].length - 2; col++) {
+          assertEquals(127.5, result[row][col], 30, filter + " at " + row
+                       + ", " + col);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    for (ResizeFilter filter : ResizeFilter.values()) {
+      assertParallelMatchesSerial(() -> {
+        ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                              pixels);
+        image.setDeferred(true);
+        image.resize(131, 47, filter);
+        return image.getPixels();
+      });
+    }
+  }
+
+  @Test
+  public void testBadSize() {
+    assertThrows(IllegalArgumentException.class,
+                 () -> new Resampler(-1, 10, ResizeFilter.BOX));
+    assertThrows(IllegalArgumentException.class,
+                 () -> new Resampler(10, -1, ResizeFilter.BILINEAR));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Benchmark of quarter turns, against the plain loop they replaced
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+
+/**
+ * Not run as part of the tests.  Run it by hand, for example with
+ *
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.gordon.cs.imageeditor.RotationBenchmark [width height]
+ *
+ * Each way of turning is timed several times over, and the best time kept,
+ * for a non-square image and a square one.  The results go into an array
+ * allocated beforehand, so only the moving of pixels is timed.
+ */
+public class RotationBenchmark {
+
+  private static final int RUNS = 7;
+
+  public static void main(String[] args) {
+    int width = args.length >= 2 ? Integer.parseInt(args[0]) : 6000;
+    int height = args.length >= 2 ? Integer.parseInt(args[1]) : 4000;
+    run(width, height);
+    run(height, height);
+  }
+
+  private static void run(int width, int height) {
+    System.out.println(width + " x " + height);
+    int[] data = new int[width * height];
+    Random random = new Random(122);
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextInt();
+    }
+
+    int[] result = new int[width * height];
+    time("plain loop", () -> plainRotate(data, result, width, height));
+    for (int threads = 1; threads >= 0; threads--) {
+      String suffix = threads == 1 ? ", 1 thread" : ", parallel";
+      ProjectImage.setParallelism(threads, 0);
+      time("blocked" + suffix, () ->
+        Reorientation.turn(data, 0, width, width, height, true, result, 0,
+                           height));
+      if (width == height) {
+        time("in place" + suffix, () ->
+          Reorientation.turnSquare(data, 0, width, width, true));
+      }
+    }
+    ProjectImage.setParallelism(0, 0);
+  }
+
+  /**
+   * The loop IntPixelStore used to use: along the rows of the source, and
+   * down the columns of the result.
+   */
+  private static void plainRotate(int[] data, int[] result, int width,
+                                  int height) {
+    for (int row = 0; row < height; row++) {
+      int source = row * width;
+      int dest = height - 1 - row;
+      for (int col = 0; col < width; col++) {
+        result[dest] = data[source + col];
+        dest += height;
+      }
+    }
+  }
+
+  private static void time(String name, Runnable action) {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      action.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("  %-20s %8.1f ms%n", name, best / 1e6);
+  }
+}
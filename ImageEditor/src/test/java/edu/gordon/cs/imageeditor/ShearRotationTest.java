@@ -0,0 +1,124 @@
+/*
+ * Tests for rotation by any angle
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.image.ColorModel;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * Sliding pixels part way between two others is exact for values that
+ * change linearly, so inside the rotated image a linear ramp is checked
+ * against the ramp worked out at the point each pixel came from.
+ */
+public class ShearRotationTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  /**
+   * Utility method: the value of a linear ramp at any point.
+   */
+  private double ramp(double row, double col) {
+    return 20 + 1.1 * col + 1.7 * row;
+  }
+
+  /**
+   * Utility method: make an image of a linear ramp.
+   */
+  private int[][] rampPixels(int width, int height) {
+    int[][] pixels = new int[height][width];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        pixels[row][col] = (int) Math.round(ramp(row, col));
+      }
+    }
+    return pixels;
+  }
+
+  @Test
+  public void testMatchesRamp() {
+    for (double degrees : new double[] { 3, -12.5, 30, 45, 100, -170 }) {
+      ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                            rampPixels(WIDTH, HEIGHT));
+      image.rotate(degrees);
+      double radians = Math.toRadians(degrees);
+      double cos = Math.cos(radians);
+      double sin = Math.sin(radians);
+      assertEquals((int) Math.ceil(WIDTH * Math.abs(cos)
+                                   + HEIGHT * Math.abs(sin) - 1e-6),
+                   image.getWidth());
+      assertEquals((int) Math.ceil(WIDTH * Math.abs(sin)
+                                   + HEIGHT * Math.abs(cos) - 1e-6),
+                   image.getHeight());
+
+      // Turn each pixel back to find where it came from; only those well
+      // inside the original image are checked
+      int[][] result = image.getPixels();
+      double centerRow = (image.getHeight() - 1) / 2.0;
+      double centerCol = (image.getWidth() - 1) / 2.0;
+      int checked = 0;
+      for (int row = 0; row < image.getHeight(); row++) {
+        for (int col = 0; col < image.getWidth(); col++) {
+          double x = col - centerCol;
+          double y = row - centerRow;
+          double sourceCol = cos * x + sin * y + (WIDTH - 1) / 2.0;
+          double sourceRow = - sin * x + cos * y + (HEIGHT - 1) / 2.0;
+          if (sourceRow >= 3 && sourceRow <= HEIGHT - 4 && sourceCol >= 3
+              && sourceCol <= WIDTH - 4) {
+            assertEquals(ramp(sourceRow, sourceCol), result[row][col], 1.5,
+                         degrees + " degrees at " + row + ", " + col);
+            checked++;
+          }
+        }
+      }
+      assertTrue(checked > WIDTH * HEIGHT / 2);
+
+      // The corners are outside the rotated image
+      assertEquals(0, result[0][0]);
+    }
+  }
+
+  @Test
+  public void testQuarterTurns() {
+    int[][] pixels = rampPixels(7, 4);
+    ProjectImage turned = new ProjectImage(ColorModel.getRGBdefault(),
+                                           pixels);
+    ProjectImage expected = new ProjectImage(ColorModel.getRGBdefault(),
+                                             pixels);
+    turned.rotate(-90);
+    expected.rotate();
+    expected.rotate();
+    expected.rotate();
+    assertArrayEquals(expected.getPixels(), turned.getPixels());
+    turned.rotate(720 + 180);
+    expected.rotate();
+    expected.rotate();
+    assertArrayEquals(expected.getPixels(), turned.getPixels());
+    turned.rotate(0);
+    assertArrayEquals(expected.getPixels(), turned.getPixels());
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    assertParallelMatchesSerial(() -> {
+      ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                            pixels);
+      image.setDeferred(true);
+      image.rotate(17);
+      return image.getPixels();
+    });
+  }
+
+  @Test
+  public void testBadAngle() {
+    assertThrows(IllegalArgumentException.class,
+                 () -> new ShearRotation(Double.NaN));
+    assertThrows(IllegalArgumentException.class,
+                 () -> new ShearRotation(Double.POSITIVE_INFINITY));
+  }
+}
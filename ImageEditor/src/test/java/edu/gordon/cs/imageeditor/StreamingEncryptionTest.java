@@ -0,0 +1,225 @@
+/*
+ * Tests for encrypting PNG files a row at a time
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+
+/**
+ * PNG files are made and read back with ImageIO, which stores rows with
+ * all the filters, so the files read here exercise undoing each of them.
+ * Encrypting a file must give the same image as encrypting the pixels of
+ * the file in a ProjectImage, and then saving them as the editor does.
+ */
+public class StreamingEncryptionTest {
+
+  private static final int WIDTH = 90;
+  private static final int HEIGHT = 61;
+
+  /**
+   * Utility method: make a gray scale image that compresses, so that
+   * ImageIO uses filters other than None.
+   */
+  private BufferedImage grayImage(int[][] pixels) {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                            BufferedImage.TYPE_BYTE_GRAY);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        image.getRaster().setSample(col, row, 0, pixels[row][col]);
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Utility method: a smooth image with some noise.
+   */
+  private int[][] smoothPixels() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        pixels[row][col] = (2 * row + col + pixels[row][col] / 16) % 256;
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Utility method: write an image as a PNG file in memory.
+   */
+  private byte[] png(BufferedImage image) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(ImageIO.write(image, "png", out));
+    return out.toByteArray();
+  }
+
+  /**
+   * Utility method: encrypt a PNG file in memory.
+   */
+  private byte[] encrypt(byte[] file, int seed, EncryptionMode mode,
+                         boolean forceGray) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamingEncryption.encryptDecrypt(new ByteArrayInputStream(file), out,
+                                       seed, mode, forceGray);
+    return out.toByteArray();
+  }
+
+  /**
+   * Utility method: read every row of a PNG file in memory.
+   */
+  private int[][] readRows(byte[] file) throws IOException {
+    try (PngRowReader reader =
+           new PngRowReader(new ByteArrayInputStream(file))) {
+      int[][] rows = new int[reader.getHeight()][reader.getWidth()];
+      for (int[] row : rows) {
+        reader.readRow(row, 0);
+      }
+      return rows;
+    }
+  }
+
+  @Test
+  public void testCounterMatchesEditor() throws IOException {
+    int[][] pixels = smoothPixels();
+    byte[] encrypted = encrypt(png(grayImage(pixels)), 537,
+                               EncryptionMode.COUNTER, true);
+    ProjectImage image = new ProjectImage(ColorModel.getRGBdefault(),
+                                          pixels);
+    image.encryptDecrypt(537, EncryptionMode.COUNTER);
+    int[][] expected = image.getPixels();
+
+    // Written as gray
+    BufferedImage result = ImageIO.read(new ByteArrayInputStream(encrypted));
+    assertEquals(BufferedImage.TYPE_BYTE_GRAY, result.getType());
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(expected[row][col],
+                     result.getRaster().getSample(col, row, 0));
+      }
+    }
+
+    byte[] decrypted = encrypt(encrypted, 537, EncryptionMode.COUNTER,
+                               true);
+    int[][] rows = readRows(decrypted);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(pixels[row][col], rows[row][col] & 0xFF);
+      }
+    }
+  }
+
+  @Test
+  public void testLegacyMatchesEditor() throws IOException {
+    int[][] pixels = smoothPixels();
+    byte[] encrypted = encrypt(png(grayImage(pixels)), 537,
+                               EncryptionMode.LEGACY, true);
+    ProjectImage image = new ProjectImage(new GrayScaleColorModel(), pixels);
+    image.encryptDecrypt(537);
+    int[] expected = image.getPixelsIntRGB();
+    BufferedImage result = ImageIO.read(new ByteArrayInputStream(encrypted));
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(expected[row * WIDTH + col] & 0xFFFFFF,
+                     result.getRGB(col, row) & 0xFFFFFF);
+      }
+    }
+  }
+
+  @Test
+  public void testColorRoundTrip() throws IOException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                            BufferedImage.TYPE_INT_RGB);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        image.setRGB(col, row, pixels[row][col] * 0x10307);
+      }
+    }
+    byte[] file = png(image);
+    byte[] encrypted = encrypt(file, 99, EncryptionMode.COUNTER, false);
+    assertFalse(Arrays.deepEquals(readRows(file), readRows(encrypted)));
+    byte[] decrypted = encrypt(encrypted, 99, EncryptionMode.COUNTER, false);
+    assertArrayEquals(readRows(file), readRows(decrypted));
+  }
+
+  @Test
+  public void testFormats() throws IOException {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    int[] types = { BufferedImage.TYPE_INT_ARGB,
+                    BufferedImage.TYPE_BYTE_INDEXED,
+                    BufferedImage.TYPE_BYTE_BINARY };
+    for (int type : types) {
+      BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+      for (int row = 0; row < HEIGHT; row++) {
+        for (int col = 0; col < WIDTH; col++) {
+          image.setRGB(col, row, 0xFF000000 | pixels[row][col] * 0x10305);
+        }
+      }
+      int[][] rows = readRows(png(image));
+      for (int row = 0; row < HEIGHT; row++) {
+        for (int col = 0; col < WIDTH; col++) {
+          assertEquals(image.getRGB(col, row), rows[row][col],
+                       "type " + type + " at " + row + ", " + col);
+        }
+      }
+    }
+
+    // 16 bit samples are cut to their top 8 bits
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                                            BufferedImage.TYPE_USHORT_GRAY);
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        image.getRaster().setSample(col, row, 0, pixels[row][col] * 257);
+      }
+    }
+    int[][] rows = readRows(png(image));
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) {
+        assertEquals(0xFF000000 | pixels[row][col] * 0x10101, rows[row][col]);
+      }
+    }
+  }
+
+  @Test
+  public void testBadFiles() throws IOException {
+    byte[] file = png(grayImage(smoothPixels()));
+
+    // A damaged byte in the image data
+    byte[] damaged = file.clone();
+    damaged[damaged.length - 30] ^= 1;
+    assertThrows(IOException.class,
+                 () -> encrypt(damaged, 1, EncryptionMode.COUNTER, true));
+
+    assertThrows(IOException.class,
+                 () -> encrypt(new byte[] { 1, 2, 3 }, 1,
+                               EncryptionMode.COUNTER, true));
+
+    // Interlaced files cannot be read a row at a time
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+      writer.setOutput(stream);
+      writer.write(null, new IIOImage(grayImage(smoothPixels()), null, null),
+                   param);
+    }
+    writer.dispose();
+    assertThrows(IOException.class,
+                 () -> encrypt(out.toByteArray(), 1, EncryptionMode.COUNTER,
+                               true));
+  }
+}
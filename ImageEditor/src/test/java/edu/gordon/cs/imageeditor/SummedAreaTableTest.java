@@ -0,0 +1,126 @@
+/*
+ * Tests for sums over rectangles
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.gordon.cs.imageeditor.TestImages.randomPixels;
+import static edu.gordon.cs.imageeditor.TestImages.assertParallelMatchesSerial;
+
+/**
+ * Sums read from the table must agree with sums worked out pixel by
+ * pixel, and the windowed means must agree with applying a filter of
+ * equal weights.
+ */
+public class SummedAreaTableTest {
+
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 530;
+
+  /**
+   * Utility method: make a filter of equal weights covering a square.
+   */
+  private double[][] boxFilter(int radius) {
+    int size = 2 * radius + 1;
+    double[][] filter = new double[size][size];
+    for (double[] row : filter) {
+      java.util.Arrays.fill(row, 1.0 / (size * size));
+    }
+    return filter;
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "int", "tiled" })
+  public void testSums(String kind) {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore store = IntPixelStore.fromArray(pixels);
+    if (kind.equals("tiled")) {
+      store = TiledPixelStore.copyOf(store);
+    }
+    SummedAreaTable table = new SummedAreaTable(store);
+    Random random = new Random(5);
+    for (int test = 0; test < 200; test++) {
+      int row = random.nextInt(HEIGHT);
+      int col = random.nextInt(WIDTH);
+      int height = random.nextInt(HEIGHT - row) + 1;
+      int width = random.nextInt(WIDTH - col) + 1;
+      long sum = 0;
+      long squares = 0;
+      for (int r = row; r < row + height; r++) {
+        for (int c = col; c < col + width; c++) {
+          sum += pixels[r][c];
+          squares += pixels[r][c] * pixels[r][c];
+        }
+      }
+      assertEquals(sum, table.sum(row, col, width, height));
+      assertEquals(squares, table.sumOfSquares(row, col, width, height));
+    }
+  }
+
+  /**
+   * The table, and the means and variances read from it, come out the same
+   * built in parallel as serially.
+   */
+  @Test
+  public void testSumsInParallel() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    assertParallelMatchesSerial(() -> {
+      PixelStore result = new IntPixelStore(WIDTH, HEIGHT);
+      new SummedAreaTable(IntPixelStore.fromArray(pixels)).mean(6, result);
+      return result.toArray();
+    });
+    assertParallelMatchesSerial(() -> {
+      PixelStore result = new IntPixelStore(WIDTH, HEIGHT);
+      new SummedAreaTable(IntPixelStore.fromArray(pixels)).variance(3, result);
+      return result.toArray();
+    });
+  }
+
+  @Test
+  public void testMean() {
+    int[][] pixels = randomPixels(WIDTH, HEIGHT);
+    PixelStore store = IntPixelStore.fromArray(pixels);
+    SummedAreaTable table = new SummedAreaTable(store);
+    for (int radius : new int[] { 0, 1, 4, 200 }) {
+      PixelStore result = store.createCompatible(WIDTH, HEIGHT);
+      table.mean(radius, result);
+      Convolution convolution = new Convolution(boxFilter(radius));
+      assertArrayEquals(
+        convolution.apply(store, Convolution.Method.DIRECT).toArray(),
+        result.toArray(), "radius " + radius);
+    }
+  }
+
+  @Test
+  public void testVariance() {
+    int[][] pixels = randomPixels(40, 30);
+    SummedAreaTable table = new SummedAreaTable(
+      IntPixelStore.fromArray(pixels));
+    PixelStore result = new IntPixelStore(40, 30);
+    int radius = 2;
+    table.variance(radius, result);
+    for (int row = 0; row < 30; row++) {
+      for (int col = 0; col < 40; col++) {
+        double sum = 0;
+        double squares = 0;
+        for (int r = row - radius; r <= row + radius; r++) {
+          for (int c = col - radius; c <= col + radius; c++) {
+            int value = pixels[Math.max(0, Math.min(29, r))]
+                              [Math.max(0, Math.min(39, c))];
+            sum += value;
+            squares += value * value;
+          }
+        }
+        double mean = sum / 25;
+        long expected = Math.min(255, Math.round(squares / 25 - mean * mean));
+        assertEquals(expected, result.get(row, col));
+      }
+    }
+    assertThrows(IllegalArgumentException.class,
+                 () -> table.variance(-1, result));
+  }
+}
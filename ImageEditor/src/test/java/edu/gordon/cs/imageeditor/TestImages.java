@@ -0,0 +1,52 @@
+/*
+ * Images and checks shared by the tests
+ */
+package edu.gordon.cs.imageeditor;
+
+import java.util.Random;
+import java.util.function.Supplier;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Utility methods used by several of the test classes.
+ */
+final class TestImages {
+
+  private TestImages() {
+  }
+
+  /**
+   * Utility method: make an image of random gray values, the same ones
+   * every time.
+   */
+  static int[][] randomPixels(int width, int height) {
+    Random random = new Random(122);
+    int[][] pixels = new int[height][width];
+    for (int[] row : pixels) {
+      for (int col = 0; col < row.length; col++) {
+        row[col] = random.nextInt(256);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Utility method: check that an operation gives exactly the same pixels
+   * working on bands of rows in parallel as working on one thread.  The
+   * operation must start afresh each time it is run.
+   *
+   * @return the pixels the operation gave
+   */
+  static int[][] assertParallelMatchesSerial(Supplier<int[][]> operation) {
+    int[][] serial;
+    try {
+      ProjectImage.setParallelism(1, 0);
+      serial = operation.get();
+      ProjectImage.setParallelism(4, 7);
+      assertArrayEquals(serial, operation.get());
+    } finally {
+      ProjectImage.setParallelism(0, 0);
+    }
+    return serial;
+  }
+}